@@ -0,0 +1,284 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+
+//  Java2DFBench
+//  JMH benchmarks for each stage of Java2DF.
+//
+//  The corpus is either the test files (tests/*.java) or
+//  a synthetic project (see SyntheticProject).
+//  The stages that change the type spaces need a fresh
+//  Java2DF for each run, so they are measured one shot at a time.
+//
+//  Usage:
+//    ant get-bench-deps
+//    ant bench -Dbench.args="-f 1 -wi 3 -i 5 -p corpus=synthetic"
+//
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = { "-Xss8m" })
+public class Java2DFBench {
+
+    //  Corpus
+    //  The source files to be analyzed.
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        @Param({ "tests", "synthetic" })
+        public String corpus;
+
+        @Param({ "200" })
+        public int nfiles;
+
+        public List<String> paths = new ArrayList<String>();
+        private File _tmpDir = null;
+
+        @Setup(Level.Trial)
+        public void setup()
+            throws IOException {
+            if (corpus.equals("synthetic")) {
+                _tmpDir = File.createTempFile("synth", ".dir");
+                _tmpDir.delete();
+                paths.addAll(new SyntheticProject(nfiles).generate(_tmpDir));
+            } else {
+                for (File file : Utils.enumerateFiles(corpus)) {
+                    if (file.getName().endsWith(".java")) {
+                        paths.add(file.getPath());
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (_tmpDir != null) {
+                for (File file : Utils.enumerateFiles(_tmpDir)) {
+                    file.delete();
+                }
+                new File(_tmpDir, SyntheticProject.PACKAGE).delete();
+                _tmpDir.delete();
+            }
+        }
+
+        public Java2DF createConverter()
+            throws IOException, InvalidSyntax {
+            Java2DF converter = new Java2DF();
+            converter.setLogLevel(-1);
+            converter.loadDefaults();
+            converter.addSourceFiles(paths, true, 1);
+            return converter;
+        }
+    }
+
+    //  Parsed
+    //  All the files are parsed.
+    @State(Scope.Thread)
+    public static class Parsed {
+
+        public Java2DF converter;
+
+        @Setup(Level.Iteration)
+        public void setup(Corpus corpus)
+            throws IOException, InvalidSyntax {
+            converter = corpus.createConverter();
+        }
+    }
+
+    //  Typed
+    //  The type spaces are built. (Stage1-3)
+    @State(Scope.Thread)
+    public static class Typed {
+
+        public Java2DF converter;
+        public Collection<DFSourceKlass> klasses;
+
+        @Setup(Level.Iteration)
+        public void setup(Corpus corpus)
+            throws IOException, InvalidSyntax {
+            converter = corpus.createConverter();
+            klasses = converter.buildTypeSpaces();
+        }
+    }
+
+    //  Expanded
+    //  The klasses are expanded. (Stage4 without refs)
+    @State(Scope.Thread)
+    public static class Expanded {
+
+        public Java2DF converter;
+        public List<DFSourceMethod> methods;
+
+        @Setup(Level.Iteration)
+        public void setup(Corpus corpus)
+            throws IOException, InvalidSyntax {
+            converter = corpus.createConverter();
+            methods = converter.expandKlasses(converter.buildTypeSpaces());
+        }
+    }
+
+    //  Analyzed
+    //  Everything is ready for Stage5.
+    //  The graphs are built again at each run.
+    @State(Scope.Benchmark)
+    public static class Analyzed {
+
+        public DFTypeUniverse universe;
+        public List<DFSourceKlass> klasses = new ArrayList<DFSourceKlass>();
+        public List<List<DFMethod>> methods = new ArrayList<List<DFMethod>>();
+
+        @Setup(Level.Trial)
+        public void setup(Corpus corpus)
+            throws IOException, InvalidSyntax {
+            Java2DF converter = corpus.createConverter();
+            Collection<DFSourceKlass> analyzed = converter.getSourceKlasses(false);
+            universe = converter.getUniverse();
+            DFTypeUniverse prev = universe.enter();
+            try {
+                for (DFSourceKlass klass : analyzed) {
+                    if (!klass.isAnalyze()) continue;
+                    List<DFMethod> a = new ArrayList<DFMethod>();
+                    DFMethod init = klass.getInitMethod();
+                    if (init != null) {
+                        a.add(init);
+                    }
+                    for (DFMethod method : klass.getMethods()) {
+                        a.add(method);
+                        if (method.isGeneric()) {
+                            a.addAll(method.getReifiedMethods());
+                        }
+                    }
+                    klasses.add(klass);
+                    methods.add(a);
+                }
+            } finally {
+                DFTypeUniverse.exit(prev);
+            }
+        }
+
+        public List<List<DFGraphTask>> buildGraphs() {
+            List<List<DFGraphTask>> tasks = new ArrayList<List<DFGraphTask>>();
+            DFTypeUniverse prev = universe.enter();
+            try {
+                int graphId = 1;
+                for (List<DFMethod> a : methods) {
+                    List<DFGraphTask> b = new ArrayList<DFGraphTask>();
+                    for (DFMethod method : a) {
+                        DFGraphTask task = new DFGraphTask(method, graphId++);
+                        task.run();
+                        b.add(task);
+                    }
+                    tasks.add(b);
+                }
+            } finally {
+                DFTypeUniverse.exit(prev);
+            }
+            return tasks;
+        }
+    }
+
+    //  Graphs
+    //  The graphs are built once and written at each run.
+    @State(Scope.Benchmark)
+    public static class Graphs {
+
+        public DFTypeUniverse universe;
+        public List<DFSourceKlass> klasses;
+        public List<List<DFGraphTask>> tasks;
+
+        @Setup(Level.Trial)
+        public void setup(Analyzed analyzed) {
+            universe = analyzed.universe;
+            klasses = analyzed.klasses;
+            tasks = analyzed.buildGraphs();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void parseFile(Corpus corpus, Blackhole bh)
+        throws IOException {
+        for (String path : corpus.paths) {
+            bh.consume(Utils.parseFile(new File(path)));
+        }
+    }
+
+    @Benchmark
+    public Collection<DFSourceKlass> buildTypeSpaces(Parsed parsed)
+        throws InvalidSyntax {
+        return parsed.converter.buildTypeSpaces();
+    }
+
+    @Benchmark
+    public List<DFSourceMethod> expandKlasses(Typed typed)
+        throws InvalidSyntax {
+        return typed.converter.expandKlasses(typed.klasses);
+    }
+
+    @Benchmark
+    public void expandRefs(Expanded expanded) {
+        expanded.converter.expandRefs(expanded.methods);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public List<List<DFGraphTask>> processMethodBody(Analyzed analyzed) {
+        return analyzed.buildGraphs();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void writeXml(Graphs graphs, Blackhole bh)
+        throws InvalidSyntax {
+        CountingStream output = new CountingStream();
+        XmlExporter exporter = new XmlExporter(output);
+        DFTypeUniverse prev = graphs.universe.enter();
+        try {
+            for (int i = 0; i < graphs.klasses.size(); i++) {
+                exporter.startKlass(graphs.klasses.get(i));
+                for (DFGraphTask task : graphs.tasks.get(i)) {
+                    try {
+                        exporter.writeMethod(task);
+                    } catch (EntityNotFound e) {
+                        // Ignore the errors, as Java2DF does.
+                    }
+                }
+                exporter.endKlass();
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+        exporter.close();
+        bh.consume(output.size);
+    }
+
+    //  CountingStream
+    //  Discards the output.
+    private static class CountingStream extends OutputStream {
+
+        public long size = 0;
+
+        @Override
+        public void write(int b) {
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            size += len;
+        }
+    }
+}
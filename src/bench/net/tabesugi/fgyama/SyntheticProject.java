@@ -0,0 +1,181 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+
+
+//  SyntheticProject
+//  Generates a large project for benchmarking.
+//
+//  Each file has a class that implements a common interface,
+//  calls the methods of a few other classes (making cycles
+//  in the call graph) and uses generics, lambdas and anonymous
+//  classes. The output only depends on the number of files.
+//
+public class SyntheticProject {
+
+    public static final String PACKAGE = "synth";
+
+    private int _nfiles;
+
+    public SyntheticProject(int nfiles) {
+        assert 0 < nfiles;
+        _nfiles = nfiles;
+    }
+
+    @Override
+    public String toString() {
+        return ("<SyntheticProject("+_nfiles+")>");
+    }
+
+    // generate: writes the source files into the directory
+    //   and returns their paths.
+    public List<String> generate(File dir)
+        throws IOException {
+        File pkgDir = new File(dir, PACKAGE);
+        pkgDir.mkdirs();
+        List<String> paths = new ArrayList<String>();
+        paths.add(this.writeFile(pkgDir, "Node", this.getNodeSource()));
+        for (int i = 0; i < _nfiles; i++) {
+            paths.add(this.writeFile(pkgDir, getName(i), this.getKlassSource(i)));
+        }
+        return paths;
+    }
+
+    private String writeFile(File dir, String name, String src)
+        throws IOException {
+        File file = new File(dir, name+".java");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(src);
+        } finally {
+            writer.close();
+        }
+        return file.getPath();
+    }
+
+    private static String getName(int i) {
+        return "K"+i;
+    }
+
+    private String getNodeSource() {
+        StringBuilder b = new StringBuilder();
+        b.append("package "+PACKAGE+";\n");
+        b.append("\n");
+        b.append("public interface Node {\n");
+        b.append("    int eval(int x);\n");
+        b.append("    Node next();\n");
+        b.append("}\n");
+        return b.toString();
+    }
+
+    private String getKlassSource(int i) {
+        // Callees: the next class (a long chain), and
+        // a distant class (cycles of various sizes).
+        String name = getName(i);
+        String next = getName((i+1) % _nfiles);
+        String far = getName((i*7+3) % _nfiles);
+        StringBuilder b = new StringBuilder();
+        b.append("package "+PACKAGE+";\n");
+        b.append("import java.util.*;\n");
+        b.append("import java.util.function.*;\n");
+        b.append("\n");
+        b.append("public class "+name+" implements Node {\n");
+        b.append("\n");
+        b.append("    public static int count = 0;\n");
+        b.append("    private int value;\n");
+        b.append("    private List<"+next+"> children = new ArrayList<"+next+">();\n");
+        b.append("    private Map<String, Integer> table = new HashMap<String, Integer>();\n");
+        b.append("\n");
+        b.append("    public "+name+"(int value) {\n");
+        b.append("        this.value = value;\n");
+        b.append("        count++;\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    @Override\n");
+        b.append("    public int eval(int x) {\n");
+        b.append("        int y = x + this.value;\n");
+        b.append("        for (int i = 0; i < x; i++) {\n");
+        b.append("            if (i % 3 == 0) {\n");
+        b.append("                y += this.step(i);\n");
+        b.append("            } else if (i % 3 == 1) {\n");
+        b.append("                y -= "+far+".compute(i, y);\n");
+        b.append("            } else {\n");
+        b.append("                break;\n");
+        b.append("            }\n");
+        b.append("        }\n");
+        b.append("        return y;\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    @Override\n");
+        b.append("    public Node next() {\n");
+        b.append("        if (this.children.isEmpty()) return null;\n");
+        b.append("        "+next+" c = this.children.get(0);\n");
+        b.append("        return c;\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    public int step(int i) {\n");
+        b.append("        int z = 0;\n");
+        b.append("        for ("+next+" c : this.children) {\n");
+        b.append("            z += c.eval(i);\n");
+        b.append("        }\n");
+        b.append("        Integer v = this.table.get(Integer.toString(i));\n");
+        b.append("        if (v != null) {\n");
+        b.append("            z += v;\n");
+        b.append("        }\n");
+        b.append("        this.table.put(Integer.toString(z), i);\n");
+        b.append("        return z;\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    public static int compute(int a, int b) {\n");
+        b.append("        switch (a % 4) {\n");
+        b.append("        case 0:\n");
+        b.append("            return a * b;\n");
+        b.append("        case 1:\n");
+        b.append("            return "+next+".compute(a-1, b) + count;\n");
+        b.append("        default:\n");
+        b.append("            try {\n");
+        b.append("                return a / b;\n");
+        b.append("            } catch (ArithmeticException e) {\n");
+        b.append("                return -1;\n");
+        b.append("            }\n");
+        b.append("        }\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    public List<Integer> collect(Function<Node, Integer> f) {\n");
+        b.append("        List<Integer> a = new ArrayList<Integer>();\n");
+        b.append("        Node n = this;\n");
+        b.append("        while (n != null) {\n");
+        b.append("            a.add(f.apply(n));\n");
+        b.append("            n = n.next();\n");
+        b.append("        }\n");
+        b.append("        Collections.sort(a, (x, y) -> y - x);\n");
+        b.append("        return a;\n");
+        b.append("    }\n");
+        b.append("\n");
+        b.append("    public Runnable task(final int n) {\n");
+        b.append("        this.children.add(new "+next+"(n));\n");
+        b.append("        return new Runnable() {\n");
+        b.append("            public void run() {\n");
+        b.append("                collect(x -> x.eval(n));\n");
+        b.append("            }\n");
+        b.append("        };\n");
+        b.append("    }\n");
+        b.append("}\n");
+        return b.toString();
+    }
+
+    public static void main(String[] args)
+        throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SyntheticProject nfiles outdir");
+            System.exit(1);
+            return;
+        }
+        SyntheticProject project = new SyntheticProject(Integer.parseInt(args[0]));
+        for (String path : project.generate(new File(args[1]))) {
+            System.out.println(path);
+        }
+    }
+}
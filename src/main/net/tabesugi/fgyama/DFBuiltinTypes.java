@@ -6,10 +6,27 @@ import java.util.*;
 
 
 //  DFBuiltinTypes
+//  The built-in klasses of a DFTypeUniverse.
+//  The static getters return the ones of the current universe.
 //
 public class DFBuiltinTypes {
 
-    public static void initialize(DFRootTypeSpace rootSpace)
+    private DFKlass _object;
+    private DFKlass _class;
+    private DFKlass _enum;
+    private DFKlass _string;
+    private DFKlass _byte;
+    private DFKlass _character;
+    private DFKlass _short;
+    private DFKlass _integer;
+    private DFKlass _long;
+    private DFKlass _float;
+    private DFKlass _double;
+    private DFKlass _boolean;
+    private DFKlass _void;
+    private DFKlass _exception;
+
+    public DFBuiltinTypes(DFRootTypeSpace rootSpace)
         throws IOException, InvalidSyntax {
         // Note: manually create some of the built-in classes that are
         // self-referential and cannot be automatically loaded.
@@ -30,88 +47,92 @@ public class DFBuiltinTypes {
         _exception = (DFJarFileKlass)langSpace.getKlass("Exception");
     }
 
-    private static DFKlass _object = null;
+    private static DFBuiltinTypes getCurrent() {
+        return DFTypeUniverse.getCurrent().getBuiltinTypes();
+    }
+
     public static DFKlass getObjectKlass() {
-        assert _object != null;
-        return _object;
+        DFKlass klass = getCurrent()._object;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _class = null;
     public static DFKlass getClassKlass() {
-        assert _class != null;
-        return _class;
+        DFKlass klass = getCurrent()._class;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _enum = null;
     public static DFKlass getEnumKlass() {
-        assert _enum != null;
-        return _enum;
+        DFKlass klass = getCurrent()._enum;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _string = null;
     public static DFKlass getStringKlass() {
-        assert _string != null;
-        return _string;
+        DFKlass klass = getCurrent()._string;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _byte = null;
     public static DFKlass getByteKlass() {
-        assert _byte != null;
-        return _byte;
+        DFKlass klass = getCurrent()._byte;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _character = null;
     public static DFKlass getCharacterKlass() {
-        assert _character != null;
-        return _character;
+        DFKlass klass = getCurrent()._character;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _short = null;
     public static DFKlass getShortKlass() {
-        assert _short != null;
-        return _short;
+        DFKlass klass = getCurrent()._short;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _integer = null;
     public static DFKlass getIntegerKlass() {
-        assert _integer != null;
-        return _integer;
+        DFKlass klass = getCurrent()._integer;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _long = null;
     public static DFKlass getLongKlass() {
-        assert _long != null;
-        return _long;
+        DFKlass klass = getCurrent()._long;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _float = null;
     public static DFKlass getFloatKlass() {
-        assert _float != null;
-        return _float;
+        DFKlass klass = getCurrent()._float;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _double = null;
     public static DFKlass getDoubleKlass() {
-        assert _double != null;
-        return _double;
+        DFKlass klass = getCurrent()._double;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _boolean = null;
     public static DFKlass getBooleanKlass() {
-        assert _boolean != null;
-        return _boolean;
+        DFKlass klass = getCurrent()._boolean;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _void = null;
     public static DFKlass getVoidKlass() {
-        assert _void != null;
-        return _void;
+        DFKlass klass = getCurrent()._void;
+        assert klass != null;
+        return klass;
     }
 
-    private static DFKlass _exception = null;
     public static DFKlass getExceptionKlass() {
-        assert _exception != null;
-        return _exception;
+        DFKlass klass = getCurrent()._exception;
+        assert klass != null;
+        return klass;
     }
 
 }
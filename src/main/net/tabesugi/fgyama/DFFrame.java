@@ -82,6 +82,15 @@ public class DFFrame {
         return frame;
     }
 
+    // getDepth: returns the depth of the nested frames.
+    public int getDepth() {
+        int depth = 0;
+        for (DFFrame frame : _ast2child.values()) {
+            depth = Math.max(depth, frame.getDepth());
+        }
+        return depth+1;
+    }
+
     public DFFrame getOuterFrame() {
         return _outer;
     }
@@ -114,13 +123,9 @@ public class DFFrame {
     public DFFrame find(DFKlass catchKlass) {
         DFFrame frame = this;
         while (frame != null) {
-            if (frame._catchKlass != null) {
-                try {
-                    frame._catchKlass.canConvertFrom(catchKlass, null);
-                    break;
-                } catch (TypeIncompatible e) {
-                }
-            }
+            if (frame._catchKlass != null &&
+                frame._catchKlass.getConvertDistance(catchKlass, null) !=
+                DFType.NOT_CONVERTIBLE) break;
             frame = frame._outer;
         }
         return frame;
@@ -648,13 +653,9 @@ public class DFFrame {
             try {
                 DFMethod method1 = klass.lookupMethod(
                     callStyle, invoke.getName(), argTypes);
-                for (DFMethod m : method1.getOverriders()) {
-                    if (m instanceof DFSourceMethod) {
-                        DFSourceMethod srcm = (DFSourceMethod)m;
-                        this.addInputRefs(srcm.getInputRefs());
-                        this.addOutputRefs(srcm.getOutputRefs());
-                    }
-                }
+                DFMethod.RefSummary summary = method1.getRefSummary();
+                this.addInputRefs(summary.inputRefs);
+                this.addOutputRefs(summary.outputRefs);
                 return method1.getFuncType().getReturnType();
             } catch (MethodNotFound e) {
                 return null;
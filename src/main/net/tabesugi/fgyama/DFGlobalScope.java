@@ -24,7 +24,7 @@ public class DFGlobalScope extends DFVarScope {
     }
 
     @Override
-    public DFRef lookupArray(DFType type) {
+    public synchronized DFRef lookupArray(DFType type) {
         DFRef ref;
         DFType elemType = DFUnknownType.UNKNOWN;
         if (type instanceof DFArrayType) {
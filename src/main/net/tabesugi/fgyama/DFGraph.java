@@ -22,6 +22,13 @@ public abstract class DFGraph {
         new ArrayList<DFNode>();
     private DFNode _passInNode = null;
     private DFNode _passOutNode = null;
+    private int _frameDepth = 0;
+    // The input node of each ref, and the summary of each
+    // megamorphic method called from this graph. (cf. -P option)
+    private Map<DFRef, DFNode> _inputNodes =
+        new HashMap<DFRef, DFNode>();
+    private Map<DFMethod, SummaryNode> _summaries =
+        new HashMap<DFMethod, SummaryNode>();
 
     public DFGraph(DFSourceMethod method) {
         _method = method;
@@ -33,11 +40,29 @@ public abstract class DFGraph {
         return "<DFGraph ("+_method+")>";
     }
 
+    // addNode: adds a node and returns the number of the nodes,
+    //   which is used as the id of the new node.
     public int addNode(DFNode node) {
         _nodes.add(node);
+        return this.getNodeCount();
+    }
+
+    public int getNodeCount() {
         return _nodes.size();
     }
 
+    public int getEdgeCount() {
+        int n = 0;
+        for (DFNode node : _nodes) {
+            n += node.getEdgeCount();
+        }
+        return n;
+    }
+
+    public int getFrameDepth() {
+        return _frameDepth;
+    }
+
     public DFNode createArgNode(DFRef ref_v, DFRef ref_a, ASTNode ast) {
         DFVarScope scope = _method.getScope();
         DFNode input = new InputNode(this, scope, ref_v, ast);
@@ -46,21 +71,59 @@ public abstract class DFGraph {
         return assign;
     }
 
+    // cleanup: purges the redundant nodes.
+    //   This gives the same result as scanning all the nodes
+    //   repeatedly until nothing changes, but a node is tried again
+    //   only when its inputs have changed: right away if it comes
+    //   later in the current scan, otherwise in the next scan.
+    //   A JoinNode also looks at the inputs of its inputs.
     private void cleanup() {
-        Set<DFNode> toremove = new HashSet<DFNode>();
-        while (true) {
-            boolean changed = false;
-            for (DFNode node : _nodes) {
-                if (toremove.contains(node)) continue;
-                if (node.purge()) {
-                    toremove.add(node);
-                    changed = true;
+        int n = _nodes.size();
+        Map<DFNode, Integer> index = new HashMap<DFNode, Integer>();
+        for (int i = 0; i < n; i++) {
+            index.put(_nodes.get(i), i);
+        }
+        BitSet removed = new BitSet(n);
+        BitSet current = new BitSet(n);
+        current.set(0, n);
+        while (!current.isEmpty()) {
+            BitSet next = new BitSet(n);
+            for (int i = current.nextSetBit(0); 0 <= i;
+                 i = current.nextSetBit(i+1)) {
+                DFNode node = _nodes.get(i);
+                if (!node.purge()) continue;
+                removed.set(i);
+                for (DFNode dst : node.getOutputs()) {
+                    if (dst.isPurged()) continue;
+                    markDirty(index, removed, current, next, i, dst);
+                    if (!(dst instanceof JoinNode)) continue;
+                    for (DFNode dst2 : dst.getOutputs()) {
+                        if (dst2.isPurged()) continue;
+                        markDirty(index, removed, current, next, i, dst2);
+                    }
                 }
             }
-            if (!changed) break;
+            current = next;
         }
-        for (DFNode node : toremove) {
-            _nodes.remove(node);
+        if (removed.isEmpty()) return;
+        List<DFNode> nodes = new ArrayList<DFNode>(n - removed.cardinality());
+        for (int i = 0; i < n; i++) {
+            if (!removed.get(i)) {
+                nodes.add(_nodes.get(i));
+            }
+        }
+        _nodes = nodes;
+    }
+
+    private static void markDirty(
+        Map<DFNode, Integer> index, BitSet removed,
+        BitSet current, BitSet next, int i, DFNode node) {
+        Integer j = index.get(node);
+        if (j == null || removed.get(j)) return;
+        if (i < j) {
+            current.set(j);
+        } else {
+            next.set(j);
         }
     }
 
@@ -78,7 +141,7 @@ public abstract class DFGraph {
         return _passOutNode;
     }
 
-    public void writeXML(XMLStreamWriter writer)
+    public void writeXML(ElementWriter writer)
         throws XMLStreamException {
         DFNode[] nodes = new DFNode[_nodes.size()];
         _nodes.toArray(nodes);
@@ -368,7 +431,8 @@ public abstract class DFGraph {
 
             } else if (expr instanceof CharacterLiteral) {
                 // "'c'"
-                char value = ((CharacterLiteral)expr).charValue();
+                String value = Utils.unquote(
+                    ((CharacterLiteral)expr).getEscapedValue());
                 return new ConstNode(
                     this, scope, DFBasicType.CHAR,
                     expr, Utils.quote(value));
@@ -388,7 +452,8 @@ public abstract class DFGraph {
 
             } else if (expr instanceof StringLiteral) {
                 // ""abc""
-                String value = ((StringLiteral)expr).getLiteralValue();
+                String value = Utils.unquote(
+                    ((StringLiteral)expr).getEscapedValue());
                 return new ConstNode(
                     this, scope,
                     DFBuiltinTypes.getStringKlass(),
@@ -537,14 +602,22 @@ public abstract class DFGraph {
                     method = scope.lookupStaticMethod(
                         invoke.getName(), argTypes, expected);
                 }
+                DFFuncType funcType = method.getFuncType();
                 List<DFMethod> overriders = method.getOverriders();
                 DFMethod[] methods = new DFMethod[overriders.size()];
                 overriders.toArray(methods);
-                DFFuncType funcType = method.getFuncType();
                 MethodCallNode call = new MethodCallNode(
                     this, scope, invoke, funcType, methods);
                 call.setArgs(args);
-                this.connectMethodRefs(ctx, scope, call, obj, methods);
+                if (method.isMegamorphic()) {
+                    // Too many overriders: use the shared summary.
+                    this.connectSummary(ctx, scope, call, obj, method);
+                } else {
+                    DFMethod.RefSummary summary = method.getRefSummary();
+                    this.connectMethodRefs(
+                        ctx, scope, call, obj,
+                        summary.inputRefs, summary.outputRefs);
+                }
                 this.catchExceptions(scope, frame, call, funcType.getExceptions());
                 return new ReceiveNode(this, scope, call, invoke);
 
@@ -1421,14 +1494,26 @@ public abstract class DFGraph {
         DFContext ctx, DFLocalScope scope,
         CallNode call, DFNode obj, DFMethod[] methods) {
 
-        ConsistentHashSet<DFRef> inRefs = new ConsistentHashSet<DFRef>();
-        inRefs.add(scope.lookupBypass());
+        ConsistentHashSet<DFRef> inputRefs = new ConsistentHashSet<DFRef>();
+        ConsistentHashSet<DFRef> outputRefs = new ConsistentHashSet<DFRef>();
         for (DFMethod method1 : methods) {
             if (method1 instanceof DFSourceMethod) {
                 DFSourceMethod srcmethod = (DFSourceMethod)method1;
-                inRefs.addAll(srcmethod.getInputRefs());
+                inputRefs.addAll(srcmethod.getInputRefs());
+                outputRefs.addAll(srcmethod.getOutputRefs());
             }
         }
+        this.connectMethodRefs(ctx, scope, call, obj, inputRefs, outputRefs);
+    }
+
+    private void connectMethodRefs(
+        DFContext ctx, DFLocalScope scope,
+        CallNode call, DFNode obj,
+        Collection<DFRef> inputRefs, Collection<DFRef> outputRefs) {
+
+        ConsistentHashSet<DFRef> inRefs = new ConsistentHashSet<DFRef>();
+        inRefs.add(scope.lookupBypass());
+        inRefs.addAll(inputRefs);
         if (obj != null) {
             inRefs.add(obj.getNodeType().toKlass().getThisRef());
         }
@@ -1442,17 +1527,57 @@ public abstract class DFGraph {
 
         ConsistentHashSet<DFRef> outRefs = new ConsistentHashSet<DFRef>();
         outRefs.add(scope.lookupBypass());
-        for (DFMethod method1 : methods) {
-            if (method1 instanceof DFSourceMethod) {
-                DFSourceMethod srcmethod = (DFSourceMethod)method1;
-                outRefs.addAll(srcmethod.getOutputRefs());
-            }
-        }
+        outRefs.addAll(outputRefs);
         for (DFRef ref : outRefs) {
             ctx.set(new ReceiveNode(this, scope, call, null, ref));
         }
     }
 
+    // connectSummary: connects a call to a megamorphic method.
+    //   The refs of all the overriders are passed through a summary
+    //   node, which is made once for each method in this graph.
+    //   It takes the input refs at the start of this graph, and
+    //   each call site only links to it, so the number of the nodes
+    //   and edges of a call site does not depend on the overriders.
+    //   This loses precision: a value written in this graph before
+    //   the call is not seen by the summary, and the refs that are
+    //   neither the inputs nor the pass-in refs are dropped.
+    private void connectSummary(
+        DFContext ctx, DFLocalScope scope,
+        CallNode call, DFNode obj, DFMethod method) {
+        SummaryNode summary = _summaries.get(method);
+        if (summary == null) {
+            DFVarScope scope0 = _method.getScope();
+            DFMethod.RefSummary refs = method.getRefSummary();
+            summary = new SummaryNode(this, scope0, method);
+            for (DFRef ref : refs.inputRefs) {
+                DFNode input = _inputNodes.get(ref);
+                if (input != null) {
+                    summary.accept(input, ref.getFullName());
+                } else if (_method.getPassInRefs().contains(ref)) {
+                    summary.accept(this.getPassInNode(), ref.getFullName());
+                } else {
+                    Logger.debug("connectSummary: dropped:", ref, "for", method);
+                }
+            }
+            for (DFRef ref : refs.outputRefs) {
+                summary.receives.add(new ReceiveNode(this, scope0, summary, null, ref));
+            }
+            _summaries.put(method, summary);
+        }
+        call.accept(summary, "#summary");
+        DFRef bypass = scope.lookupBypass();
+        call.accept(ctx.get(bypass), bypass.getFullName());
+        if (obj != null) {
+            DFRef ref = obj.getNodeType().toKlass().getThisRef();
+            call.accept(obj, ref.getFullName());
+        }
+        ctx.set(new ReceiveNode(this, scope, call, null, bypass));
+        for (DFNode output : summary.receives) {
+            ctx.set(output);
+        }
+    }
+
     // catchExceptions: catch exceptions raised by a calling method.
     private void catchExceptions(
         DFLocalScope scope, DFFrame frame, DFNode node, DFKlass[] exceptions) {
@@ -1583,6 +1708,7 @@ public abstract class DFGraph {
         // Create input nodes.
         for (DFRef ref : _method.getInputRefs()) {
             DFNode input = new InputNode(this, scope, ref, null);
+            _inputNodes.put(ref, input);
             ctx.set(input);
         }
 
@@ -1630,6 +1756,7 @@ public abstract class DFGraph {
         }
 
         this.closeFrame(ctx, scope, frame);
+        _frameDepth = frame.getDepth();
 
         // Create output nodes.
         for (DFRef ref : _method.getOutputRefs()) {
@@ -1676,6 +1803,7 @@ public abstract class DFGraph {
         // Create input nodes.
         for (DFRef ref : _method.getInputRefs()) {
             DFNode input = new InputNode(this, scope, ref, null);
+            _inputNodes.put(ref, input);
             ctx.set(input);
         }
 
@@ -1693,6 +1821,7 @@ public abstract class DFGraph {
         }
 
         this.closeFrame(ctx, scope, frame);
+        _frameDepth = frame.getDepth();
 
         // Create output nodes.
         {
@@ -2384,6 +2513,31 @@ class MethodCallNode extends CallNode {
     }
 }
 
+// SummaryNode: the refs used by all the overriders of a method.
+//   (cf. DFGraph.connectSummary)
+class SummaryNode extends CallNode {
+
+    public DFMethod method;
+    public List<DFNode> receives = new ArrayList<DFNode>();
+
+    public SummaryNode(
+        DFGraph graph, DFVarScope scope, DFMethod method) {
+        super(graph, scope, method.getFuncType().getSafeReturnType(), null,
+              null, method.getFuncType());
+        this.method = method;
+    }
+
+    @Override
+    public String getKind() {
+        return "summary";
+    }
+
+    @Override
+    public String getData() {
+        return this.method.getSignature();
+    }
+}
+
 // ReceiveNode:
 class ReceiveNode extends DFNode {
 
@@ -0,0 +1,99 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+
+
+//  DFGraphTask
+//  Generates a dataflow graph of a method with a fixed graph id.
+//
+//  Usage:
+//    1. new DFGraphTask(method, graphId)
+//    2. run() (possibly in another thread)
+//    3. getGraph()
+//
+public class DFGraphTask implements Runnable {
+
+    private DFMethod _method;
+    private int _graphId;
+
+    private boolean _done = false;
+    private DFGraph _graph = null;
+    private InvalidSyntax _invalidSyntax = null;
+    private EntityNotFound _entityNotFound = null;
+    private RuntimeException _runtimeException = null;
+    private Error _error = null;
+
+    private boolean _measure = false;
+    private Metrics.GraphRecord _record = null;
+
+    public DFGraphTask(DFMethod method, int graphId) {
+        _method = method;
+        _graphId = graphId;
+    }
+
+    @Override
+    public String toString() {
+        return ("<DFGraphTask("+_graphId+" "+_method+")>");
+    }
+
+    public DFMethod getMethod() {
+        return _method;
+    }
+
+    public int getGraphId() {
+        return _graphId;
+    }
+
+    // measure: records the time and memory used by run().
+    public void measure() {
+        assert !_done;
+        _measure = true;
+    }
+
+    // getRecord: returns the measurement, or null if not measured.
+    public Metrics.GraphRecord getRecord() {
+        return _record;
+    }
+
+    @Override
+    public void run() {
+        assert !_done;
+        Metrics.Probe probe = (_measure)? new Metrics.Probe() : null;
+        try {
+            if (_method instanceof DFSourceMethod) {
+                _graph = ((DFSourceMethod)_method).getDFGraph(_graphId);
+            }
+        } catch (InvalidSyntax e) {
+            _invalidSyntax = e;
+        } catch (EntityNotFound e) {
+            _entityNotFound = e;
+        } catch (TaskSequencer.Cancelled e) {
+            throw e;
+        } catch (RuntimeException e) {
+            _runtimeException = e;
+        } catch (Error e) {
+            _error = e;
+        }
+        if (probe != null) {
+            probe.stop();
+            _record = new Metrics.GraphRecord(_method, _graphId, probe, _graph);
+        }
+        _done = true;
+    }
+
+    // getGraph: returns the graph, running the task if not yet done.
+    //   Any exception raised while building the graph is thrown here.
+    public DFGraph getGraph()
+        throws InvalidSyntax, EntityNotFound {
+        if (!_done) {
+            this.run();
+        }
+        if (_invalidSyntax != null) throw _invalidSyntax;
+        if (_entityNotFound != null) throw _entityNotFound;
+        if (_runtimeException != null) throw _runtimeException;
+        if (_error != null) throw _error;
+        return _graph;
+    }
+}
@@ -3,10 +3,8 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
-import java.util.jar.*;
+import java.util.concurrent.*;
 import javax.xml.stream.*;
-import org.apache.bcel.*;
-import org.apache.bcel.classfile.*;
 
 
 //  DFJarFileKlass
@@ -20,12 +18,14 @@ public class DFJarFileKlass extends DFKlass {
 
     // These fields are available upon construction.
     private DFTypeFinder _finder;
-    private boolean _loaded = false;
+    private LoadState _infoState = new LoadState();
+    private LoadState _loadState = new LoadState();
 
     // These fields must be set immediately after construction.
+    private JarClassInfo.Source _source = null;
     private String _jarPath = null;
     private String _entPath = null;
-    private JavaClass _jklass = null;
+    private volatile JarClassInfo _classInfo = null;
 
     // The following fields are available after the klass is loaded. (Stage3)
     private boolean _interface = false;
@@ -35,8 +35,9 @@ public class DFJarFileKlass extends DFKlass {
     private Map<String, DFJarFileKlass> _id2jarklass =
         new ConsistentHashMap<String, DFJarFileKlass>();
 
+    // Fallback methods are added while the others are reading it.
     private List<DFMethod> _methods =
-        new ArrayList<DFMethod>();
+        new CopyOnWriteArrayList<DFMethod>();
 
     // List of fields.
     private List<FieldRef> _fields =
@@ -59,7 +60,7 @@ public class DFJarFileKlass extends DFKlass {
         super(genericKlass, paramTypes);
 
         _finder = new DFTypeFinder(this, genericKlass._finder);
-        _jklass = genericKlass._jklass;
+        _classInfo = genericKlass._classInfo;
         // XXX In case of a .jar class, refer to the same inner classes.
         for (DFKlass inklass : genericKlass.getInnerKlasses()) {
             this.addKlass(inklass.getName(), inklass);
@@ -67,7 +68,9 @@ public class DFJarFileKlass extends DFKlass {
     }
 
     // Set the klass code from a JAR.
-    public void setJarPath(String jarPath, String entPath) {
+    public void setJarPath(
+        JarClassInfo.Source source, String jarPath, String entPath) {
+        _source = source;
         _jarPath = jarPath;
         _entPath = entPath;
     }
@@ -106,21 +109,23 @@ public class DFJarFileKlass extends DFKlass {
     }
 
     @Override
-    public DFMethod lookupMethod(
+    public DFMethod findMethod(
         DFMethod.CallStyle callStyle, String id,
-        DFType[] argTypes, DFType returnType)
-        throws MethodNotFound {
+        DFType[] argTypes, DFType returnType) {
         this.load();
-        return super.lookupMethod(callStyle, id, argTypes, returnType);
+        return super.findMethod(callStyle, id, argTypes, returnType);
     }
 
     @Override
     public DFMethod createFallbackMethod(
         DFMethod.CallStyle callStyle, String id,
         DFType[] argTypes, DFType returnType) {
+        // Methods must be added in the same order as a serial run.
+        TaskSequencer.awaitTurn();
         DFMethod method = super.createFallbackMethod(
             callStyle, id, argTypes, returnType);
-        this.addMethod(method);
+        _methods.add(method);
+        this.addMethodChange();
         return method;
     }
 
@@ -166,9 +171,9 @@ public class DFJarFileKlass extends DFKlass {
     }
 
     @Override
-    public DFKlass getKlass(String id) {
+    protected DFKlass findKlass(String id, Stamp stamp) {
         this.loadJarFile();
-        return super.getKlass(id);
+        return super.findKlass(id, stamp);
     }
 
     @Override
@@ -201,20 +206,25 @@ public class DFJarFileKlass extends DFKlass {
     // loadJarFile():
     // Load a jarfile class before inspecting anything about the class.
     private void loadJarFile() {
-        if (_jklass != null) return;
+        if (_classInfo != null) return;
+        // Klasses must be loaded in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        if (!_infoState.begin()) return;
+        try {
+            this.loadClassInfo();
+        } finally {
+            _infoState.end();
+        }
+    }
 
+    private void loadClassInfo() {
         assert this.getGenericKlass() == null;
+        assert _source != null;
         assert _jarPath != null;
         assert _entPath != null;
+        JarClassInfo classInfo;
         try {
-            JarFile jarfile = new JarFile(_jarPath);
-            try {
-                JarEntry je = jarfile.getJarEntry(_entPath);
-                InputStream strm = jarfile.getInputStream(je);
-                _jklass = new ClassParser(strm, _entPath).parse();
-            } finally {
-                jarfile.close();
-            }
+            classInfo = _source.getClassInfo(_jarPath, _entPath);
         } catch (IOException e) {
             Logger.error(
                 "DFJarFileKlass.loadJarFile: IOException",
@@ -222,7 +232,7 @@ public class DFJarFileKlass extends DFKlass {
             return;
         }
 
-        String sig = Utils.getJKlassSignature(_jklass.getAttributes());
+        String sig = classInfo.getSignature();
         if (sig != null) {
             JNITypeParser parser = new JNITypeParser(sig);
             JNITypeParser.TypeSlot[] slots = parser.getTypeSlots();
@@ -237,23 +247,32 @@ public class DFJarFileKlass extends DFKlass {
                 this.setTypeSlots(typeSlots);
             }
         }
+        // Publish the class only after its type slots are set.
+        _classInfo = classInfo;
+        addSpaceChange();
     }
 
     protected void load() {
         this.loadJarFile();
-        if (!_loaded) {
-            _loaded = true;
+        if (_loadState.isLoaded()) return;
+        TaskSequencer.awaitTurn();
+        // A recursion within the same build returns here.
+        if (!_loadState.begin()) return;
+        try {
             //Logger.info("build:", this);
             this.build();
+        } finally {
+            _loadState.end();
         }
+        addBaseChange();
     }
 
     protected void build() {
-        assert _jklass != null;
+        assert _classInfo != null;
         //Logger.info("DFJarFileKlass.build:", this);
-        _interface = _jklass.isInterface();
+        _interface = _classInfo.isInterface();
 
-        String sig = Utils.getJKlassSignature(_jklass.getAttributes());
+        String sig = _classInfo.getSignature();
         if (this == DFBuiltinTypes.getObjectKlass()) {
             _baseKlass = null;
 
@@ -269,6 +288,7 @@ public class DFJarFileKlass extends DFKlass {
                     "DFJarFileKlass.build: TypeNotFound (baseKlass)",
                     e.name, sig, this);
             }
+            addBaseChange();
             List<DFKlass> ifaces = new ArrayList<DFKlass>();
             for (;;) {
                 DFType iface = DFBuiltinTypes.getObjectKlass();
@@ -284,11 +304,12 @@ public class DFJarFileKlass extends DFKlass {
             }
             _baseIfaces = new DFKlass[ifaces.size()];
             ifaces.toArray(_baseIfaces);
+            addBaseChange();
 
         } else {
             _baseKlass = DFBuiltinTypes.getObjectKlass();
-            String superClass = _jklass.getSuperclassName();
-            if (superClass != null && !superClass.equals(_jklass.getClassName())) {
+            String superClass = _classInfo.getSuperclassName();
+            if (superClass != null && !superClass.equals(_classInfo.getClassName())) {
                 try {
                     _baseKlass = _finder.resolveKlass(superClass);
                 } catch (TypeNotFound e) {
@@ -297,7 +318,8 @@ public class DFJarFileKlass extends DFKlass {
                         e.name, this);
                 }
             }
-            String[] ifaces = _jklass.getInterfaceNames();
+            addBaseChange();
+            String[] ifaces = _classInfo.getInterfaceNames();
             if (ifaces != null) {
                 _baseIfaces = new DFKlass[ifaces.length];
                 for (int i = 0; i < ifaces.length; i++) {
@@ -310,18 +332,19 @@ public class DFJarFileKlass extends DFKlass {
                             e.name, this);
                     }
                     _baseIfaces[i] = iface;
+                    addBaseChange();
                 }
             }
         }
 
         // Define fields.
-        for (Field fld : _jklass.getFields()) {
-            if (fld.isPrivate()) continue;
-            sig = Utils.getJKlassSignature(fld.getAttributes());
+        for (JarClassInfo.FieldInfo fld : _classInfo.getFields()) {
+            if (fld.isPrivate) continue;
+            sig = fld.signature;
             DFType type;
             try {
                 if (sig != null) {
-                    //Logger.info("fld:", fld.getName(), sig);
+                    //Logger.info("fld:", fld.name, sig);
                     JNITypeParser parser = new JNITypeParser(sig);
                     parser.getTypeSlots();
                     type = parser.resolveType(_finder);
@@ -334,24 +357,24 @@ public class DFJarFileKlass extends DFKlass {
                     e.name, sig, this);
                 type = DFUnknownType.UNKNOWN;
             }
-            this.addField(type, fld.getName(), fld.isStatic());
+            this.addField(type, fld.name, fld.isStatic);
         }
 
         // Define methods.
-        for (Method meth : _jklass.getMethods()) {
-            if (meth.isPrivate()) continue;
-            String name = meth.getName();
+        for (JarClassInfo.MethodInfo meth : _classInfo.getMethods()) {
+            if (meth.isPrivate) continue;
+            String name = meth.name;
             DFMethod.CallStyle callStyle;
-            if (meth.getName().equals("<init>")) {
+            if (name.equals("<init>")) {
                 callStyle = DFMethod.CallStyle.Constructor;
-            } else if (meth.isStatic()) {
+            } else if (meth.isStatic) {
                 callStyle = DFMethod.CallStyle.StaticMethod;
             } else {
                 callStyle = DFMethod.CallStyle.InstanceMethod;
             }
-            String id = name+":"+meth.getNameIndex();
+            String id = name+":"+meth.nameIndex;
             DFMethod method = new DFJarFileMethod(
-                this, callStyle, meth.isAbstract(),
+                this, callStyle, meth.isAbstract,
                 id, name, meth, _finder);
             this.addMethod(method);
         }
@@ -359,6 +382,7 @@ public class DFJarFileKlass extends DFKlass {
 
     private void addMethod(DFMethod method) {
         _methods.add(method);
+        addMethodChange();
     }
 
     @Override
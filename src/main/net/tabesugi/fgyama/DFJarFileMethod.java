@@ -18,14 +18,14 @@ import org.apache.bcel.classfile.*;
 public class DFJarFileMethod extends DFMethod {
 
     DFTypeFinder _finder;
-    Method _meth;
+    JarClassInfo.MethodInfo _meth;
     DFFuncType _funcType = null;
 
     // Normal constructor.
     public DFJarFileMethod(
         DFKlass klass, CallStyle callStyle, boolean isAbstract,
         String methodId, String methodName,
-        Method meth, DFTypeFinder finder) {
+        JarClassInfo.MethodInfo meth, DFTypeFinder finder) {
         super(klass, callStyle, isAbstract, methodId, methodName);
 
         _finder = new DFTypeFinder(this, finder);
@@ -60,9 +60,9 @@ public class DFJarFileMethod extends DFMethod {
         assert _finder != null;
         assert _meth != null;
 
-        String sig = Utils.getJKlassSignature(_meth.getAttributes());
+        String sig = _meth.signature;
         if (sig != null) {
-            //Logger.info("meth:", _meth.getName(), sig);
+            //Logger.info("meth:", _meth.name, sig);
             JNITypeParser parser = new JNITypeParser(sig);
             JNITypeParser.TypeSlot[] slots = parser.getTypeSlots();
             if (slots != null && this.getGenericMethod() == null) {
@@ -94,10 +94,9 @@ public class DFJarFileMethod extends DFMethod {
         }
         // For varargs methods, the last argument is declared as an array
         // so no special treatment is required here.
-        _funcType.setVarArgs(_meth.isVarArgs());
-        ExceptionTable excTable = _meth.getExceptionTable();
-        if (excTable != null) {
-            String[] excNames = excTable.getExceptionNames();
+        _funcType.setVarArgs(_meth.isVarArgs);
+        String[] excNames = _meth.exceptions;
+        if (excNames != null) {
             DFKlass[] exceptions = new DFKlass[excNames.length];
             for (int i = 0; i < excNames.length; i++) {
                 DFKlass klass;
@@ -3,6 +3,7 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import javax.xml.stream.*;
 import org.eclipse.jdt.core.*;
 import org.eclipse.jdt.core.dom.*;
@@ -21,7 +22,38 @@ import org.eclipse.jdt.core.dom.*;
 //
 public abstract class DFKlass extends DFTypeSpace implements DFType {
 
-    public static int MaxReifyDepth = 2;
+    // Number of the changes made to existing klasses on demand,
+    // such as reifying klasses and methods.
+    // (Each counter is kept in the current DFTypeUniverse.)
+    public static int getLazyChanges() {
+        return DFTypeUniverse.getCurrent().getLazyChanges();
+    }
+
+    protected static void addLazyChange() {
+        DFTypeUniverse.getCurrent().addLazyChange();
+    }
+
+    // addMethodChange: a method (or a fallback method)
+    //   is added to this klass.
+    protected void addMethodChange() {
+        _methodVersion.incrementAndGet();
+    }
+
+    // Number of the changes that can affect any klass hierarchy.
+    // The cached ancestors are checked again when this is changed.
+    private static int getBaseChanges() {
+        return DFTypeUniverse.getCurrent().getBaseChanges();
+    }
+
+    // addBaseChange: this klass is loaded or its base klasses are changed.
+    //   This affects both the method lookup and the type lookup.
+    protected void addBaseChange() {
+        _baseVersion.incrementAndGet();
+        _methodVersion.incrementAndGet();
+        DFTypeUniverse.getCurrent().addBaseChange();
+        // The inner klasses of the base klasses are looked up too.
+        this.addSpaceChange();
+    }
 
     // These fields are available upon construction.
     private String _name;
@@ -34,12 +66,25 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
     // These fields are available only for generic klasses.
     private ConsistentHashMap<String, DFKlass> _typeSlots = null;
     private ConsistentHashMap<String, DFKlass> _reifiedKlasses = null;
+    // Interned _reifiedKlasses by the argument klasses.
+    // An instantiation never changes once created, so it is kept.
+    private Map<IdentityTuple, DFKlass> _tuple2klass = null;
 
     // These fields are available only for parameterized klasses.
     private DFKlass _genericKlass = null;
     private Map<String, DFKlass> _paramTypes = null;
     private int _reifyDepth = -1;  // not computed yet.
 
+    // Cached method lookups.
+    private volatile MethodCache _methodCache = null;
+    // Cached ancestors.
+    private volatile Ancestors _ancestors = null;
+    // Number of the changes made to the base klasses of this klass.
+    private AtomicInteger _baseVersion = new AtomicInteger(0);
+    // Number of the changes made to the methods or base klasses.
+    // This is the only stamp that the method lookups check.
+    private AtomicInteger _methodVersion = new AtomicInteger(0);
+
     // Normal constructor.
     public DFKlass(
         String name,
@@ -113,7 +158,10 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
     }
 
     @Override
-    public DFKlass getKlass(String id) {
+    protected DFKlass findKlass(String id, Stamp stamp) {
+        if (stamp != null) {
+            stamp.add(this);
+        }
         if (_typeSlots != null) {
             // If this is a generic klass,
             DFKlass defaultKlass = _typeSlots.get(id);
@@ -125,19 +173,19 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
             if (paramType != null) return paramType;
         }
 
-        DFKlass klass = super.getKlass(id);
+        DFKlass klass = super.findKlass(id, stamp);
         if (klass != null) return klass;
 
         DFKlass baseKlass = this.getBaseKlass();
         if (baseKlass != null) {
-            klass = baseKlass.getKlass(id);
+            klass = baseKlass.findKlass(id, stamp);
             if (klass != null) return klass;
         }
         DFKlass[] baseIfaces = this.getBaseIfaces();
         if (baseIfaces != null) {
             for (DFKlass iface : baseIfaces) {
                 if (iface != null) {
-                    klass = iface.getKlass(id);
+                    klass = iface.findKlass(id, stamp);
                     if (klass != null) return klass;
                 }
             }
@@ -147,58 +195,74 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
         if (type instanceof DFNullType) return 0;
         DFKlass klass = type.toKlass();
-        if (klass == null) throw new TypeIncompatible(this, type);
-        return this.canConvertFrom(klass, typeMap);
+        if (klass == null) return NOT_CONVERTIBLE;
+        return this.getConvertDistance(klass, typeMap);
     }
 
-    public int canConvertFrom(DFKlass klass, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFKlass klass, Map<DFMapKlass, DFKlass> typeMap) {
         if (this == klass) return 0;
         if (_genericKlass != null && _genericKlass == klass._genericKlass) {
-            // A<S1,S2,...> canConvertFrom A<T1,T2,...>?
-            // == Si canConvertFrom T1
-            assert _paramTypes != null && klass._paramTypes != null;
-            assert _paramTypes.size() == klass._paramTypes.size();
-            int dist = 0;
-            for (Map.Entry<String,DFKlass> e : _paramTypes.entrySet()) {
-                String k = e.getKey();
-                DFKlass type0 = e.getValue();
-                DFKlass type1 = klass._paramTypes.get(k);
-                assert type1 != null;
-                dist += type0.canConvertFrom(type1, typeMap);
-            }
-            return dist;
+            return this.getParamDistance(klass, typeMap);
         }
 
         if (klass instanceof DFLambdaKlass) {
-            return ((DFLambdaKlass)klass).canConvertTo(this);
+            return ((DFLambdaKlass)klass).getConvertDistanceTo(this);
         } else if (klass instanceof DFMethodRefKlass) {
-            return ((DFMethodRefKlass)klass).canConvertTo(this);
-        }
-
-        DFKlass baseKlass = klass.getBaseKlass();
-        if (baseKlass != null) {
-            try {
-                return this.canConvertFrom(baseKlass, typeMap)+1;
-            } catch (TypeIncompatible e) {
+            return ((DFMethodRefKlass)klass).getConvertDistanceTo(this);
+        }
+
+        Ancestors ancestors = klass.getAncestors();
+        if (_genericKlass == null) {
+            Integer dist = ancestors.klass2dist.get(this);
+            return (dist != null)? dist : NOT_CONVERTIBLE;
+        }
+        // Try the ancestors with the same generic klass in order.
+        List<DFKlass> klasses = ancestors.generic2klasses.get(_genericKlass);
+        if (klasses != null) {
+            for (DFKlass klass1 : klasses) {
+                int dist = ancestors.klass2dist.get(klass1);
+                if (klass1 == this) return dist;
+                int d = this.getParamDistance(klass1, typeMap);
+                if (d != NOT_CONVERTIBLE) return dist+d;
             }
         }
+        return NOT_CONVERTIBLE;
+    }
 
-        DFKlass[] baseIfaces = klass.getBaseIfaces();
-        if (baseIfaces != null) {
-            for (DFKlass iface : baseIfaces) {
-                try {
-                    return this.canConvertFrom(iface, typeMap)+1;
-                } catch (TypeIncompatible e) {
-                }
-            }
+    // getParamDistance: A<S1,S2,...> canConvertFrom A<T1,T2,...>?
+    //   == Si canConvertFrom T1
+    private int getParamDistance(DFKlass klass, Map<DFMapKlass, DFKlass> typeMap) {
+        assert _paramTypes != null && klass._paramTypes != null;
+        assert _paramTypes.size() == klass._paramTypes.size();
+        int dist = 0;
+        for (Map.Entry<String,DFKlass> e : _paramTypes.entrySet()) {
+            String k = e.getKey();
+            DFKlass type0 = e.getValue();
+            DFKlass type1 = klass._paramTypes.get(k);
+            assert type1 != null;
+            int d = type0.getConvertDistance(type1, typeMap);
+            if (d == NOT_CONVERTIBLE) return NOT_CONVERTIBLE;
+            dist += d;
         }
+        return dist;
+    }
 
-        throw new TypeIncompatible(this, klass);
+    // getAncestors: returns the klass itself and all its base klasses
+    //   and interfaces. The result is cached until the base klasses
+    //   of one of the ancestors are changed.
+    private Ancestors getAncestors() {
+        int changes = getBaseChanges();
+        Ancestors ancestors = _ancestors;
+        if (ancestors != null && ancestors.isValid(changes)) {
+            return ancestors;
+        }
+        ancestors = new Ancestors(changes);
+        ancestors.add(this, 0);
+        _ancestors = ancestors;
+        return ancestors;
     }
 
     // Creates a parameterized klass.
@@ -207,29 +271,61 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
         //Logger.info("DFKlass.getReifiedKlass:", this, Utils.join(argTypes));
         assert _paramTypes == null;
         assert argTypes.length <= _typeSlots.size();
-        HashMap<String, DFKlass> paramTypes = new HashMap<String, DFKlass>();
-        int i = 0;
-        for (String key : _typeSlots.keys()) {
-            DFKlass type = _typeSlots.get(key);
+        List<String> keys = _typeSlots.keys();
+        int maxDepth = DFTypeUniverse.getCurrent().getMaxReifyDepth();
+        DFKlass[] types = new DFKlass[keys.size()];
+        for (int i = 0; i < types.length; i++) {
+            DFKlass type = _typeSlots.get(keys.get(i));
             if (argTypes != null && i < argTypes.length) {
                 DFKlass argType = argTypes[i];
-                if (argType.getReifyDepth() < MaxReifyDepth) {
+                if (argType.getReifyDepth() < maxDepth) {
                     type = argType;
                 }
             }
-            paramTypes.put(key, type);
-            i++;
+            types[i] = type;
+        }
+        // Try the interned klasses first.
+        IdentityTuple tuple = new IdentityTuple(types);
+        DFKlass klass;
+        synchronized (_reifiedKlasses) {
+            klass = _tuple2klass.get(tuple);
+        }
+        if (klass != null) return klass;
+        // Klasses must be created in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        synchronized (_reifiedKlasses) {
+            klass = _tuple2klass.get(tuple);
+        }
+        if (klass != null) return klass;
+        HashMap<String, DFKlass> paramTypes = new HashMap<String, DFKlass>();
+        for (int i = 0; i < types.length; i++) {
+            paramTypes.put(keys.get(i), types[i]);
         }
         // Try to reuse an existing class.
         String name = DFTypeSpace.getReifiedName(paramTypes);
-        DFKlass klass = _reifiedKlasses.get(name);
+        synchronized (_reifiedKlasses) {
+            klass = _reifiedKlasses.get(name);
+        }
         if (klass == null) {
+            addLazyChange();
             klass = this.parameterize(paramTypes);
-            _reifiedKlasses.put(name, klass);
+            synchronized (_reifiedKlasses) {
+                _reifiedKlasses.put(name, klass);
+            }
+        }
+        synchronized (_reifiedKlasses) {
+            _tuple2klass.put(tuple, klass);
         }
         return klass;
     }
 
+    protected Collection<DFKlass> getReifiedKlasses() {
+        if (_reifiedKlasses == null) return Collections.emptyList();
+        synchronized (_reifiedKlasses) {
+            return new ArrayList<DFKlass>(_reifiedKlasses.values());
+        }
+    }
+
     public boolean isResolved() {
         if (_paramTypes != null) {
             for (DFKlass klass : _paramTypes.values()) {
@@ -279,71 +375,166 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
         return funcMethod;
     }
 
+    // getMethodVersion: returns the number of the changes made to
+    //   the methods or base klasses of this klass.
+    //   A klass that borrows the methods of another klass
+    //   must add the version of that klass.
+    protected int getMethodVersion() {
+        return _methodVersion.get();
+    }
+
+    // getMethodCache: returns the method lookups of this klass.
+    private MethodCache getMethodCache() {
+        MethodCache cache = _methodCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = _methodCache;
+                if (cache == null) {
+                    cache = new MethodCache();
+                    _methodCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    // getMethodsByName: returns the methods with a given name
+    //   in the order of getMethods().
+    protected List<DFMethod> getMethodsByName(String id) {
+        MethodCache cache = this.getMethodCache();
+        int version = this.getMethodVersion();
+        synchronized (cache) {
+            if (cache.name2methods != null &&
+                cache.name2methodsVersion == version) {
+                List<DFMethod> methods = cache.name2methods.get(id);
+                return (methods != null)? methods : Collections.<DFMethod>emptyList();
+            }
+        }
+        // getMethods() might load the klass, so it is not called
+        // within the lock.
+        DFMethod[] all = this.getMethods();
+        Map<String, List<DFMethod>> name2methods =
+            new HashMap<String, List<DFMethod>>();
+        for (DFMethod method : all) {
+            List<DFMethod> methods = name2methods.get(method.getName());
+            if (methods == null) {
+                methods = new ArrayList<DFMethod>(1);
+                name2methods.put(method.getName(), methods);
+            }
+            methods.add(method);
+        }
+        // If the klass has been changed in the meantime,
+        // the index is discarded at the next lookup.
+        synchronized (cache) {
+            cache.name2methods = name2methods;
+            cache.name2methodsVersion = version;
+        }
+        List<DFMethod> methods = name2methods.get(id);
+        return (methods != null)? methods : Collections.<DFMethod>emptyList();
+    }
+
     protected DFMethod findMethod1(
         DFMethod.CallStyle callStyle, String id,
         DFType[] argTypes, DFType returnType) {
         //Logger.info("DFKlass.findMethod1", this, callStyle, id, Utils.join(argTypes));
         int bestDist = -1;
         DFMethod bestMethod = null;
-        for (DFMethod method1 : this.getMethods()) {
+        Map<DFMapKlass, DFKlass> typeMap = null;
+        List<DFMethod> methods = (id == null)?
+            Arrays.asList(this.getMethods()) : this.getMethodsByName(id);
+        for (DFMethod method1 : methods) {
             DFMethod.CallStyle callStyle1 = method1.getCallStyle();
             if (!(callStyle == callStyle1 ||
                   (callStyle == DFMethod.CallStyle.InstanceOrStatic &&
                    (callStyle1 == DFMethod.CallStyle.InstanceMethod ||
                     callStyle1 == DFMethod.CallStyle.StaticMethod)))) continue;
-            if (id != null && !id.equals(method1.getName())) continue;
-            Map<DFMapKlass, DFKlass> typeMap = new HashMap<DFMapKlass, DFKlass>();
-            try {
-                int dist = method1.canAccept(argTypes, returnType, typeMap);
-                if (bestDist < 0 || dist < bestDist) {
-                    DFMethod method = method1.getReifiedMethod(typeMap);
-                    if (method != null) {
-                        bestDist = dist;
-                        bestMethod = method;
-                    }
+            // The map is reused for every candidate.
+            if (typeMap == null) {
+                typeMap = new HashMap<DFMapKlass, DFKlass>();
+            } else {
+                typeMap.clear();
+            }
+            int dist = method1.getAcceptDistance(argTypes, returnType, typeMap);
+            if (dist == DFType.NOT_CONVERTIBLE) continue;
+            if (bestDist < 0 || dist < bestDist) {
+                DFMethod method = method1.getReifiedMethod(typeMap);
+                if (method != null) {
+                    bestDist = dist;
+                    bestMethod = method;
                 }
-            } catch (TypeIncompatible e) {
-                continue;
             }
         }
         return bestMethod;
     }
 
-    public DFMethod lookupMethod(
+    // findMethod: returns null if not found.
+    //   The result is cached until the version of
+    //   any klass on its lookup path is changed.
+    public DFMethod findMethod(
         DFMethod.CallStyle callStyle, String id,
-        DFType[] argTypes, DFType returnType)
-        throws MethodNotFound {
+        DFType[] argTypes, DFType returnType) {
+        return this.findMethodEntry(
+            callStyle, id, argTypes, returnType).method;
+    }
+
+    private MethodEntry findMethodEntry(
+        DFMethod.CallStyle callStyle, String id,
+        DFType[] argTypes, DFType returnType) {
+        MethodCache cache = this.getMethodCache();
+        MethodKey key = new MethodKey(callStyle, id, argTypes, returnType);
+        MethodEntry entry;
+        synchronized (cache) {
+            entry = cache.key2method.get(key);
+        }
+        if (entry != null && entry.isValid()) return entry;
+        // The version is taken before the lookup, so a change
+        // made during the lookup makes the entry invalid.
+        entry = new MethodEntry(this, this.getMethodVersion());
+        entry.method = this.findMethod0(
+            entry, callStyle, id, argTypes, returnType);
+        synchronized (cache) {
+            cache.key2method.put(key, entry);
+        }
+        return entry;
+    }
+
+    private DFMethod findMethod0(
+        MethodEntry entry, DFMethod.CallStyle callStyle, String id,
+        DFType[] argTypes, DFType returnType) {
         DFMethod method = this.findMethod1(
             callStyle, id, argTypes, returnType);
         if (method != null) return method;
 
         DFKlass outerKlass = this.getOuterKlass();
         if (outerKlass != null) {
-            try {
-                return outerKlass.lookupMethod(
-                    callStyle, id, argTypes, returnType);
-            } catch (MethodNotFound e) {
-            }
+            method = entry.lookInto(
+                outerKlass, callStyle, id, argTypes, returnType);
+            if (method != null) return method;
         }
         DFKlass baseKlass = this.getBaseKlass();
         if (baseKlass != null) {
-            try {
-                return baseKlass.lookupMethod(
-                    callStyle, id, argTypes, returnType);
-            } catch (MethodNotFound e) {
-            }
+            method = entry.lookInto(
+                baseKlass, callStyle, id, argTypes, returnType);
+            if (method != null) return method;
         }
         DFKlass[] baseIfaces = this.getBaseIfaces();
         if (baseIfaces != null) {
             for (DFKlass iface : baseIfaces) {
-                try {
-                    return iface.lookupMethod(
-                        callStyle, id, argTypes, returnType);
-                } catch (MethodNotFound e) {
-                }
+                method = entry.lookInto(
+                    iface, callStyle, id, argTypes, returnType);
+                if (method != null) return method;
             }
         }
+        return null;
+    }
 
+    public DFMethod lookupMethod(
+        DFMethod.CallStyle callStyle, String id,
+        DFType[] argTypes, DFType returnType)
+        throws MethodNotFound {
+        DFMethod method = this.findMethod(
+            callStyle, id, argTypes, returnType);
+        if (method != null) return method;
         if (id == null) { id = "<init>"; }
         throw new MethodNotFound(this.getTypeName()+"."+id, argTypes, returnType);
     }
@@ -431,7 +622,7 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
     public abstract DFMethod[] getMethods();
     public abstract FieldRef[] getFields();
 
-    public void writeXML(XMLStreamWriter writer)
+    public void writeXML(ElementWriter writer)
         throws XMLStreamException {
         writer.writeAttribute("name", this.getTypeName());
         if (this.isInterface()) {
@@ -465,12 +656,10 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
                 }
             }
         }
-        if (_reifiedKlasses != null) {
-            for (DFKlass pklass : _reifiedKlasses.values()) {
-                writer.writeStartElement("parameterized");
-                writer.writeAttribute("type", pklass.getTypeName());
-                writer.writeEndElement();
-            }
+        for (DFKlass pklass : this.getReifiedKlasses()) {
+            writer.writeStartElement("parameterized");
+            writer.writeAttribute("type", pklass.getTypeName());
+            writer.writeEndElement();
         }
         for (FieldRef field : this.getFields()) {
             field.writeXML(writer);
@@ -498,6 +687,8 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
         assert _reifiedKlasses == null;
         _typeSlots = typeSlots;
         _reifiedKlasses = new ConsistentHashMap<String, DFKlass>();
+        _tuple2klass = new HashMap<IdentityTuple, DFKlass>();
+        this.addSpaceChange();
     }
 
     @Override
@@ -547,7 +738,7 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
             _static = isStatic;
         }
 
-        public void writeXML(XMLStreamWriter writer)
+        public void writeXML(ElementWriter writer)
             throws XMLStreamException {
             writer.writeStartElement("field");
             writer.writeAttribute("name", this.getFullName());
@@ -608,6 +799,178 @@ public abstract class DFKlass extends DFTypeSpace implements DFType {
         }
     }
 
+    //  Ancestors
+    //  All the ancestors of a klass.
+    //
+    //  The ancestors are visited in the same order as the search
+    //  of the hierarchy (base klasses first, then interfaces)
+    //  and only the first distance of each klass is kept.
+    //  The base version of each ancestor is recorded so that
+    //  a change elsewhere does not discard the table.
+    //
+    private static class Ancestors {
+
+        public Map<DFKlass, Integer> klass2dist =
+            new HashMap<DFKlass, Integer>();
+        // Parameterized ancestors of each generic klass.
+        public Map<DFKlass, List<DFKlass>> generic2klasses =
+            new HashMap<DFKlass, List<DFKlass>>();
+
+        private List<DFKlass> _klasses = new ArrayList<DFKlass>();
+        private List<Integer> _versions = new ArrayList<Integer>();
+        // Number of the base changes when this was last checked.
+        private volatile int _checked;
+
+        public Ancestors(int changes) {
+            _checked = changes;
+        }
+
+        // isValid: true if no ancestor has been changed.
+        //   The versions are compared only when some klass
+        //   has been changed since the last check.
+        public boolean isValid(int changes) {
+            if (_checked == changes) return true;
+            for (int i = 0; i < _klasses.size(); i++) {
+                DFKlass klass = _klasses.get(i);
+                if (klass._baseVersion.get() != _versions.get(i)) return false;
+            }
+            _checked = changes;
+            return true;
+        }
+
+        public void add(DFKlass klass, int dist) {
+            // A klass that is already visited has no new ancestors.
+            if (klass2dist.containsKey(klass)) return;
+            klass2dist.put(klass, dist);
+            DFKlass genericKlass = klass._genericKlass;
+            if (genericKlass != null) {
+                List<DFKlass> klasses = generic2klasses.get(genericKlass);
+                if (klasses == null) {
+                    klasses = new ArrayList<DFKlass>(1);
+                    generic2klasses.put(genericKlass, klasses);
+                }
+                klasses.add(klass);
+            }
+            // The klass might be loaded here, so the version
+            // is taken after its base klasses are obtained.
+            DFKlass baseKlass = klass.getBaseKlass();
+            DFKlass[] baseIfaces = klass.getBaseIfaces();
+            _klasses.add(klass);
+            _versions.add(klass._baseVersion.get());
+            if (baseKlass != null) {
+                this.add(baseKlass, dist+1);
+            }
+            if (baseIfaces != null) {
+                for (DFKlass iface : baseIfaces) {
+                    if (iface != null) {
+                        this.add(iface, dist+1);
+                    }
+                }
+            }
+        }
+    }
+
+    //  MethodKey
+    //  The arguments of findMethod().
+    //
+    private static class MethodKey {
+
+        private DFMethod.CallStyle _callStyle;
+        private String _id;
+        private DFType[] _argTypes;
+        private DFType _returnType;
+        private int _hash;
+
+        public MethodKey(
+            DFMethod.CallStyle callStyle, String id,
+            DFType[] argTypes, DFType returnType) {
+            _callStyle = callStyle;
+            _id = id;
+            _argTypes = (argTypes == null)? null : argTypes.clone();
+            _returnType = returnType;
+            _hash = Objects.hash(callStyle, id, returnType) * 31 +
+                Arrays.hashCode(_argTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MethodKey)) return false;
+            MethodKey key = (MethodKey)obj;
+            return (_hash == key._hash &&
+                    _callStyle == key._callStyle &&
+                    Objects.equals(_id, key._id) &&
+                    _returnType == key._returnType &&
+                    Arrays.equals(_argTypes, key._argTypes));
+        }
+    }
+
+    //  MethodEntry
+    //  The result of findMethod() and the versions of
+    //  the klasses on its lookup path.
+    //
+    private static class MethodEntry {
+
+        public DFMethod method = null;
+        private DFKlass[] _klasses = new DFKlass[1];
+        private int[] _versions = new int[1];
+        private int _size = 0;
+
+        public MethodEntry(DFKlass klass, int version) {
+            this.add(klass, version);
+        }
+
+        // isValid: true if no klass on the path has been changed.
+        public boolean isValid() {
+            for (int i = 0; i < _size; i++) {
+                if (_klasses[i].getMethodVersion() != _versions[i]) return false;
+            }
+            return true;
+        }
+
+        // lookInto: looks into another klass and
+        //   adds the klasses on its path to this path.
+        public DFMethod lookInto(
+            DFKlass klass, DFMethod.CallStyle callStyle, String id,
+            DFType[] argTypes, DFType returnType) {
+            MethodEntry entry = klass.findMethodEntry(
+                callStyle, id, argTypes, returnType);
+            for (int i = 0; i < entry._size; i++) {
+                this.add(entry._klasses[i], entry._versions[i]);
+            }
+            return entry.method;
+        }
+
+        private void add(DFKlass klass, int version) {
+            for (int i = 0; i < _size; i++) {
+                if (_klasses[i] == klass) return;
+            }
+            if (_size == _klasses.length) {
+                _klasses = Arrays.copyOf(_klasses, _size*2);
+                _versions = Arrays.copyOf(_versions, _size*2);
+            }
+            _klasses[_size] = klass;
+            _versions[_size] = version;
+            _size++;
+        }
+    }
+
+    //  MethodCache
+    //  Method lookups of a klass.
+    //  Each lookup is checked on its own. (See MethodEntry)
+    //
+    private static class MethodCache {
+
+        public Map<String, List<DFMethod>> name2methods = null;
+        public int name2methodsVersion = -1;
+        public Map<MethodKey, MethodEntry> key2method =
+            new HashMap<MethodKey, MethodEntry>();
+    }
+
     //  FallbackMethod
     //  A dummy entry used for an unknown method.
     private class FallbackMethod extends DFMethod {
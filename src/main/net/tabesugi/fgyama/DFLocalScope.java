@@ -38,7 +38,7 @@ public class DFLocalScope extends DFVarScope {
     }
 
     @Override
-    protected void writeInnerXML(XMLStreamWriter writer, DFNode[] nodes)
+    protected void writeInnerXML(ElementWriter writer, DFNode[] nodes)
         throws XMLStreamException {
         super.writeInnerXML(writer, nodes);
         for (DFLocalScope child : _ast2child.values()) {
@@ -57,6 +57,9 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
     // These fields are available only for generic methods.
     private ConsistentHashMap<String, DFMapKlass> _mapKlasses = null;
     private ConsistentHashMap<String, DFMethod> _reifiedMethods = null;
+    // Interned _reifiedMethods by the argument klasses.
+    // An instantiation never changes once created, so it is kept.
+    private Map<IdentityTuple, DFMethod> _tuple2method = null;
 
     // These fields are available only for parameterized methods.
     private DFMethod _genericMethod = null;
@@ -66,10 +69,12 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
     private ConsistentHashSet<DFMethod> _callers =
         new ConsistentHashSet<DFMethod>();
 
-    // List of subclass' methods overriding this method.
-    private List<DFMethod> _overriders = new ArrayList<DFMethod>();
-    // List of superclass' methods being overriden by this method.
-    private List<DFMethod> _overriding = new ArrayList<DFMethod>();
+    // List of subclass' methods overriding this method. (null if none)
+    private List<DFMethod> _overriders = null;
+    // List of superclass' methods being overriden by this method. (null if none)
+    private List<DFMethod> _overriding = null;
+    // The refs used by all the overriders.
+    private volatile RefSummary _refSummary = null;
 
     // Normal constructor.
     public DFMethod(
@@ -122,7 +127,10 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
     }
 
     @Override
-    public DFKlass getKlass(String id) {
+    protected DFKlass findKlass(String id, Stamp stamp) {
+        if (stamp != null) {
+            stamp.add(this);
+        }
         if (_mapKlasses != null) {
             DFMapKlass mapKlass = _mapKlasses.get(id);
             if (mapKlass != null) return mapKlass;
@@ -131,7 +139,7 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
             DFKlass paramType = _paramTypes.get(id);
             if (paramType != null) return paramType;
         }
-        return super.getKlass(id);
+        return super.findKlass(id, stamp);
     }
 
     // Creates a parameterized method.
@@ -139,20 +147,45 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
         if (_mapKlasses == null) return this;
         //Logger.info("DFMethod.getReifiedMethod:", this, typeMap);
         List<DFMapKlass> mapKlasses = _mapKlasses.values();
-        HashMap<String, DFKlass> paramTypes = new HashMap<String, DFKlass>();
-        for (int i = 0; i < mapKlasses.size(); i++) {
+        DFKlass[] types = new DFKlass[mapKlasses.size()];
+        for (int i = 0; i < types.length; i++) {
             DFMapKlass mapKlass = mapKlasses.get(i);
             DFKlass type = mapKlass;
             if (typeMap != null && typeMap.containsKey(mapKlass)) {
                 type = typeMap.get(mapKlass);
             }
-            paramTypes.put(mapKlass.getName(), type);
+            types[i] = type;
+        }
+        // Try the interned methods first. (See DFKlass.getReifiedKlass)
+        IdentityTuple tuple = new IdentityTuple(types);
+        DFMethod method;
+        synchronized (_reifiedMethods) {
+            method = _tuple2method.get(tuple);
+        }
+        if (method != null) return method;
+        // Methods must be created in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        synchronized (_reifiedMethods) {
+            method = _tuple2method.get(tuple);
+        }
+        if (method != null) return method;
+        HashMap<String, DFKlass> paramTypes = new HashMap<String, DFKlass>();
+        for (int i = 0; i < types.length; i++) {
+            paramTypes.put(mapKlasses.get(i).getName(), types[i]);
         }
         String name = DFTypeSpace.getReifiedName(paramTypes);
-        DFMethod method = _reifiedMethods.get(name);
+        synchronized (_reifiedMethods) {
+            method = _reifiedMethods.get(name);
+        }
         if (method == null) {
+            DFKlass.addLazyChange();
             method = this.parameterize(paramTypes);
-            _reifiedMethods.put(name, method);
+            synchronized (_reifiedMethods) {
+                _reifiedMethods.put(name, method);
+            }
+        }
+        synchronized (_reifiedMethods) {
+            _tuple2method.put(tuple, method);
         }
         return method;
     }
@@ -216,43 +249,101 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
             !_methodName.equals(method._methodName)) return false;
         if (!this.getFuncType().equals(method.getFuncType())) return false;
         //Logger.info("DFMethod.addOverrider:", this, "<-", method);
+        if (_overriders == null) {
+            _overriders = new ArrayList<DFMethod>(1);
+        }
         _overriders.add(method);
+        if (method._overriding == null) {
+            method._overriding = new ArrayList<DFMethod>(1);
+        }
         method._overriding.add(this);
         return true;
     }
 
-    private List<DFMethod> _allOverriders = null;
+    // getOverriders: returns this method and all its overriders,
+    //   the most specific ones first.
+    //   After Stage4, the list is taken from the OverriderIndex.
+    //   Before that, it is computed from the current overrides.
     public List<DFMethod> getOverriders() {
-        // Cache for future reference.
-        if (_allOverriders == null) {
-            List<Overrider> overriders = new ArrayList<Overrider>();
-            this.listOverriders(overriders, 0);
-            Collections.sort(overriders);
-            _allOverriders = new ArrayList<DFMethod>();
-            for (Overrider overrider : overriders) {
-                _allOverriders.add(overrider.method);
-            }
+        OverriderIndex index = DFTypeUniverse.getCurrent().getOverriderIndex();
+        if (index != null) {
+            List<DFMethod> overriders = index.getOverriders(this);
+            if (overriders != null) return overriders;
         }
-        return _allOverriders;
+        return this.listOverriders();
+    }
+
+    // listOverriders: computes the overriders from the current overrides.
+    public List<DFMethod> listOverriders() {
+        if (_overriders == null) return Collections.singletonList(this);
+        List<Overrider> overriders = new ArrayList<Overrider>();
+        this.listOverriders(overriders, 0);
+        Collections.sort(overriders);
+        DFMethod[] methods = new DFMethod[overriders.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = overriders.get(i).method;
+        }
+        return Collections.unmodifiableList(Arrays.asList(methods));
     }
 
     private void listOverriders(List<Overrider> overriders, int prio) {
         overriders.add(new Overrider(this, prio));
-        for (DFMethod method : _overriders) {
-            method.listOverriders(overriders, prio+1);
+        if (_overriders != null) {
+            for (DFMethod method : _overriders) {
+                method.listOverriders(overriders, prio+1);
+            }
         }
     }
 
+    // getOverridings: returns the methods that this method overrides.
+    //   After Stage4, the list is taken from the OverriderIndex.
     public List<DFMethod> getOverridings() {
+        OverriderIndex index = DFTypeUniverse.getCurrent().getOverriderIndex();
+        if (index != null) {
+            List<DFMethod> overridings = index.getOverridings(this);
+            if (overridings != null) return overridings;
+        }
+        if (_overriding == null) return Collections.emptyList();
         return _overriding;
     }
 
+    // isMegamorphic: true if a call to this method has too many
+    //   overriders to take the refs of each of them.
+    public boolean isMegamorphic() {
+        int maxCallees = DFTypeUniverse.getCurrent().getMaxCallees();
+        return (0 < maxCallees && maxCallees < this.getOverriders().size());
+    }
+
+    // getRefSummary: returns the input/output refs of all the overriders.
+    //   This is called only after the refs are fixed,
+    //   so it is computed once for all the call sites.
+    public RefSummary getRefSummary() {
+        RefSummary summary = _refSummary;
+        if (summary == null) {
+            summary = new RefSummary();
+            for (DFMethod method : this.getOverriders()) {
+                if (method instanceof DFSourceMethod) {
+                    DFSourceMethod srcmethod = (DFSourceMethod)method;
+                    summary.inputRefs.addAll(srcmethod.getInputRefs());
+                    summary.outputRefs.addAll(srcmethod.getOutputRefs());
+                }
+            }
+            _refSummary = summary;
+        }
+        return summary;
+    }
+
     public int canAccept(
         DFType[] argTypes, DFType returnType, Map<DFMapKlass, DFKlass> typeMap)
         throws TypeIncompatible {
         return this.getFuncType().canAccept(argTypes, returnType, typeMap);
     }
 
+    public int getAcceptDistance(
+        DFType[] argTypes, DFType returnType, Map<DFMapKlass, DFKlass> typeMap) {
+        return this.getFuncType().getAcceptDistance(argTypes, returnType, typeMap);
+    }
+
     // Returns true if it is an abstract, non-Object method.
     public boolean isFuncMethod() {
         if (_callStyle != CallStyle.InstanceMethod) return false;
@@ -290,9 +381,11 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
             _mapKlasses.put(mapKlass.getName(), mapKlass);
         }
         _reifiedMethods = new ConsistentHashMap<String, DFMethod>();
+        _tuple2method = new HashMap<IdentityTuple, DFMethod>();
+        addSpaceChange();
     }
 
-    public void writeXML(XMLStreamWriter writer, int graphId)
+    public void writeXML(ElementWriter writer, DFGraphTask task)
         throws InvalidSyntax, EntityNotFound, XMLStreamException {
         writer.writeAttribute("id", this.getSignature());
         writer.writeAttribute("name", this.getName());
@@ -318,6 +411,64 @@ public abstract class DFMethod extends DFTypeSpace implements Comparable<DFMetho
         }
     }
 
+    //  RefSummary
+    //  The refs used by a method and its overriders.
+    //
+    public static class RefSummary {
+
+        public ConsistentHashSet<DFRef> inputRefs =
+            new ConsistentHashSet<DFRef>();
+        public ConsistentHashSet<DFRef> outputRefs =
+            new ConsistentHashSet<DFRef>();
+
+        @Override
+        public String toString() {
+            return ("<RefSummary("+this.inputRefs.size()+" in, "+
+                    this.outputRefs.size()+" out)>");
+        }
+    }
+
+    //  OverriderIndex
+    //  The overriders and overridings of every method
+    //  that has any, fixed after all the overrides are added.
+    //  It is only read once it is set to the universe.
+    //
+    public static class OverriderIndex {
+
+        private Map<DFMethod, List<DFMethod>> _overriders =
+            new HashMap<DFMethod, List<DFMethod>>();
+        private Map<DFMethod, List<DFMethod>> _overridings =
+            new HashMap<DFMethod, List<DFMethod>>();
+
+        @Override
+        public String toString() {
+            return ("<OverriderIndex("+_overriders.size()+" overridden, "+
+                    _overridings.size()+" overriding)>");
+        }
+
+        public void putOverriders(DFMethod method, List<DFMethod> overriders) {
+            _overriders.put(method, overriders);
+        }
+
+        public void putOverridings(DFMethod method) {
+            if (method._overriding != null) {
+                _overridings.put(
+                    method, Collections.unmodifiableList(
+                        new ArrayList<DFMethod>(method._overriding)));
+            }
+        }
+
+        // getOverriders: returns null if the method is not indexed.
+        public List<DFMethod> getOverriders(DFMethod method) {
+            return _overriders.get(method);
+        }
+
+        // getOverridings: returns null if the method is not indexed.
+        public List<DFMethod> getOverridings(DFMethod method) {
+            return _overridings.get(method);
+        }
+    }
+
     // Overrider
     private class Overrider implements Comparable<Overrider> {
 
@@ -24,6 +24,7 @@ public class DFNode implements Comparable<DFNode> {
         new ArrayList<Edge>();
     private List<DFNode> _outputs =
         new ArrayList<DFNode>();
+    private boolean _purged = false;
 
     public DFNode(
         DFGraph graph, DFVarScope scope, DFType type, DFRef ref,
@@ -49,10 +50,22 @@ public class DFNode implements Comparable<DFNode> {
         return _nid - node._nid;
     }
 
-    public void writeXML(XMLStreamWriter writer)
+    public void writeXML(ElementWriter writer)
         throws XMLStreamException {
         writer.writeStartElement("node");
         writer.writeAttribute("id", this.getNodeId());
+        this.writeAttributes(writer);
+        if (_ast != null) {
+            Utils.writeXML(writer, _ast);
+        }
+        for (Edge edge : _edges) {
+            edge.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    protected void writeAttributes(ElementWriter writer)
+        throws XMLStreamException {
         if (this.getKind() != null) {
             writer.writeAttribute("kind", this.getKind());
         }
@@ -63,13 +76,6 @@ public class DFNode implements Comparable<DFNode> {
         if (_ref != null) {
             writer.writeAttribute("ref", _ref.getFullName());
         }
-        if (_ast != null) {
-            Utils.writeXML(writer, _ast);
-        }
-        for (Edge edge : _edges) {
-            edge.writeXML(writer);
-        }
-        writer.writeEndElement();
     }
 
     public DFVarScope getScope() {
@@ -96,6 +102,20 @@ public class DFNode implements Comparable<DFNode> {
         return null;
     }
 
+    public int getEdgeCount() {
+        return _edges.size();
+    }
+
+    // getOutputs: returns the nodes that take this node as an input.
+    //   (It may contain purged nodes.)
+    public List<DFNode> getOutputs() {
+        return _outputs;
+    }
+
+    public boolean isPurged() {
+        return _purged;
+    }
+
     public boolean hasValue() {
         return _edge0 != null;
     }
@@ -138,10 +158,12 @@ public class DFNode implements Comparable<DFNode> {
 
     protected void disconnect(DFNode src) {
         assert this != src;
-        for (Edge edge : _edges) {
-            edge._src._outputs.remove(this);
-        }
+        assert !_purged;
+        // This node stays in the outputs of its inputs,
+        // but it is skipped from now on.
+        _purged = true;
         for (DFNode node : _outputs) {
+            if (node._purged) continue;
             for (Edge edge : node._edges) {
                 if (edge._src == this) {
                     edge._src = src;
@@ -179,12 +201,8 @@ public class DFNode implements Comparable<DFNode> {
                    right instanceof DFUnknownType) {
             return (left instanceof DFUnknownType)? right : left;
         } else {
-            try {
-                left.canConvertFrom(right, null);
-                return left;
-            } catch (TypeIncompatible e) {
-                return right;
-            }
+            int dist = left.getConvertDistance(right, null);
+            return (dist != DFType.NOT_CONVERTIBLE)? left : right;
         }
     }
 
@@ -218,7 +236,7 @@ public class DFNode implements Comparable<DFNode> {
             return ("<Edge "+DFNode.this+"<-"+_src+">");
         }
 
-        public void writeXML(XMLStreamWriter writer)
+        public void writeXML(ElementWriter writer)
             throws XMLStreamException {
             writer.writeStartElement("accept");
             writer.writeAttribute("src", _src.getNodeId());
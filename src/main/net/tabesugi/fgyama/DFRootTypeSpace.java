@@ -3,7 +3,6 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
-import java.util.jar.*;
 import org.apache.bcel.*;
 import org.apache.bcel.classfile.*;
 import org.eclipse.jdt.core.*;
@@ -15,12 +14,43 @@ import org.eclipse.jdt.core.dom.*;
 public class DFRootTypeSpace extends DFTypeSpace {
 
     private DFTypeFinder _finder;
+    private JarFileCache _jarFiles = new JarFileCache();
+    private JarInfoCache _infoCache = null;
 
     public DFRootTypeSpace() {
         super("ROOT", null);
         _finder = new DFTypeFinder(this);
     }
 
+    // setCacheDir: stores the klass info of .jar files in the directory.
+    public void setCacheDir(File dir) {
+        if (_infoCache != null) {
+            _infoCache.close();
+        }
+        _infoCache = null;
+        if (dir != null) {
+            _infoCache = new JarInfoCache(dir, _jarFiles);
+            _infoCache.setMaxOpen(_jarFiles.getMaxOpen());
+        }
+    }
+
+    // setMaxOpen: limits the number of .jar and cache files kept open.
+    public void setMaxOpen(int maxOpen) {
+        _jarFiles.setMaxOpen(maxOpen);
+        if (_infoCache != null) {
+            _infoCache.setMaxOpen(maxOpen);
+        }
+    }
+
+    // close: closes the .jar and cache files.
+    //   They are opened again if another klass is loaded.
+    public void close() {
+        _jarFiles.close();
+        if (_infoCache != null) {
+            _infoCache.close();
+        }
+    }
+
     public DFTypeSpace getSubSpace(PackageDeclaration pkgDecl) {
         if (pkgDecl == null) {
             return this;
@@ -61,33 +91,90 @@ public class DFRootTypeSpace extends DFTypeSpace {
     public void loadJarFile(File file)
         throws IOException {
         Logger.info("Loading:", file);
-        JarFile jarFile = new JarFile(file);
-        try {
-            for (Enumeration<JarEntry> es = jarFile.entries(); es.hasMoreElements(); ) {
-                JarEntry jarEntry = es.nextElement();
+        String jarPath = file.getPath();
+        if (_infoCache != null) {
+            // Use the cached klass info instead of the file.
+            JarInfoCache.Index index = _infoCache.getIndex(file);
+            for (String entPath : index.getEntries()) {
                 try {
-                    addFile(jarFile, jarEntry);
+                    addFile(index, jarPath, entPath);
                 } catch (EntityDuplicate e) {
-                    Logger.info("loadJarFile: duplicate: ", e.name, jarFile, jarEntry);
+                    Logger.info("loadJarFile: duplicate: ", e.name, jarPath, entPath);
                 }
             }
-        } finally {
-            jarFile.close();
+            return;
         }
+        // The file is kept open for loading the klasses later.
+        for (String entPath : _jarFiles.listEntries(jarPath)) {
+            try {
+                addFile(_jarFiles, jarPath, entPath);
+            } catch (EntityDuplicate e) {
+                Logger.info("loadJarFile: duplicate: ", e.name, jarPath, entPath);
+            }
+        }
+    }
+
+    // loadJrtImage: adds the runtime classes of JDK 9 or later.
+    //   Only the package names are read here. The classes in
+    //   each package are added when the package is first used.
+    public void loadJrtImage()
+        throws IOException {
+        Logger.info("Loading: jrt:/");
+        final JrtImage image = new JrtImage();
+        List<String> pkgNames = image.getPackages();
+        // Create all the spaces first so that adding a subpackage
+        // does not fill its parent.
+        List<DFTypeSpace> spaces = new ArrayList<DFTypeSpace>();
+        for (String pkgName : pkgNames) {
+            spaces.add(this.addSubSpace(pkgName));
+        }
+        for (int i = 0; i < pkgNames.size(); i++) {
+            final String pkgName = pkgNames.get(i);
+            spaces.get(i).setLoader(new DFTypeSpace.Loader() {
+                    @Override
+                    public void load(DFTypeSpace space) {
+                        loadJrtPackage(image, space, pkgName);
+                    }
+                });
+        }
+    }
+
+    private void loadJrtPackage(
+        JrtImage image, DFTypeSpace space, String pkgName) {
+        try {
+            for (String modPath : image.getModules(pkgName)) {
+                for (String entPath : image.getEntries(modPath, pkgName)) {
+                    try {
+                        addFile(image, space, modPath, entPath);
+                    } catch (EntityDuplicate e) {
+                        Logger.info("loadJrtImage: duplicate: ", e.name, modPath, entPath);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("loadJrtImage: IOException", pkgName);
+        }
+    }
+
+    private void addFile(
+        JarClassInfo.Source source, String jarPath, String entPath)
+        throws IOException, EntityDuplicate {
+        if (!entPath.endsWith(".class")) return;
+        String s = entPath.substring(0, entPath.length()-6);
+        int j = s.lastIndexOf('/');
+        String spaceName = s.substring(0, j).replace('/', '.');
+        this.addFile(source, this.addSubSpace(spaceName), jarPath, entPath);
     }
 
-    private void addFile(JarFile jarFile, JarEntry jarEntry)
+    private void addFile(
+        JarClassInfo.Source source, DFTypeSpace space,
+        String jarPath, String entPath)
         throws IOException, EntityDuplicate {
-        String jarPath = jarFile.getName();
-        String entPath = jarEntry.getName();
         if (!entPath.endsWith(".class")) return;
         String s = entPath.substring(0, entPath.length()-6);
+        s = s.substring(s.lastIndexOf('/')+1);
         int i = s.indexOf('$');
-        String fullName = s.substring(0, (0 <= i)? i : s.length());
-        int j = fullName.lastIndexOf('/');
-        String spaceName = fullName.substring(0, j).replace('/', '.');
-        String klassName = fullName.substring(j+1);
-        DFTypeSpace space = this.addSubSpace(spaceName);
+        String klassName = s.substring(0, (0 <= i)? i : s.length());
         // Create a top-level klass.
         DFTypeFinder finder = _finder;
         DFJarFileKlass klass = (DFJarFileKlass)space.getKlass(klassName);
@@ -110,6 +197,6 @@ public class DFRootTypeSpace extends DFTypeSpace {
             klass = child;
             finder = new DFTypeFinder(klass, finder);
         }
-        klass.setJarPath(jarPath, entPath);
+        klass.setJarPath(source, jarPath, entPath);
     }
 }
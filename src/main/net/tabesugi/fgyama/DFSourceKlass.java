@@ -3,6 +3,7 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import javax.xml.stream.*;
 import org.eclipse.jdt.core.*;
@@ -30,7 +31,8 @@ public abstract class DFSourceKlass extends DFKlass {
     private boolean _analyze;
 
     // This field is available after initializeFinder(). (Stage2)
-    private boolean _loaded = false;
+    private LoadState _loadState = new LoadState();
+    private boolean _released = false;
     private DFTypeFinder _finder = null;
 
     // The following fields are available after the klass is loaded. (Stage3)
@@ -40,8 +42,9 @@ public abstract class DFSourceKlass extends DFKlass {
     private InitMethod _initMethod = null;
 
     // List of methods.
+    // Fallback methods are added while the others are reading it.
     private List<DFMethod> _methods =
-        new ArrayList<DFMethod>();
+        new CopyOnWriteArrayList<DFMethod>();
     private Map<String, DFMethod> _id2method =
         new HashMap<String, DFMethod>();
 
@@ -73,7 +76,7 @@ public abstract class DFSourceKlass extends DFKlass {
     }
 
     @Override
-    public void writeXML(XMLStreamWriter writer)
+    public void writeXML(ElementWriter writer)
         throws XMLStreamException {
         writer.writeAttribute("path", this.getFilePath());
         super.writeXML(writer);
@@ -106,6 +109,47 @@ public abstract class DFSourceKlass extends DFKlass {
 
     public abstract ASTNode getAST();
 
+    public boolean isReleased() {
+        return _released;
+    }
+
+    // release: drops the syntax trees of this klass and
+    //   everything defined inside it to save memory.
+    //   The klass cannot be built or reified after this.
+    public boolean release() {
+        if (_released) return false;
+        _released = true;
+        if (_initMethod != null) {
+            _initMethod.release();
+        }
+        for (DFMethod method : _methods) {
+            if (method instanceof DFSourceMethod) {
+                ((DFSourceMethod)method).release();
+            }
+        }
+        releaseSpace(this);
+        for (DFKlass klass : this.getReifiedKlasses()) {
+            if (klass instanceof DFSourceKlass) {
+                ((DFSourceKlass)klass).release();
+            }
+        }
+        return true;
+    }
+
+    // releaseSpace: releases the klasses defined in a space.
+    protected static void releaseSpace(DFTypeSpace space) {
+        for (DFKlass klass : space.getInnerKlasses()) {
+            if (klass instanceof DFSourceKlass) {
+                ((DFSourceKlass)klass).release();
+            } else if (klass instanceof DFMapKlass) {
+                ((DFMapKlass)klass).release();
+            }
+        }
+        for (DFTypeSpace child : space.getSubSpaces()) {
+            releaseSpace(child);
+        }
+    }
+
     @Override
     public boolean isInterface() {
         this.load();
@@ -140,21 +184,23 @@ public abstract class DFSourceKlass extends DFKlass {
     }
 
     @Override
-    public DFMethod lookupMethod(
+    public DFMethod findMethod(
         DFMethod.CallStyle callStyle, String id,
-        DFType[] argTypes, DFType returnType)
-        throws MethodNotFound {
+        DFType[] argTypes, DFType returnType) {
         this.load();
-        return super.lookupMethod(callStyle, id, argTypes, returnType);
+        return super.findMethod(callStyle, id, argTypes, returnType);
     }
 
     @Override
     public DFMethod createFallbackMethod(
         DFMethod.CallStyle callStyle, String id,
         DFType[] argTypes, DFType returnType) {
+        // Methods must be added in the same order as a serial run.
+        TaskSequencer.awaitTurn();
         DFMethod method = super.createFallbackMethod(
             callStyle, id, argTypes, returnType);
-        this.addMethod(method);
+        _methods.add(method);
+        this.addMethodChange();
         return method;
     }
 
@@ -211,7 +257,13 @@ public abstract class DFSourceKlass extends DFKlass {
 
     private void overrideMethods(DFKlass klass) {
         for (DFMethod overrider : this.getMethods()) {
-            for (DFMethod method : klass.getMethods()) {
+            // Only the methods with the same name can be overridden,
+            // except by a lambda.
+            List<DFMethod> methods =
+                (overrider.getCallStyle() == DFMethod.CallStyle.Lambda)?
+                Arrays.asList(klass.getMethods()) :
+                klass.getMethodsByName(overrider.getName());
+            for (DFMethod method : methods) {
                 // each method of the given klass is overridded by
                 // the corresponding method of the this klass.
                 if (method.addOverrider(overrider)) break;
@@ -236,11 +288,19 @@ public abstract class DFSourceKlass extends DFKlass {
 
     protected void load() {
         assert _finder != null;
-        if (!_loaded) {
-            _loaded = true;
+        if (_loadState.isLoaded()) return;
+        // Klasses must be loaded in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        // A recursion within the same build returns here.
+        if (!_loadState.begin()) return;
+        try {
+            addLazyChange();
             //Logger.info("build:", this);
             this.build();
+        } finally {
+            _loadState.end();
         }
+        addBaseChange();
     }
 
     protected abstract void build();
@@ -296,6 +356,7 @@ public abstract class DFSourceKlass extends DFKlass {
                     Utils.getASTSource(superClass), this);
             }
         }
+        addBaseChange();
         this.buildMembers(cstr.getAnonymousClassDeclaration().bodyDeclarations());
     }
 
@@ -316,6 +377,7 @@ public abstract class DFSourceKlass extends DFKlass {
                     Utils.getASTSource(superClass), this);
             }
         }
+        addBaseChange();
         // Get interfaces.
         List<Type> ifaces = typeDecl.superInterfaceTypes();
         _baseIfaces = new DFKlass[ifaces.size()];
@@ -329,6 +391,7 @@ public abstract class DFSourceKlass extends DFKlass {
                     Utils.getASTSource(ifaces.get(i)), this);
             }
             _baseIfaces[i] = iface;
+            addBaseChange();
         }
         this.buildMembers(typeDecl.bodyDeclarations());
     }
@@ -340,6 +403,7 @@ public abstract class DFSourceKlass extends DFKlass {
         // Get superclass.
         DFKlass enumKlass = DFBuiltinTypes.getEnumKlass();
         _baseKlass = enumKlass.getReifiedKlass(new DFKlass[] { this });
+        addBaseChange();
         // Get interfaces.
         List<Type> ifaces = enumDecl.superInterfaceTypes();
         _baseIfaces = new DFKlass[ifaces.size()];
@@ -353,6 +417,7 @@ public abstract class DFSourceKlass extends DFKlass {
                     Utils.getASTSource(ifaces.get(i)), this);
             }
             _baseIfaces[i] = iface;
+            addBaseChange();
         }
         // Get constants.
         for (EnumConstantDeclaration econst :
@@ -521,6 +586,7 @@ public abstract class DFSourceKlass extends DFKlass {
 
     private void addMethod(DFMethod method) {
         _methods.add(method);
+        addMethodChange();
     }
 }
 
@@ -548,6 +614,13 @@ class InitMethod extends DFSourceMethod {
         return _ast;
     }
 
+    @Override
+    public void release() {
+        super.release();
+        _ast = null;
+        _decls = null;
+    }
+
     public DFFuncType getFuncType() {
         return new DFFuncType(new DFType[] {}, DFBasicType.VOID);
     }
@@ -660,6 +733,10 @@ class InitMethod extends DFSourceMethod {
     @SuppressWarnings("unchecked")
     public DFGraph getDFGraph(int graphId)
         throws EntityNotFound {
+        if (_decls == null) {
+            Logger.error("InitMethod.getDFGraph: released", this);
+            return null;
+        }
         MethodGraph graph = new MethodGraph("K"+graphId+"_"+this.getName());
         DFLocalScope scope = this.getScope();
         DFContext ctx = new DFContext(graph, scope);
@@ -748,6 +825,12 @@ class DefinedMethod extends DFSourceMethod {
         return _methodDecl;
     }
 
+    @Override
+    public void release() {
+        super.release();
+        _methodDecl = null;
+    }
+
     public DFFuncType getFuncType() {
         return _funcType;
     }
@@ -755,6 +838,10 @@ class DefinedMethod extends DFSourceMethod {
     @Override
     protected DFMethod parameterize(Map<String, DFKlass> paramTypes) {
         assert paramTypes != null;
+        if (_methodDecl == null) {
+            Logger.error("DefinedMethod.parameterize: released", this);
+            return this;
+        }
         return new DefinedMethod(this, paramTypes);
     }
 
@@ -861,6 +948,10 @@ class DefinedMethod extends DFSourceMethod {
     @SuppressWarnings("unchecked")
     public DFGraph getDFGraph(int graphId)
         throws EntityNotFound {
+        if (_methodDecl == null) {
+            Logger.error("DefinedMethod.getDFGraph: released", this);
+            return null;
+        }
         ASTNode body = _methodDecl.getBody();
         if (body == null) return null;
 
@@ -901,7 +992,7 @@ class DefinedMethod extends DFSourceMethod {
         return graph;
     }
 
-    public void writeXML(XMLStreamWriter writer)
+    public void writeXML(ElementWriter writer)
         throws XMLStreamException {
         Utils.writeXML(writer, _methodDecl);
     }
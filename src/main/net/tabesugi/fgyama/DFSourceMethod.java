@@ -29,6 +29,10 @@ public abstract class DFSourceMethod extends DFMethod {
     private ConsistentHashSet<DFRef> _outputRefs = new ConsistentHashSet<DFRef>();
     private ConsistentHashSet<DFRef> _passInRefs = new ConsistentHashSet<DFRef>();
     private ConsistentHashSet<DFRef> _passOutRefs = new ConsistentHashSet<DFRef>();
+    // The ids of _inputRefs/_outputRefs in _refIndex.
+    private RefIndex _refIndex = null;
+    private OrderedBitmap _inputIds = null;
+    private OrderedBitmap _outputIds = null;
 
     // Normal constructor.
     protected DFSourceMethod(
@@ -1707,16 +1711,43 @@ public abstract class DFSourceMethod extends DFMethod {
 
     /// Expand References.
 
-    public void expandRefs(Set<DFRef> passInRefs, Set<DFRef> passOutRefs) {
-        for (DFRef ref : passInRefs) {
-            if (!_inputRefs.contains(ref)) {
-                _passInRefs.add(ref);
-            }
+    // expandRefs: adds the refs used by the callees
+    //   that are not used by this method itself.
+    //   The refs are added in the order of passInRefs/passOutRefs.
+    public void expandRefs(
+        RefIndex index, OrderedBitmap passInRefs, OrderedBitmap passOutRefs) {
+        this.updateIds(index);
+        _passInRefs.addAll(index.toRefs(
+            passInRefs.andNot(_inputIds.getBits())));
+        _passOutRefs.addAll(index.toRefs(
+            passOutRefs.andNot(_outputIds.getBits())));
+    }
+
+    // getInputIds: returns the ids of the input refs.
+    public OrderedBitmap getInputIds(RefIndex index) {
+        this.updateIds(index);
+        return _inputIds;
+    }
+
+    // getOutputIds: returns the ids of the output refs.
+    public OrderedBitmap getOutputIds(RefIndex index) {
+        this.updateIds(index);
+        return _outputIds;
+    }
+
+    // updateIds: numbers the refs added since the last call.
+    //   (The refs are only appended, so the older ids stay valid.)
+    private void updateIds(RefIndex index) {
+        if (_refIndex != index) {
+            _refIndex = index;
+            _inputIds = new OrderedBitmap();
+            _outputIds = new OrderedBitmap();
         }
-        for (DFRef ref : passOutRefs) {
-            if (!_outputRefs.contains(ref)) {
-                _passOutRefs.add(ref);
-            }
+        for (int i = _inputIds.size(); i < _inputRefs.size(); i++) {
+            _inputIds.add(index.getId(_inputRefs.get(i)));
+        }
+        for (int i = _outputIds.size(); i < _outputRefs.size(); i++) {
+            _outputIds.add(index.getId(_outputRefs.get(i)));
         }
     }
 
@@ -1738,9 +1769,21 @@ public abstract class DFSourceMethod extends DFMethod {
 
     public abstract ASTNode getAST();
 
-    public void writeXML(XMLStreamWriter writer, int graphId)
+    // release: drops the syntax tree of this method.
+    public void release() {
+        DFSourceKlass.releaseSpace(this);
+        if (this.isGeneric()) {
+            for (DFMethod method : this.getReifiedMethods()) {
+                if (method instanceof DFSourceMethod) {
+                    ((DFSourceMethod)method).release();
+                }
+            }
+        }
+    }
+
+    public void writeXML(ElementWriter writer, DFGraphTask task)
         throws InvalidSyntax, EntityNotFound, XMLStreamException {
-        super.writeXML(writer, graphId);
+        super.writeXML(writer, task);
         ASTNode ast = this.getAST();
         if (ast != null) {
             Utils.writeXML(writer, ast);
@@ -1755,7 +1798,7 @@ public abstract class DFSourceMethod extends DFMethod {
             writer.writeAttribute("ref", ref.getFullName());
             writer.writeEndElement();
         }
-        DFGraph graph = this.getDFGraph(graphId);
+        DFGraph graph = task.getGraph();
         if (graph != null) {
             graph.writeXML(writer);
         }
@@ -1909,7 +1952,18 @@ class AnonymousKlass extends DFSourceKlass {
         return _cstr;
     }
 
+    @Override
+    public boolean release() {
+        if (!super.release()) return false;
+        _cstr = null;
+        return true;
+    }
+
     protected void build() {
+        if (_cstr == null) {
+            Logger.error("AnonymousKlass.build: released", this);
+            return;
+        }
         try {
             this.buildMembersFromAnonDecl(_cstr);
         } catch (InvalidSyntax e) {
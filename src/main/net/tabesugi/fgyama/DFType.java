@@ -9,11 +9,20 @@ import java.util.*;
 //
 interface DFType {
 
+    // The distance of an impossible conversion.
+    //   (A distance can be negative, e.g. long -> int.)
+    int NOT_CONVERTIBLE = Integer.MIN_VALUE;
+
     String getTypeName();
     boolean equals(DFType type);
-    int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible;
+    int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap);
 
     DFKlass toKlass();
 
+    default int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
+        throws TypeIncompatible {
+        int dist = this.getConvertDistance(type, typeMap);
+        if (dist == NOT_CONVERTIBLE) throw new TypeIncompatible(this, type);
+        return dist;
+    }
 }
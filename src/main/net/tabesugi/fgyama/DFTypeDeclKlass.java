@@ -66,6 +66,18 @@ class DFTypeDeclKlass extends DFSourceKlass {
         return _abstTypeDecl;
     }
 
+    @Override
+    public boolean release() {
+        if (!super.release()) return false;
+        _abstTypeDecl = null;
+        if (_defaultKlasses != null) {
+            for (DFMapKlass klass : _defaultKlasses) {
+                klass.release();
+            }
+        }
+        return true;
+    }
+
     public void initializeFinder(DFTypeFinder parentFinder) {
         super.initializeFinder(parentFinder);
         if (_defaultKlasses != null) {
@@ -78,6 +90,10 @@ class DFTypeDeclKlass extends DFSourceKlass {
 
     @SuppressWarnings("unchecked")
     protected void build() {
+        if (_abstTypeDecl == null) {
+            Logger.error("DFTypeDeclKlass.build: released", this);
+            return;
+        }
         try {
             if (_abstTypeDecl instanceof TypeDeclaration) {
                 this.buildMembersFromTypeDecl(
@@ -106,6 +122,10 @@ class DFTypeDeclKlass extends DFSourceKlass {
     @Override
     protected DFKlass parameterize(Map<String, DFKlass> paramTypes) {
         assert paramTypes != null;
+        if (_abstTypeDecl == null) {
+            Logger.error("DFTypeDeclKlass.parameterize: released", this);
+            return this;
+        }
         try {
             return new DFTypeDeclKlass(this, paramTypes);
         } catch (InvalidSyntax e) {
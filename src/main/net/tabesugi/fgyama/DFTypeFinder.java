@@ -14,6 +14,10 @@ public class DFTypeFinder {
     private DFTypeSpace _space;
     private DFTypeFinder _next = null;
 
+    // Cached results of resolveKlass().
+    // Each of them is checked against the spaces it looked into.
+    private Map<String, Entry> _name2klass = new HashMap<String, Entry>();
+
     public DFTypeFinder(DFTypeSpace space) {
         assert space != null;
         _space = space;
@@ -43,24 +47,61 @@ public class DFTypeFinder {
 
     public DFKlass resolveKlass(String name)
         throws TypeNotFound {
-        name = name.replace('$', '.');
+        DFTypeUniverse universe = DFTypeUniverse.getCurrent();
+        int changes = universe.getSpaceChanges();
+        Entry entry;
+        synchronized (this) {
+            entry = _name2klass.get(name);
+        }
+        if (entry != null && entry.stamp.isValid(changes)) {
+            if (entry.klass == null) {
+                throw new TypeNotFound(name.replace('$', '.'), this);
+            }
+            return entry.klass;
+        }
+        DFTypeSpace.Stamp stamp = new DFTypeSpace.Stamp(changes);
+        DFKlass klass = this.lookupKlass(universe.splitName(name), stamp);
+        // Spaces might be filled during the lookup.
+        if (stamp.isValid(universe.getSpaceChanges())) {
+            synchronized (this) {
+                _name2klass.put(name, new Entry(klass, stamp));
+            }
+        }
+        if (klass == null) {
+            throw new TypeNotFound(name.replace('$', '.'), this);
+        }
+        return klass;
+    }
+
+    private DFKlass lookupKlass(String[] ids, DFTypeSpace.Stamp stamp) {
+        int last = ids.length-1;
         DFTypeFinder finder = this;
         while (finder != null) {
             DFTypeSpace space = finder._space;
-            DFKlass klass = null;
-            int i = name.lastIndexOf('.');
-            if (0 <= i) {
-                space = space.getSubSpace(name.substring(0, i));
-                if (space != null) {
-                    klass = space.getKlass(name.substring(i+1));
-                }
-            } else {
-                klass = space.getKlass(name);
+            for (int i = 0; i < last && space != null; i++) {
+                space = space.findSubSpace(ids[i], stamp);
+            }
+            if (space != null) {
+                DFKlass klass = space.findKlass(ids[last], stamp);
+                if (klass != null) return klass;
             }
-            if (klass != null) return klass;
             finder = finder._next;
         }
-        throw new TypeNotFound(name, this);
+        return null;
+    }
+
+    //  Entry
+    //  A cached klass (null if not found) and the spaces looked into.
+    //
+    private static class Entry {
+
+        public DFKlass klass;
+        public DFTypeSpace.Stamp stamp;
+
+        public Entry(DFKlass klass, DFTypeSpace.Stamp stamp) {
+            this.klass = klass;
+            this.stamp = stamp;
+        }
     }
 
     @SuppressWarnings("unchecked")
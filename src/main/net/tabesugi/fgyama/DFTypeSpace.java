@@ -3,6 +3,7 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import org.eclipse.jdt.core.*;
 import org.eclipse.jdt.core.dom.*;
 
@@ -11,8 +12,32 @@ import org.eclipse.jdt.core.dom.*;
 //
 public class DFTypeSpace {
 
+    //  Loader
+    //  Fills the space when it is first accessed.
+    public interface Loader {
+        public void load(DFTypeSpace space);
+    }
+
     private String _name;
     private DFTypeSpace _outerSpace;
+    private volatile Loader _loader = null;
+    private LoadState _loadState = null;
+
+    // Number of the changes made to any space in the current
+    // universe, such as adding a klass or filling a space.
+    // (See DFTypeFinder)
+    public static int getSpaceChanges() {
+        return DFTypeUniverse.getCurrent().getSpaceChanges();
+    }
+
+    // addSpaceChange: this space is changed.
+    protected void addSpaceChange() {
+        _version.incrementAndGet();
+        DFTypeUniverse.getCurrent().addSpaceChange();
+    }
+
+    // Number of the changes made to this space.
+    private AtomicInteger _version = new AtomicInteger(0);
 
     private Map<String, DFTypeSpace> _id2space =
         new HashMap<String, DFTypeSpace>();
@@ -48,6 +73,17 @@ public class DFTypeSpace {
             if (space == null) return null;
             return space.getSubSpace(id.substring(i+1));
         }
+        return this.findSubSpace(id, null);
+    }
+
+    // findSubSpace: getSubSpace() that records this space.
+    //   (stamp can be null)
+    protected DFTypeSpace findSubSpace(String id, Stamp stamp) {
+        assert id.indexOf('.') < 0;
+        this.fill();
+        if (stamp != null) {
+            stamp.add(this);
+        }
         DFKlass klass = _id2klass.get(id);
         if (klass != null) return klass;
         return _id2space.get(id);
@@ -63,12 +99,14 @@ public class DFTypeSpace {
             DFTypeSpace space = this.addSubSpace(id.substring(0, i));
             return space.addSubSpace(id.substring(i+1));
         }
+        this.fill();
         DFKlass klass = _id2klass.get(id);
         if (klass != null) return klass;
         DFTypeSpace space = _id2space.get(id);
         if (space == null) {
             space = new DFTypeSpace(id, this);
             _id2space.put(id, space);
+            addSpaceChange();
             //Logger.info("DFTypeSpace.addChild:", this, ":", id);
         }
         return space;
@@ -77,10 +115,12 @@ public class DFTypeSpace {
     public void addKlass(String id, DFKlass klass)
         throws TypeDuplicate {
         assert id.indexOf('.') < 0;
+        this.fill();
         if (_id2klass.containsKey(id)) {
             throw new TypeDuplicate(id);
         }
         _id2klass.put(id, klass);
+        addSpaceChange();
         //Logger.info("DFTypeSpace.addKlass:", this, ":", id);
     }
 
@@ -90,14 +130,27 @@ public class DFTypeSpace {
 
     public DFKlass getKlass(String id) {
         //Logger.info("DFTypeSpace.getKlass:", this, ":", id);
+        return this.findKlass(id, null);
+    }
+
+    // findKlass: getKlass() that records the spaces it looks into.
+    //   A space that looks into other spaces must override this.
+    //   (stamp can be null)
+    protected DFKlass findKlass(String id, Stamp stamp) {
         assert id.indexOf('.') < 0;
+        this.fill();
+        if (stamp != null) {
+            stamp.add(this);
+        }
         return _id2klass.get(id);
     }
 
     public DFKlass addFallbackKlass(String id) {
+        this.fill();
         assert _id2klass.get(id) == null;
         DFKlass klass = new FallbackKlass(id);
         _id2klass.put(id, klass);
+        addSpaceChange();
         return klass;
     }
 
@@ -114,9 +167,39 @@ public class DFTypeSpace {
     }
 
     protected Collection<DFKlass> getInnerKlasses() {
+        this.fill();
         return _id2klass.values();
     }
 
+    protected Collection<DFTypeSpace> getSubSpaces() {
+        this.fill();
+        return _id2space.values();
+    }
+
+    // setLoader: defers filling the space until it is used.
+    public void setLoader(Loader loader) {
+        assert _loader == null;
+        _loadState = new LoadState();
+        _loader = loader;
+    }
+
+    private void fill() {
+        if (_loader == null) return;
+        // Spaces must be filled in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        Loader loader = _loader;
+        if (loader == null) return;
+        // A recursion within the same fill returns here.
+        if (!_loadState.begin()) return;
+        try {
+            loader.load(this);
+        } finally {
+            _loader = null;
+            _loadState.end();
+        }
+        addSpaceChange();
+    }
+
     // dump: for debugging.
     public void dump() {
         dump(System.err, "");
@@ -137,6 +220,46 @@ public class DFTypeSpace {
         }
     }
 
+    //  Stamp
+    //  The versions of the spaces that a lookup has looked into.
+    //
+    public static class Stamp {
+
+        private DFTypeSpace[] _spaces = new DFTypeSpace[4];
+        private int[] _versions = new int[4];
+        private int _size = 0;
+        // Number of the space changes when this was last checked.
+        private volatile int _checked;
+
+        public Stamp(int changes) {
+            _checked = changes;
+        }
+
+        public void add(DFTypeSpace space) {
+            // The same space is often looked into in a row.
+            if (0 < _size && _spaces[_size-1] == space) return;
+            if (_size == _spaces.length) {
+                _spaces = Arrays.copyOf(_spaces, _size*2);
+                _versions = Arrays.copyOf(_versions, _size*2);
+            }
+            _spaces[_size] = space;
+            _versions[_size] = space._version.get();
+            _size++;
+        }
+
+        // isValid: true if none of the spaces has been changed.
+        //   The versions are compared only when some space
+        //   has been changed since the last check.
+        public boolean isValid(int changes) {
+            if (_checked == changes) return true;
+            for (int i = 0; i < _size; i++) {
+                if (_spaces[i]._version.get() != _versions[i]) return false;
+            }
+            _checked = changes;
+            return true;
+        }
+    }
+
     public class FallbackKlass extends DFKlass {
 
         public FallbackKlass(String name) {
@@ -0,0 +1,235 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+//  DFTypeUniverse
+//  The types and settings of one analysis.
+//
+//  Each Java2DF has its own universe: the root type space,
+//  the built-in klasses, the array types and the settings.
+//  The universe is bound to the threads that work for it,
+//  so that multiple analyses can run side by side in one JVM.
+//
+//  Usage:
+//    prev = universe.enter(); try { ... } finally { DFTypeUniverse.exit(prev); }
+//    pool = universe.newThreadPool(n)  (every thread is bound.)
+//
+public class DFTypeUniverse {
+
+    public static final int DEFAULT_MAX_REIFY_DEPTH = 2;
+
+    private static ThreadLocal<DFTypeUniverse> _current =
+        new ThreadLocal<DFTypeUniverse>();
+
+    private DFRootTypeSpace _rootSpace;
+    private DFBuiltinTypes _builtinTypes = null;
+    private ConcurrentHashMap<String, DFArrayType> _arrays =
+        new ConcurrentHashMap<String, DFArrayType>();
+    private ConcurrentHashMap<String, String[]> _splitNames =
+        new ConcurrentHashMap<String, String[]>();
+
+    private volatile int _maxReifyDepth = DEFAULT_MAX_REIFY_DEPTH;
+    private volatile int _maxCallees = 0;
+    private volatile int _logLevel = Logger.DEFAULT_LEVEL;
+    // The overriders of every method, fixed after Stage4.
+    private volatile DFMethod.OverriderIndex _overriderIndex = null;
+
+    // Change counters of the types in this universe.
+    // (See DFKlass and DFTypeSpace)
+    private AtomicInteger _lazyChanges = new AtomicInteger(0);
+    private AtomicInteger _baseChanges = new AtomicInteger(0);
+    private AtomicInteger _spaceChanges = new AtomicInteger(0);
+
+    public DFTypeUniverse() {
+        _rootSpace = new DFRootTypeSpace();
+    }
+
+    @Override
+    public String toString() {
+        return ("<DFTypeUniverse("+_arrays.size()+" arrays)>");
+    }
+
+    // getCurrent: returns the universe of the current thread.
+    //   Every entry point must enter() its universe first.
+    public static DFTypeUniverse getCurrent() {
+        DFTypeUniverse universe = _current.get();
+        if (universe == null) {
+            throw new IllegalStateException("No universe is bound to this thread.");
+        }
+        return universe;
+    }
+
+    // findCurrent: returns the universe of the current thread, or null.
+    public static DFTypeUniverse findCurrent() {
+        return _current.get();
+    }
+
+    // enter: binds the universe to the current thread.
+    //   Returns the previous one, which is restored by exit().
+    public DFTypeUniverse enter() {
+        DFTypeUniverse prev = _current.get();
+        _current.set(this);
+        return prev;
+    }
+
+    public static void exit(DFTypeUniverse prev) {
+        if (prev == null) {
+            _current.remove();
+        } else {
+            _current.set(prev);
+        }
+    }
+
+    // initialize: defines the built-in klasses.
+    //   This must be called after java.lang is loaded.
+    public void initialize()
+        throws IOException, InvalidSyntax {
+        DFTypeUniverse prev = this.enter();
+        try {
+            _builtinTypes = new DFBuiltinTypes(_rootSpace);
+        } finally {
+            exit(prev);
+        }
+    }
+
+    public DFRootTypeSpace getRootSpace() {
+        return _rootSpace;
+    }
+
+    public DFBuiltinTypes getBuiltinTypes() {
+        assert _builtinTypes != null;
+        return _builtinTypes;
+    }
+
+    // getArray: returns the array type of the element type.
+    public DFArrayType getArray(DFType elemType) {
+        String key = elemType.getTypeName();
+        DFArrayType array = _arrays.get(key);
+        if (array == null) {
+            array = _arrays.computeIfAbsent(
+                key, (String k) -> new DFArrayType(elemType));
+        }
+        return array;
+    }
+
+    // splitName: "java.util.Map$Entry" -> ["java", "util", "Map", "Entry"]
+    //   The result is shared and must not be modified.
+    public String[] splitName(String name) {
+        String[] ids = _splitNames.get(name);
+        if (ids == null) {
+            ids = _splitNames.computeIfAbsent(
+                name, (String k) -> splitName0(k));
+        }
+        return ids;
+    }
+
+    private static String[] splitName0(String name) {
+        int n = 1;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.' || c == '$') n++;
+        }
+        String[] ids = new String[n];
+        int k = 0;
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.' || c == '$') {
+                ids[k++] = name.substring(start, i).intern();
+                start = i+1;
+            }
+        }
+        ids[k] = name.substring(start).intern();
+        return ids;
+    }
+
+    public int getLazyChanges() {
+        return _lazyChanges.get();
+    }
+
+    public void addLazyChange() {
+        _lazyChanges.incrementAndGet();
+    }
+
+    public int getBaseChanges() {
+        return _baseChanges.get();
+    }
+
+    public void addBaseChange() {
+        _baseChanges.incrementAndGet();
+    }
+
+    public int getSpaceChanges() {
+        return _spaceChanges.get();
+    }
+
+    public void addSpaceChange() {
+        _spaceChanges.incrementAndGet();
+    }
+
+    public int getMaxReifyDepth() {
+        return _maxReifyDepth;
+    }
+
+    public void setMaxReifyDepth(int depth) {
+        _maxReifyDepth = depth;
+    }
+
+    // getOverriderIndex: returns the overriders fixed after Stage4.
+    //   (null if they are not fixed yet)
+    public DFMethod.OverriderIndex getOverriderIndex() {
+        return _overriderIndex;
+    }
+
+    public void setOverriderIndex(DFMethod.OverriderIndex index) {
+        _overriderIndex = index;
+    }
+
+    public int getMaxCallees() {
+        return _maxCallees;
+    }
+
+    // setMaxCallees: limits the methods linked by a call site.
+    //   (0: no limit)
+    public void setMaxCallees(int n) {
+        _maxCallees = n;
+    }
+
+    public int getLogLevel() {
+        return _logLevel;
+    }
+
+    // setLogLevel: sets the log level of the bound threads.
+    public void setLogLevel(int level) {
+        _logLevel = level;
+    }
+
+    // newThreadPool: creates a pool whose threads are bound.
+    public ExecutorService newThreadPool(int nthreads) {
+        final ThreadFactory factory = Executors.defaultThreadFactory();
+        return Executors.newFixedThreadPool(nthreads, (Runnable r) -> {
+                return factory.newThread(() -> {
+                        this.enter();
+                        r.run();
+                    });
+            });
+    }
+
+    // newForkJoinPool: creates a ForkJoinPool whose threads are bound.
+    public ForkJoinPool newForkJoinPool(int nthreads) {
+        return new ForkJoinPool(nthreads, (ForkJoinPool pool) -> {
+                return new ForkJoinWorkerThread(pool) {
+                    @Override
+                    protected void onStart() {
+                        super.onStart();
+                        enter();
+                    }
+                };
+            }, null, false);
+    }
+}
@@ -35,7 +35,7 @@ public abstract class DFVarScope {
         return ("<DFVarScope("+this.getScopeName()+")>");
     }
 
-    protected void writeInnerXML(XMLStreamWriter writer, DFNode[] nodes)
+    protected void writeInnerXML(ElementWriter writer, DFNode[] nodes)
         throws XMLStreamException {
         for (DFNode node : nodes) {
             if (node.getScope() == this) {
@@ -44,7 +44,7 @@ public abstract class DFVarScope {
         }
     }
 
-    public void writeXML(XMLStreamWriter writer, DFNode[] nodes)
+    public void writeXML(ElementWriter writer, DFNode[] nodes)
         throws XMLStreamException {
         writer.writeStartElement("scope");
         writer.writeAttribute("name", this.getScopeName());
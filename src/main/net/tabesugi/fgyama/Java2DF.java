@@ -5,6 +5,8 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.w3c.dom.*;
 import org.eclipse.jdt.core.*;
 import org.eclipse.jdt.core.dom.*;
@@ -32,6 +34,7 @@ public class Java2DF {
         }
     }
 
+    private DFTypeUniverse _universe;
     private DFRootTypeSpace _rootSpace;
     private DFGlobalScope _globalScope =
         new DFGlobalScope();
@@ -41,25 +44,116 @@ public class Java2DF {
         new HashMap<SourceFile, DFFileScope>();
     private Map<SourceFile, List<DFSourceKlass>> _fileKlasses =
         new HashMap<SourceFile, List<DFSourceKlass>>();
+    private Collection<DFSourceKlass> _usedKlasses = null;
+    // The methods found in Stage4 and the klasses whose refs
+    // are not expanded yet. (See listExpandedMethods)
+    private List<DFSourceMethod> _usedMethods = null;
+    private Set<DFSourceKlass> _unexpanded = null;
+
+    // Files to be released after each klass is analyzed.
+    private boolean _streaming = false;
+    private Map<DFSourceKlass, List<SourceFile>> _releaseAfter = null;
+
+    private Metrics _metrics = null;
+    // The ids of the refs, kept for all the calls of expandRefs.
+    private RefIndex _refIndex = new RefIndex();
 
     /// Top-level functions.
 
     public Java2DF() {
-        _rootSpace = new DFRootTypeSpace();
+        _universe = new DFTypeUniverse();
+        _rootSpace = _universe.getRootSpace();
+    }
+
+    // getUniverse: returns the universe of this analysis.
+    //   A caller that uses the klasses directly must enter() it.
+    public DFTypeUniverse getUniverse() {
+        return _universe;
     }
 
     public void loadDefaults()
         throws IOException, InvalidSyntax {
-        // Initialize base classes.
-        File homeDir = new File(System.getProperty("java.home"));
-        File libDir = new File(homeDir, "lib");
-        File rtFile = new File(libDir, "rt.jar");
-        _rootSpace.loadJarFile(rtFile);
-        DFBuiltinTypes.initialize(_rootSpace);
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // Initialize base classes.
+            Metrics.Stage stage = this.startStage("Load");
+            File homeDir = new File(System.getProperty("java.home"));
+            File libDir = new File(homeDir, "lib");
+            File rtFile = new File(libDir, "rt.jar");
+            if (rtFile.exists()) {
+                _rootSpace.loadJarFile(rtFile);
+            } else {
+                // JDK 9 or later.
+                _rootSpace.loadJrtImage();
+            }
+            _universe.initialize();
+            this.endStage(stage);
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
     }
 
     public void loadJarFile(File file) throws IOException {
-        _rootSpace.loadJarFile(file);
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            Metrics.Stage stage = this.startStage("Load");
+            _rootSpace.loadJarFile(file);
+            this.endStage(stage);
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    // setCacheDir: caches the klass info of .jar files in the directory.
+    //   This must be called before loading any .jar file.
+    public void setCacheDir(File dir) {
+        _rootSpace.setCacheDir(dir);
+    }
+
+    // setMaxReifyDepth: limits the nesting of reified klasses.
+    public void setMaxReifyDepth(int depth) {
+        _universe.setMaxReifyDepth(depth);
+    }
+
+    public int getMaxReifyDepth() {
+        return _universe.getMaxReifyDepth();
+    }
+
+    // setMaxCallees: a call to a method with more overriders than this
+    //   is linked to a shared summary of them. (0: no limit)
+    public void setMaxCallees(int n) {
+        _universe.setMaxCallees(n);
+    }
+
+    public int getMaxCallees() {
+        return _universe.getMaxCallees();
+    }
+
+    // setLogLevel: sets the log level of this analysis.
+    public void setLogLevel(int level) {
+        _universe.setLogLevel(level);
+    }
+
+    // setStreaming: releases the syntax trees of each file
+    //   as soon as no more klass needs it in Stage5.
+    public void setStreaming(boolean streaming) {
+        _streaming = streaming;
+    }
+
+    // setMetrics: measures each stage and method graph.
+    public void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    // setMaxOpenJars: limits the number of .jar (and cache) files kept open.
+    public void setMaxOpenJars(int maxOpen) {
+        _rootSpace.setMaxOpen(maxOpen);
+    }
+
+    // close: closes the .jar (and cache) files kept open.
+    //   They are opened again if another klass is loaded.
+    public void close() {
+        _rootSpace.close();
     }
 
     public void clearSourceFiles() {
@@ -77,43 +171,219 @@ public class Java2DF {
         String key = file.getCanonicalPath();
         if (!_sourceFiles.containsKey(key)) {
             CompilationUnit cunit = Utils.parseFile(file);
-            cunit.setProperty("path", path);
-            SourceFile srcFile = new SourceFile(path, cunit, analyze);
-            _sourceFiles.put(key, srcFile);
+            this.addSourceFile(key, path, cunit, analyze);
         }
     }
 
-    public Collection<DFSourceKlass> getSourceKlasses(boolean expand)
-        throws InvalidSyntax {
+    // addSourceFiles: parses multiple files with multiple threads.
+    //   The files are added in the given order regardless of
+    //   the order they are parsed. At most (nthreads*4) files
+    //   are parsed ahead of the ones being added.
+    public void addSourceFiles(
+        List<String> paths, boolean analyze, int nthreads)
+        throws IOException {
+        Metrics.Stage stage = this.startStage("Parse");
+        try {
+            this.addSourceFiles(paths, analyze, nthreads, stage);
+        } finally {
+            this.endStage(stage);
+        }
+    }
 
-        // Stage1: populate TypeSpaces.
-        for (SourceFile src : _sourceFiles.values()) {
-            Logger.info("Stage1:", src);
-            this.buildTypeSpace(src);
+    private void addSourceFiles(
+        List<String> paths, boolean analyze, int nthreads,
+        Metrics.Stage stage)
+        throws IOException {
+        if (stage != null) {
+            stage.addCount("files", paths.size());
+        }
+        if (nthreads <= 1) {
+            for (String path : paths) {
+                this.addSourceFile(path, analyze);
+            }
+            return;
         }
+        ExecutorService pool = _universe.newThreadPool(nthreads);
+        try {
+            int window = nthreads*4;
+            Set<String> queued = new HashSet<String>();
+            Deque<ParseTask> queue = new ArrayDeque<ParseTask>();
+            for (String path : paths) {
+                String key = new File(path).getCanonicalPath();
+                if (_sourceFiles.containsKey(key)) continue;
+                if (!queued.add(key)) continue;
+                if (window <= queue.size()) {
+                    this.addSourceFile(queue.removeFirst(), analyze);
+                }
+                queue.addLast(new ParseTask(pool, key, path));
+            }
+            while (!queue.isEmpty()) {
+                this.addSourceFile(queue.removeFirst(), analyze);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-        // Stage2: set references to external Klasses.
-        for (SourceFile src : _sourceFiles.values()) {
-            Logger.info("Stage2:", src);
-            this.setTypeFinder(src);
+    private void addSourceFile(ParseTask task, boolean analyze)
+        throws IOException {
+        this.addSourceFile(task.key, task.path, task.getResult(), analyze);
+    }
+
+    private void addSourceFile(
+        String key, String path, CompilationUnit cunit, boolean analyze) {
+        cunit.setProperty("path", path);
+        SourceFile srcFile = new SourceFile(path, cunit, analyze);
+        _sourceFiles.put(key, srcFile);
+    }
+
+    private class ParseTask implements Callable<CompilationUnit> {
+
+        public String key;
+        public String path;
+        private Future<CompilationUnit> _future;
+
+        public ParseTask(ExecutorService pool, String key, String path) {
+            this.key = key;
+            this.path = path;
+            _future = pool.submit(this);
         }
 
-        // Stage3: list class definitions and define parameterized Klasses.
-        Set<DFSourceKlass> klasses = new ConsistentHashSet<DFSourceKlass>();
-        for (SourceFile src : _sourceFiles.values()) {
-            Logger.info("Stage3:", src);
-            this.listUsedKlasses(src, klasses);
+        @Override
+        public CompilationUnit call()
+            throws IOException {
+            if (_metrics == null) {
+                return Utils.parseFile(new File(this.path));
+            }
+            Metrics.Probe probe = new Metrics.Probe();
+            try {
+                return Utils.parseFile(new File(this.path));
+            } finally {
+                probe.stop();
+                _metrics.addWorker(probe);
+            }
         }
 
-        // Stage4: expand classes and method refs.
-        Logger.info("Stage4: expanding "+klasses.size()+" klasses...");
-        List<DFSourceMethod> methods = this.expandKlasses(klasses);
-        if (expand) {
-            Logger.info("Stage4: expanding "+methods.size()+" method refs...");
-            this.expandRefs(methods);
+        public CompilationUnit getResult()
+            throws IOException {
+            try {
+                return _future.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(this.path);
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof IOException) throw (IOException)t;
+                if (t instanceof RuntimeException) throw (RuntimeException)t;
+                if (t instanceof Error) throw (Error)t;
+                throw new RuntimeException(t);
+            }
         }
+    }
 
-        return klasses;
+    public Collection<DFSourceKlass> getSourceKlasses(boolean expand)
+        throws InvalidSyntax {
+        return this.getSourceKlasses(expand, 1);
+    }
+
+    public Collection<DFSourceKlass> getSourceKlasses(
+        boolean expand, int nthreads)
+        throws InvalidSyntax {
+        try {
+            return this.getSourceKlasses(expand, nthreads, null);
+        } catch (IOException e) {
+            // Only the cache can throw this.
+            throw new RuntimeException(e);
+        }
+    }
+
+    // getSourceKlasses: with a cache, the dirty files are found
+    //   before the method refs are expanded, and the refs are
+    //   expanded only for the klasses whose output is not reused.
+    public Collection<DFSourceKlass> getSourceKlasses(
+        boolean expand, int nthreads, AnalysisCache cache)
+        throws InvalidSyntax, IOException {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // Stage1-3: build the type spaces.
+            Collection<DFSourceKlass> klasses = this.buildTypeSpaces();
+
+            // Stage4: expand classes and method refs.
+            Logger.info("Stage4: expanding "+klasses.size()+" klasses...");
+            Metrics.Stage stage = this.startStage("Stage4");
+            List<DFSourceMethod> methods = this.expandKlasses(klasses);
+            if (stage != null) {
+                stage.addCount("klasses", klasses.size());
+                stage.addCount("methods", methods.size());
+            }
+            this.endStage(stage);
+            stage = this.startStage("Stage4.overriders");
+            this.indexOverriders(klasses, nthreads);
+            this.endStage(stage);
+            Set<DFSourceMethod> targets = null;
+            if (cache != null) {
+                // The call graph is complete at this point.
+                this.addDependencies(cache, klasses);
+                cache.findChanges();
+                if (expand) {
+                    targets = this.listExpandedMethods(cache, klasses);
+                }
+            }
+            if (expand) {
+                Logger.info("Stage4: expanding "+methods.size()+" method refs...");
+                stage = this.startStage("Stage4.refs");
+                this.expandRefs(methods, nthreads, targets);
+                if (stage != null && targets != null) {
+                    stage.addCount("targets", targets.size());
+                }
+                this.endStage(stage);
+            }
+
+            _usedKlasses = klasses;
+            _usedMethods = methods;
+            return klasses;
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    // buildTypeSpaces: performs Stage1-3 and returns the klasses used.
+    public Collection<DFSourceKlass> buildTypeSpaces()
+        throws InvalidSyntax {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // Stage1: populate TypeSpaces.
+            Metrics.Stage stage = this.startStage("Stage1");
+            for (SourceFile src : _sourceFiles.values()) {
+                Logger.info("Stage1:", src);
+                this.buildTypeSpace(src);
+            }
+            this.endStage(stage);
+
+            // Stage2: set references to external Klasses.
+            stage = this.startStage("Stage2");
+            for (SourceFile src : _sourceFiles.values()) {
+                Logger.info("Stage2:", src);
+                this.setTypeFinder(src);
+            }
+            this.endStage(stage);
+
+            // Stage3: list class definitions and define parameterized Klasses.
+            stage = this.startStage("Stage3");
+            Set<DFSourceKlass> klasses = new ConsistentHashSet<DFSourceKlass>();
+            for (SourceFile src : _sourceFiles.values()) {
+                Logger.info("Stage3:", src);
+                this.listUsedKlasses(src, klasses);
+            }
+            if (stage != null) {
+                stage.addCount("files", _sourceFiles.size());
+                stage.addCount("klasses", klasses.size());
+            }
+            this.endStage(stage);
+
+            return klasses;
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -206,146 +476,794 @@ public class Java2DF {
         }
     }
 
-    private List<DFSourceMethod> expandKlasses(Collection<DFSourceKlass> klasses)
+    // expandKlasses: defines the klasses used in the methods
+    //   and returns all the methods to be analyzed.
+    public List<DFSourceMethod> expandKlasses(Collection<DFSourceKlass> klasses)
         throws InvalidSyntax {
-        // At this point, all the methods in all the used classes
-        // (public, inner, in-statement and anonymous) are known.
-        List<DFSourceMethod> methods = new ArrayList<DFSourceMethod>();
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // At this point, all the methods in all the used classes
+            // (public, inner, in-statement and anonymous) are known.
+            List<DFSourceMethod> methods = new ArrayList<DFSourceMethod>();
 
-        // List method overrides.
-        for (DFSourceKlass klass : klasses) {
-            klass.overrideMethods();
+            // List method overrides.
+            for (DFSourceKlass klass : klasses) {
+                klass.overrideMethods();
+            }
+
+            // Build call graphs (normal classes).
+            Collection<DFSourceKlass> defined = new ArrayList<DFSourceKlass>();
+            for (DFSourceKlass klass : klasses) {
+                klass.listDefinedKlasses(defined);
+                for (DFMethod method : klass.getMethods()) {
+                    if (method instanceof DFSourceMethod) {
+                        methods.add((DFSourceMethod)method);
+                    }
+                }
+            }
+
+            // Repeat until there is no newly defined klass.
+            while (!defined.isEmpty()) {
+                klasses.addAll(defined);
+                Collection<DFSourceKlass> tmp = new ArrayList<DFSourceKlass>();
+                for (DFSourceKlass klass : defined) {
+                    klass.overrideMethods();
+                }
+                // Build call graphs (lambda and methodref).
+                for (DFSourceKlass klass : defined) {
+                    klass.listDefinedKlasses(tmp);
+                    for (DFMethod method : klass.getMethods()) {
+                        if (method instanceof DFSourceMethod) {
+                            methods.add((DFSourceMethod)method);
+                        }
+                    }
+                }
+                defined = tmp;
+            }
+
+            return methods;
+        } finally {
+            DFTypeUniverse.exit(prev);
         }
+    }
+
+    // indexOverriders: fixes the overriders of every method
+    //   and sets the index to the universe.
+    //   This must be called after expandKlasses(), when all
+    //   the overrides are added. getOverriders() and getOverridings()
+    //   read the index after this.
+    public void indexOverriders(Collection<DFSourceKlass> klasses, int nthreads) {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // Every method overridden by a source klass, directly or not.
+            DFMethod.OverriderIndex index = new DFMethod.OverriderIndex();
+            Set<DFMethod> overridden = new LinkedHashSet<DFMethod>();
+            List<DFMethod> queue = new ArrayList<DFMethod>();
+            for (DFSourceKlass klass : klasses) {
+                for (DFMethod method : klass.getMethods()) {
+                    queue.addAll(method.getOverridings());
+                    index.putOverridings(method);
+                }
+            }
+            while (!queue.isEmpty()) {
+                DFMethod method = queue.remove(queue.size()-1);
+                if (overridden.add(method)) {
+                    queue.addAll(method.getOverridings());
+                    index.putOverridings(method);
+                }
+            }
+            Logger.info("Stage4: indexing "+overridden.size()+" overridden methods...");
 
-        // Build call graphs (normal classes).
-        Collection<DFSourceKlass> defined = new ArrayList<DFSourceKlass>();
+            // The overrides are fixed now, so they are only read.
+            List<DFMethod> methods = new ArrayList<DFMethod>(overridden);
+            List<List<DFMethod>> lists = new ArrayList<List<DFMethod>>();
+            if (nthreads <= 1) {
+                for (DFMethod method : methods) {
+                    lists.add(method.listOverriders());
+                }
+            } else {
+                ExecutorService pool = _universe.newThreadPool(nthreads);
+                try {
+                    List<Callable<List<DFMethod>>> tasks =
+                        new ArrayList<Callable<List<DFMethod>>>();
+                    for (DFMethod method : methods) {
+                        tasks.add(() -> method.listOverriders());
+                    }
+                    for (Future<List<DFMethod>> future : pool.invokeAll(tasks)) {
+                        lists.add(future.get());
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    Throwable t = e.getCause();
+                    if (t instanceof RuntimeException) throw (RuntimeException)t;
+                    if (t instanceof Error) throw (Error)t;
+                    throw new RuntimeException(t);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            for (int i = 0; i < methods.size(); i++) {
+                index.putOverriders(methods.get(i), lists.get(i));
+            }
+            _universe.setOverriderIndex(index);
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    // listExpandedMethods: returns the methods whose refs are used
+    //   in Stage5, i.e. the ones in the klasses that are analyzed
+    //   and cannot be reused from the cache.
+    private Set<DFSourceMethod> listExpandedMethods(
+        AnalysisCache cache, Collection<DFSourceKlass> klasses) {
+        Set<DFSourceMethod> targets = new HashSet<DFSourceMethod>();
+        _unexpanded = new HashSet<DFSourceKlass>();
         for (DFSourceKlass klass : klasses) {
-            klass.listDefinedKlasses(defined);
-            for (DFMethod method : klass.getMethods()) {
+            if (!klass.isAnalyze()) continue;
+            List<DFMethod> methods = this.listAnalyzedMethods(klass);
+            AnalysisCache.KlassEntry entry = cache.getKlassEntry(klass);
+            if (entry != null && methods.size() == entry.ngraphs) {
+                _unexpanded.add(klass);
+                continue;
+            }
+            for (DFMethod method : methods) {
                 if (method instanceof DFSourceMethod) {
-                    methods.add((DFSourceMethod)method);
+                    targets.add((DFSourceMethod)method);
                 }
             }
         }
+        Logger.info("Stage4: "+_unexpanded.size()+" klasses to be reused.");
+        return targets;
+    }
 
-        // Repeat until there is no newly defined klass.
-        while (!defined.isEmpty()) {
-            klasses.addAll(defined);
-            Collection<DFSourceKlass> tmp = new ArrayList<DFSourceKlass>();
-            for (DFSourceKlass klass : defined) {
-                klass.overrideMethods();
+    // expandRefs: expands the refs of a klass that was expected
+    //   to be reused but is analyzed after all.
+    private void expandRefs(DFSourceKlass klass) {
+        if (_unexpanded == null || !_unexpanded.remove(klass)) return;
+        Set<DFSourceMethod> targets = new HashSet<DFSourceMethod>();
+        for (DFMethod method : this.listAnalyzedMethods(klass)) {
+            if (method instanceof DFSourceMethod) {
+                targets.add((DFSourceMethod)method);
             }
-            // Build call graphs (lambda and methodref).
-            for (DFSourceKlass klass : defined) {
-                klass.listDefinedKlasses(tmp);
-                for (DFMethod method : klass.getMethods()) {
-                    if (method instanceof DFSourceMethod) {
-                        methods.add((DFSourceMethod)method);
+        }
+        this.expandRefs(_usedMethods, 1, targets);
+    }
+
+    // expandRefs: propagates the input/output refs of each method
+    //   to its callers.
+    public void expandRefs(Collection<DFSourceMethod> methods) {
+        this.expandRefs(methods, 1);
+    }
+
+    public void expandRefs(Collection<DFSourceMethod> methods, int nthreads) {
+        this.expandRefs(methods, nthreads, null);
+    }
+
+    // expandRefs: with multiple threads, an SCC is processed
+    //   as soon as all its callees are done. The result is
+    //   exactly the same as a serial run.
+    //   With targets, only the refs of the targets are fixed, and only
+    //   the methods that they call (directly or not) are visited.
+    //   (targets can be null)
+    public void expandRefs(
+        Collection<DFSourceMethod> methods, int nthreads,
+        Set<DFSourceMethod> targets) {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            // Expand input/output refs of each method
+            // based on the methods it calls.
+            // Identify SCCs from the call graph:
+            //   SCC.to: caller.
+            //   SCC.from: callee.
+            SCCFinder<DFSourceMethod> f = new SCCFinder<DFSourceMethod>(
+                (DFSourceMethod method) -> {
+                    List<DFSourceMethod> callers = new ArrayList<DFSourceMethod>();
+                    for (DFMethod caller : method.getCallers()) {
+                        if (caller instanceof DFSourceMethod) {
+                            callers.add((DFSourceMethod)caller);
+                        }
+                    }
+                    return callers;
+                });
+            f.add(methods);
+
+            // RefSet: holds input/output variables for each SCC.
+            //   The refs are numbered by the index and kept as bitmaps.
+            //   The refs are listed in the order they are added.
+            final RefIndex index = _refIndex;
+            class RefSet {
+                SCCFinder<DFSourceMethod>.SCC scc;
+                OrderedBitmap inputRefs = new OrderedBitmap();
+                OrderedBitmap outputRefs = new OrderedBitmap();
+                AtomicInteger pending;
+                int order = 0;
+                RefSet(SCCFinder<DFSourceMethod>.SCC scc) {
+                    this.scc = scc;
+                    this.pending = new AtomicInteger(scc.from.size());
+                    for (DFSourceMethod method : scc.items) {
+                        inputRefs.or(method.getInputIds(index));
+                        outputRefs.or(method.getOutputIds(index));
+                    }
+                }
+                void fixate() {
+                    for (DFSourceMethod method : scc.items) {
+                        if (targets == null || targets.contains(method)) {
+                            method.expandRefs(index, this.inputRefs, this.outputRefs);
+                        }
                     }
                 }
+                void expandRefs(RefSet rset) {
+                    inputRefs.or(rset.inputRefs);
+                    outputRefs.or(rset.outputRefs);
+                }
+            };
+
+            // SCCs are topologically sorted from caller -> callee.
+            // With targets, a RefSet is made only for the SCCs that
+            // contain a target or are called by such an SCC.
+            List<RefSet> rsets = new ArrayList<RefSet>();
+            Map<SCCFinder<DFSourceMethod>.SCC, RefSet> scc2rset =
+                new HashMap<SCCFinder<DFSourceMethod>.SCC, RefSet>();
+            Set<SCCFinder<DFSourceMethod>.SCC> needed =
+                new HashSet<SCCFinder<DFSourceMethod>.SCC>();
+            for (SCCFinder<DFSourceMethod>.SCC scc : f.getSCCs()) {
+                if (targets != null && !needed.contains(scc)) {
+                    for (DFSourceMethod method : scc.items) {
+                        if (targets.contains(method)) {
+                            needed.add(scc);
+                            break;
+                        }
+                    }
+                }
+                if (targets == null || needed.contains(scc)) {
+                    needed.addAll(scc.from);
+                    RefSet rset = new RefSet(scc);
+                    rsets.add(rset);
+                    scc2rset.put(scc, rset);
+                }
+            }
+
+            // Reverse the list and start from the bottom callees.
+            //   A RefSet takes the refs of its callees in this order.
+            Collections.reverse(rsets);
+            for (int i = 0; i < rsets.size(); i++) {
+                rsets.get(i).order = i;
+            }
+            if (nthreads <= 1) {
+                for (RefSet r0 : rsets) {
+                    r0.fixate();
+                    for (SCCFinder<DFSourceMethod>.SCC scc : r0.scc.to) {
+                        RefSet r1 = scc2rset.get(scc);
+                        if (r1 != null) {
+                            r1.expandRefs(r0);
+                        }
+                    }
+                }
+                return;
+            }
+
+            // Each RefSet takes the refs from its callees and
+            //   schedules the callers that have no pending callees.
+            //   (Every ref is already numbered, so the index is only read.)
+            ForkJoinPool pool = _universe.newForkJoinPool(nthreads);
+            CountDownLatch done = new CountDownLatch(rsets.size());
+            AtomicReference<Throwable> error =
+                new AtomicReference<Throwable>();
+            class RefTask implements Runnable {
+                RefSet r0;
+                RefTask(RefSet r0) {
+                    this.r0 = r0;
+                }
+                public void run() {
+                    try {
+                        // Take the callees in the same order as a serial run.
+                        List<RefSet> callees = new ArrayList<RefSet>();
+                        for (SCCFinder<DFSourceMethod>.SCC scc : r0.scc.from) {
+                            callees.add(scc2rset.get(scc));
+                        }
+                        callees.sort((a, b) -> Integer.compare(a.order, b.order));
+                        for (RefSet r1 : callees) {
+                            r0.expandRefs(r1);
+                        }
+                        r0.fixate();
+                        for (SCCFinder<DFSourceMethod>.SCC scc : r0.scc.to) {
+                            RefSet r1 = scc2rset.get(scc);
+                            if (r1 == null) continue;
+                            if (r1.pending.decrementAndGet() == 0) {
+                                pool.execute(new RefTask(r1));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        if (error.get() == null) {
+                            done.countDown();
+                        } else {
+                            // Stop waiting for the rest.
+                            while (0 < done.getCount()) {
+                                done.countDown();
+                            }
+                        }
+                    }
+                }
+            };
+            try {
+                // Find the bottom callees before any task runs,
+                // as a running task also schedules the RefSets
+                // whose pending count becomes zero.
+                List<RefSet> roots = new ArrayList<RefSet>();
+                for (RefSet r0 : rsets) {
+                    if (r0.pending.get() == 0) {
+                        roots.add(r0);
+                    }
+                }
+                for (RefSet r0 : roots) {
+                    pool.execute(new RefTask(r0));
+                }
+                done.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdownNow();
             }
-            defined = tmp;
+            Throwable t = error.get();
+            if (t != null) {
+                if (t instanceof RuntimeException) throw (RuntimeException)t;
+                if (t instanceof Error) throw (Error)t;
+                throw new RuntimeException(t);
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
         }
+    }
 
-        return methods;
+    // addDependencies: records the source files and
+    //   the files that each of them depends on.
+    public void addDependencies(
+        AnalysisCache cache, Collection<DFSourceKlass> klasses)
+        throws IOException {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            Map<String, Set<String>> deps = this.getDependencies(klasses);
+            for (SourceFile src : _sourceFiles.values()) {
+                cache.addFile(src.path, deps.get(src.path));
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
     }
 
-    private void expandRefs(Collection<DFSourceMethod> methods) {
-        // Expand input/output refs of each method
-        // based on the methods it calls.
-        // Identify SCCs from the call graph:
-        //   SCC.to: caller.
-        //   SCC.from: callee.
-        SCCFinder<DFSourceMethod> f = new SCCFinder<DFSourceMethod>(
-            (DFSourceMethod method) -> {
-                List<DFSourceMethod> callers = new ArrayList<DFSourceMethod>();
+    // getDependencies: returns the files that each file depends on.
+    //   A file depends on another if it uses, calls or
+    //   overrides a klass in that file.
+    private Map<String, Set<String>> getDependencies(
+        Collection<DFSourceKlass> klasses) {
+        Map<String, Set<String>> deps = new HashMap<String, Set<String>>();
+        for (SourceFile src : _sourceFiles.values()) {
+            deps.put(src.path, new TreeSet<String>());
+        }
+        for (DFSourceKlass klass : klasses) {
+            String path = klass.getFilePath();
+            // Klasses used directly by the klass.
+            UsedKlassProbe probe = new UsedKlassProbe(klass);
+            klass.listUsedKlasses(probe);
+            for (DFSourceKlass used : probe.getUsed()) {
+                addDependency(deps, path, used.getFilePath());
+            }
+            // Callers and overriders of the klass.
+            for (DFMethod method : this.listAnalyzedMethods(klass)) {
                 for (DFMethod caller : method.getCallers()) {
-                    if (caller instanceof DFSourceMethod) {
-                        callers.add((DFSourceMethod)caller);
+                    if (caller.klass() instanceof DFSourceKlass) {
+                        addDependency(
+                            deps, ((DFSourceKlass)caller.klass()).getFilePath(),
+                            path);
                     }
                 }
-                return callers;
-            });
-        f.add(methods);
-
-        // RefSet: holds input/output variables for each SCC.
-        class RefSet {
-            SCCFinder<DFSourceMethod>.SCC scc;
-            Set<DFRef> inputRefs = new ConsistentHashSet<DFRef>();
-            Set<DFRef> outputRefs = new ConsistentHashSet<DFRef>();
-            RefSet(SCCFinder<DFSourceMethod>.SCC scc) {
-                this.scc = scc;
-                for (DFSourceMethod method : scc.items) {
-                    inputRefs.addAll(method.getInputRefs());
-                    outputRefs.addAll(method.getOutputRefs());
+                for (DFMethod overrider : method.getOverriders()) {
+                    if (overrider.klass() instanceof DFSourceKlass) {
+                        addDependency(
+                            deps, ((DFSourceKlass)overrider.klass()).getFilePath(),
+                            path);
+                    }
                 }
             }
-            void fixate() {
-                for (DFSourceMethod method : scc.items) {
-                    method.expandRefs(this.inputRefs, this.outputRefs);
+        }
+        return deps;
+    }
+
+    // planRelease: determines when each file can be released.
+    //   A file is released after the last klass in the analysis
+    //   order that is in the file or directly depends on it.
+    //   The files that no klass depends on are released immediately.
+    private void planRelease(List<DFSourceKlass> klasses) {
+        assert _usedKlasses != null;
+        Map<String, Set<String>> deps = this.getDependencies(_usedKlasses);
+        Map<String, SourceFile> path2src = new HashMap<String, SourceFile>();
+        for (SourceFile src : _sourceFiles.values()) {
+            path2src.put(src.path, src);
+        }
+        _releaseAfter = new HashMap<DFSourceKlass, List<SourceFile>>();
+        // Start from the last klass so that each file is
+        // assigned to the last klass that needs it.
+        Set<String> assigned = new HashSet<String>();
+        for (int i = klasses.size()-1; 0 <= i; i--) {
+            DFSourceKlass klass = klasses.get(i);
+            String path0 = klass.getFilePath();
+            List<String> paths = new ArrayList<String>();
+            paths.add(path0);
+            Set<String> s = deps.get(path0);
+            if (s != null) {
+                paths.addAll(s);
+            }
+            List<SourceFile> files = new ArrayList<SourceFile>();
+            for (String path : paths) {
+                if (!assigned.add(path)) continue;
+                SourceFile src = path2src.get(path);
+                if (src != null) {
+                    files.add(src);
                 }
             }
-            void expandRefs(RefSet rset) {
-                inputRefs.addAll(rset.inputRefs);
-                outputRefs.addAll(rset.outputRefs);
+            if (!files.isEmpty()) {
+                _releaseAfter.put(klass, files);
             }
-        };
+        }
+        for (SourceFile src : path2src.values()) {
+            if (!assigned.contains(src.path)) {
+                this.releaseFile(src);
+            }
+        }
+    }
 
-        // SCCs are topologically sorted from caller -> callee.
-        List<RefSet> rsets = new ArrayList<RefSet>();
-        Map<SCCFinder<DFSourceMethod>.SCC, RefSet> scc2rset =
-            new HashMap<SCCFinder<DFSourceMethod>.SCC, RefSet>();
-        for (SCCFinder<DFSourceMethod>.SCC scc : f.getSCCs()) {
-            RefSet rset = new RefSet(scc);
-            rsets.add(rset);
-            scc2rset.put(scc, rset);
+    // klassDone: releases the files that are no longer needed.
+    private void klassDone(DFSourceKlass klass) {
+        if (_releaseAfter == null) return;
+        List<SourceFile> files = _releaseAfter.remove(klass);
+        if (files == null) return;
+        for (SourceFile src : files) {
+            this.releaseFile(src);
         }
+    }
 
-        // Reverse the list and start from the bottom callees.
-        Collections.reverse(rsets);
-        for (RefSet r0 : rsets) {
-            r0.fixate();
-            for (SCCFinder<DFSourceMethod>.SCC scc : r0.scc.to) {
-                RefSet r1 = scc2rset.get(scc);
-                r1.expandRefs(r0);
+    private void releaseFile(SourceFile src) {
+        Logger.debug("Releasing:", src);
+        List<DFSourceKlass> klasses = _fileKlasses.remove(src);
+        if (klasses != null) {
+            for (DFSourceKlass klass : klasses) {
+                klass.release();
             }
         }
+        _fileScope.remove(src);
+        src.cunit = null;
+    }
+
+    private static void addDependency(
+        Map<String, Set<String>> deps, String path, String dep) {
+        if (path.equals(dep)) return;
+        Set<String> s = deps.get(path);
+        if (s != null) {
+            s.add(dep);
+        }
+    }
+
+    //  UsedKlassProbe
+    //  Lists the klasses that are directly used by a klass.
+    //  It pretends to have every klass except the given one
+    //  so that listUsedKlasses() does not go any further.
+    private static class UsedKlassProbe extends AbstractSet<DFSourceKlass> {
+
+        private DFSourceKlass _klass;
+        private boolean _added = false;
+        private Set<DFSourceKlass> _used = new ConsistentHashSet<DFSourceKlass>();
+
+        public UsedKlassProbe(DFSourceKlass klass) {
+            _klass = klass;
+        }
+
+        public Set<DFSourceKlass> getUsed() {
+            return _used;
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            if (obj == _klass) return _added;
+            if (obj instanceof DFSourceKlass) {
+                _used.add((DFSourceKlass)obj);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean add(DFSourceKlass klass) {
+            if (klass != _klass) return false;
+            _added = true;
+            return true;
+        }
+
+        @Override
+        public Iterator<DFSourceKlass> iterator() {
+            return _used.iterator();
+        }
+
+        @Override
+        public int size() {
+            return _used.size();
+        }
     }
 
     // Stage5: perform the analysis for each method.
     @SuppressWarnings("unchecked")
     public void analyzeKlass(Exporter exporter, DFSourceKlass klass, boolean strict)
         throws InvalidSyntax, EntityNotFound {
+        DFTypeUniverse prev = _universe.enter();
         try {
-            assert klass.isResolved();
-            exporter.startKlass(klass);
-            List<DFMethod> methods = new ArrayList<DFMethod>();
-            DFMethod init = klass.getInitMethod();
-            if (init != null) {
-                methods.add(init);
+            try {
+                assert klass.isResolved();
+                exporter.startKlass(klass);
+                for (DFMethod method : this.listAnalyzedMethods(klass)) {
+                    Logger.info("Stage5:", method.getSignature());
+                    DFGraphTask task = this.createGraphTask(
+                        method, exporter.getNextGraphId());
+                    try {
+                        exporter.writeMethod(task);
+                    } catch (EntityNotFound e) {
+                        if (strict) throw e;
+                    } finally {
+                        this.recordGraph(task);
+                    }
+                }
+            } finally {
+                exporter.endKlass();
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    public void analyzeKlass(Exporter exporter, DFSourceKlass klass)
+        throws InvalidSyntax, EntityNotFound {
+        this.analyzeKlass(exporter, klass, false);
+    }
+
+    private List<DFMethod> listAnalyzedMethods(DFSourceKlass klass) {
+        List<DFMethod> methods = new ArrayList<DFMethod>();
+        DFMethod init = klass.getInitMethod();
+        if (init != null) {
+            methods.add(init);
+        }
+        for (DFMethod method : klass.getMethods()) {
+            methods.add(method);
+            if (method.isGeneric()) {
+                methods.addAll(method.getReifiedMethods());
             }
-            for (DFMethod method : klass.getMethods()) {
-                methods.add(method);
-                if (method.isGeneric()) {
-                    methods.addAll(method.getReifiedMethods());
+        }
+        return methods;
+    }
+
+    // Stage5: perform the analysis with multiple threads.
+    //   The output is exactly the same as the one of a serial run:
+    //   graphs are generated in parallel but written in order, and
+    //   every change to the types is made in the serial order.
+    public void analyzeKlasses(
+        Exporter exporter, List<DFSourceKlass> klasses,
+        boolean strict, int nthreads)
+        throws InvalidSyntax, EntityNotFound {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            if (_streaming) {
+                this.planRelease(klasses);
+            }
+            Metrics.Stage stage = this.startStage("Stage5");
+            ExecutorService pool = null;
+            if (1 < nthreads) {
+                pool = _universe.newThreadPool(nthreads);
+            }
+            try {
+                this.analyzeKlasses(exporter, klasses, strict, pool, nthreads);
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
                 }
+                if (stage != null) {
+                    stage.addCount("klasses", klasses.size());
+                }
+                this.endStage(stage);
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    // Stage5: reuses the output of the previous run where possible.
+    //   The klasses that cannot be reused are analyzed as usual.
+    public void analyzeKlasses(
+        XmlExporter exporter, List<DFSourceKlass> klasses,
+        AnalysisCache cache, boolean strict, int nthreads)
+        throws InvalidSyntax, EntityNotFound {
+        DFTypeUniverse prev = _universe.enter();
+        try {
+            if (_streaming) {
+                this.planRelease(klasses);
+            }
+            Metrics.Stage stage = this.startStage("Stage5");
+            ExecutorService pool = null;
+            if (1 < nthreads) {
+                pool = _universe.newThreadPool(nthreads);
             }
+            exporter.setRecorder(cache);
+            int nreused = 0;
+            try {
+                List<DFSourceKlass> pending = new ArrayList<DFSourceKlass>();
+                for (DFSourceKlass klass : klasses) {
+                    AnalysisCache.KlassEntry entry = cache.getKlassEntry(klass);
+                    if (entry == null) {
+                        pending.add(klass);
+                        continue;
+                    }
+                    // Analyze the preceding klasses first.
+                    this.analyzeKlasses(exporter, pending, strict, pool, nthreads);
+                    pending.clear();
+                    if (this.listAnalyzedMethods(klass).size() != entry.ngraphs) {
+                        // The klass has different methods this time.
+                        this.expandRefs(klass);
+                        this.analyzeKlass1(exporter, klass, strict);
+                        continue;
+                    }
+                    Logger.info("Stage5: reused:", klass);
+                    exporter.writeKlassXML(entry.xml, entry.graphId, entry.ngraphs);
+                    cache.reuseKlass(klass, entry);
+                    this.klassDone(klass);
+                    nreused++;
+                }
+                this.analyzeKlasses(exporter, pending, strict, pool, nthreads);
+                Logger.info("Stage5: reused "+nreused+" klasses.");
+            } finally {
+                exporter.setRecorder(null);
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+                if (stage != null) {
+                    stage.addCount("klasses", klasses.size());
+                    stage.addCount("reused", nreused);
+                }
+                this.endStage(stage);
+            }
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    private void analyzeKlasses(
+        Exporter exporter, List<DFSourceKlass> klasses,
+        boolean strict, ExecutorService pool, int nthreads)
+        throws InvalidSyntax, EntityNotFound {
+        if (pool == null) {
+            for (DFSourceKlass klass : klasses) {
+                this.analyzeKlass1(exporter, klass, strict);
+            }
+            return;
+        }
+        int start = 0;
+        while (start < klasses.size()) {
+            start = this.analyzeKlasses(
+                exporter, klasses, start, strict, pool, nthreads*4);
+        }
+    }
+
+    private void analyzeKlass1(
+        Exporter exporter, DFSourceKlass klass, boolean strict)
+        throws InvalidSyntax, EntityNotFound {
+        try {
+            this.analyzeKlass(exporter, klass, strict);
+            this.klassDone(klass);
+        } catch (EntityNotFound e) {
+            Logger.error("Stage5: EntityNotFound at", klass,
+                         "("+e.name+", method="+e.method+
+                         ", ast="+e.ast+")");
+            throw e;
+        }
+    }
+
+    // Returns the index of the klass to be analyzed next.
+    private int analyzeKlasses(
+        Exporter exporter, List<DFSourceKlass> klasses, int start,
+        boolean strict, ExecutorService pool, int window)
+        throws InvalidSyntax, EntityNotFound {
+        // Plan the tasks for the remaining klasses.
+        int nklasses = klasses.size() - start;
+        List<List<DFMethod>> plan = new ArrayList<List<DFMethod>>();
+        List<DFGraphTask> tasks = new ArrayList<DFGraphTask>();
+        int[] first = new int[nklasses+1];
+        int graphId = exporter.getNextGraphId();
+        for (int k = 0; k < nklasses; k++) {
+            DFSourceKlass klass = klasses.get(start+k);
+            assert klass.isResolved();
+            List<DFMethod> methods = this.listAnalyzedMethods(klass);
+            first[k] = tasks.size();
+            plan.add(methods);
             for (DFMethod method : methods) {
-                Logger.info("Stage5:", method.getSignature());
+                tasks.add(this.createGraphTask(method, graphId++));
+            }
+        }
+        first[nklasses] = tasks.size();
+
+        TaskSequencer seq = new TaskSequencer(pool);
+        try {
+            for (int k = 0; k < nklasses; k++) {
+                DFSourceKlass klass = klasses.get(start+k);
+                // Wait for the preceding tasks so that no one can
+                // change the types while the klass is written.
+                if (0 < first[k]) {
+                    seq.waitFinished(first[k]-1);
+                }
+                List<DFMethod> methods = this.listAnalyzedMethods(klass);
+                if (!methods.equals(plan.get(k))) {
+                    // New methods were reified after the planning:
+                    // analyze this klass alone and start over.
+                    seq.cancel();
+                    seq.waitAll();
+                    this.analyzeKlass1(exporter, klass, strict);
+                    return start+k+1;
+                }
                 try {
-                    exporter.writeMethod(method);
+                    exporter.startKlass(klass);
+                    seq.setGate(first[k+1]);
+                    for (int i = first[k]; i < first[k+1]; i++) {
+                        while (seq.size() < tasks.size() &&
+                               seq.size() < i+window) {
+                            seq.submit(tasks.get(seq.size()));
+                        }
+                        seq.waitFinished(i);
+                        DFGraphTask task = tasks.get(i);
+                        tasks.set(i, null);
+                        Logger.info("Stage5:", task.getMethod().getSignature());
+                        try {
+                            exporter.writeMethod(task);
+                        } catch (EntityNotFound e) {
+                            if (strict) throw e;
+                        } finally {
+                            this.recordGraph(task);
+                        }
+                    }
                 } catch (EntityNotFound e) {
-                    if (strict) throw e;
+                    Logger.error("Stage5: EntityNotFound at", klass,
+                                 "("+e.name+", method="+e.method+
+                                 ", ast="+e.ast+")");
+                    throw e;
+                } finally {
+                    exporter.endKlass();
                 }
+                this.klassDone(klass);
             }
         } finally {
-            exporter.endKlass();
+            seq.cancel();
         }
+        return klasses.size();
     }
 
-    public void analyzeKlass(Exporter exporter, DFSourceKlass klass)
-        throws InvalidSyntax, EntityNotFound {
-        this.analyzeKlass(exporter, klass, false);
+    private DFGraphTask createGraphTask(DFMethod method, int graphId) {
+        DFGraphTask task = new DFGraphTask(method, graphId);
+        if (_metrics != null) {
+            task.measure();
+        }
+        return task;
+    }
+
+    private void recordGraph(DFGraphTask task) {
+        if (_metrics != null) {
+            _metrics.addGraph(task.getRecord());
+        }
+    }
+
+    private Metrics.Stage startStage(String name) {
+        if (_metrics == null) return null;
+        return _metrics.startStage(name);
+    }
+
+    private void endStage(Metrics.Stage stage) {
+        if (stage != null) {
+            _metrics.endStage(stage);
+        }
     }
 
     /**
@@ -364,7 +1282,23 @@ public class Java2DF {
         boolean strict = false;
         boolean reformat = false;
         boolean expand = false;
-        Logger.LogLevel = 0;
+        boolean binary = false;
+        int maxDepth = DFTypeUniverse.DEFAULT_MAX_REIFY_DEPTH;
+        int maxCallees = 0;
+        int nthreads = 1;
+        File cacheDir = null;
+        File incDir = null;
+        boolean streaming = false;
+        String metricsPath = null;
+        String dbPath = null;
+        int maxOpenJars = JarFileCache.DEFAULT_MAX_OPEN;
+        int logLevel = 0;
+
+        // The log level belongs to the universe of the converter,
+        // so this thread is bound to it from the beginning.
+        Java2DF converter = new Java2DF();
+        converter.setLogLevel(logLevel);
+        DFTypeUniverse prev = converter.getUniverse().enter();
 
         for (int i = 0; i < args.length; i++) {
             String arg = args[i];
@@ -373,13 +1307,17 @@ public class Java2DF {
                     files.add(args[++i]);
                 }
             } else if (arg.equals("-v")) {
-                Logger.LogLevel++;
+                converter.setLogLevel(++logLevel);
             } else if (arg.equals("-S")) {
                 strict = true;
             } else if (arg.equals("-F")) {
                 reformat = true;
             } else if (arg.equals("-E")) {
                 expand = true;
+            } else if (arg.equals("-R")) {
+                streaming = true;
+            } else if (arg.equals("-B")) {
+                binary = true;
             } else if (arg.startsWith("-i")) {
                 String path = ((arg.length() == 2)? args[++i] : arg.substring(2));
                 InputStream input = System.in;
@@ -413,92 +1351,178 @@ public class Java2DF {
                 }
             } else if (arg.startsWith("-D")) {
                 String v = ((arg.length() == 2)? args[++i] : arg.substring(2));
-                DFKlass.MaxReifyDepth = Integer.parseInt(v);
+                maxDepth = Integer.parseInt(v);
+            } else if (arg.startsWith("-P")) {
+                String v = ((arg.length() == 2)? args[++i] : arg.substring(2));
+                maxCallees = Integer.parseInt(v);
+            } else if (arg.startsWith("-J")) {
+                String v = ((arg.length() == 2)? args[++i] : arg.substring(2));
+                maxOpenJars = Integer.parseInt(v);
+            } else if (arg.startsWith("-K")) {
+                String path = ((arg.length() == 2)? args[++i] : arg.substring(2));
+                cacheDir = new File(path);
+            } else if (arg.startsWith("-M")) {
+                metricsPath = ((arg.length() == 2)? args[++i] : arg.substring(2));
+            } else if (arg.startsWith("-Q")) {
+                dbPath = ((arg.length() == 2)? args[++i] : arg.substring(2));
+            } else if (arg.startsWith("-I")) {
+                String path = ((arg.length() == 2)? args[++i] : arg.substring(2));
+                incDir = new File(path);
+            } else if (arg.startsWith("-j")) {
+                String v = ((arg.length() == 2)? args[++i] : arg.substring(2));
+                nthreads = Integer.parseInt(v);
             } else if (arg.startsWith("-")) {
                 System.err.println("Unknown option: "+arg);
                 System.err.println(
-                    "usage: Java2DF [-v] [-S] [-F] [-E] [-i input] [-o output]" +
-                    " [-C classpath] [-D depth] [path ...]");
+                    "usage: Java2DF [-v] [-S] [-F] [-E] [-R] [-B] [-i input] [-o output]" +
+                    " [-C classpath] [-K cachedir] [-J maxjars] [-I incdir] [-D depth]" +
+                    " [-P callees] [-M metrics] [-Q graph.db] [-j threads]" +
+                    " [path ...]");
                 System.exit(1);
                 return;
             } else {
                 files.add(arg);
             }
         }
+        if (binary && (reformat || incDir != null)) {
+            System.err.println("-B cannot be used with -F or -I.");
+            System.exit(1);
+            return;
+        }
+        if (dbPath != null && (binary || reformat || incDir != null)) {
+            System.err.println("-Q cannot be used with -B, -F or -I.");
+            System.exit(1);
+            return;
+        }
 
-        Java2DF converter = new Java2DF();
-        converter.loadDefaults();
-
-        // Add the target souce files first.
-        for (String path : files) {
-            for (File file : Utils.enumerateFiles(path)) {
-                String name = file.getPath();
-                if (name.endsWith(".java")) {
-                    Logger.info("Parsing:", name);
+        try {
+            converter.setCacheDir(cacheDir);
+            converter.setMaxOpenJars(maxOpenJars);
+            converter.setMaxReifyDepth(maxDepth);
+            converter.setMaxCallees(maxCallees);
+            converter.setStreaming(streaming);
+            Metrics metrics = null;
+            if (metricsPath != null) {
+                metrics = new Metrics();
+                converter.setMetrics(metrics);
+            }
+            converter.loadDefaults();
+
+            // Add the target souce files first.
+            for (String path : files) {
+                List<String> names = new ArrayList<String>();
+                for (File file : Utils.enumerateFiles(path)) {
+                    String name = file.getPath();
+                    if (name.endsWith(".java")) {
+                        Logger.info("Parsing:", name);
+                        names.add(name);
+                    }
+                }
+                try {
+                    converter.addSourceFiles(names, true, nthreads);
+                } catch (IOException e) {
+                    Logger.error("Parsing: IOException at "+path);
+                    throw e;
+                }
+            }
+
+            // Add the source files from the classpath.
+            // (ones which are already added are skipped.)
+            for (String path : classpath) {
+                if (path.endsWith(".jar")) {
+                    converter.loadJarFile(new File(path));
+                } else {
+                    List<String> names = new ArrayList<String>();
+                    for (File file : Utils.enumerateFiles(path)) {
+                        String name = file.getPath();
+                        if (name.endsWith(".java")) {
+                            names.add(name);
+                        }
+                    }
                     try {
-                        converter.addSourceFile(name, true);
+                        converter.addSourceFiles(names, false, nthreads);
                     } catch (IOException e) {
                         Logger.error("Parsing: IOException at "+path);
                         throw e;
                     }
                 }
             }
-        }
 
-        // Add the source files from the classpath.
-        // (ones which are already added are skipped.)
-        for (String path : classpath) {
-            if (path.endsWith(".jar")) {
-                converter.loadJarFile(new File(path));
-            } else {
-                for (File file : Utils.enumerateFiles(path)) {
-                    String name = file.getPath();
-                    if (name.endsWith(".java")) {
-                        try {
-                            converter.addSourceFile(name, false);
-                        } catch (IOException e) {
-                            Logger.error("Parsing: IOException at "+path);
-                            throw e;
-                        }
+            AnalysisCache cache = null;
+            if (incDir != null) {
+                // Incremental mode: the result depends on these too.
+                StringBuilder sig = new StringBuilder();
+                sig.append("java="+System.getProperty("java.version"));
+                sig.append(",expand="+expand);
+                sig.append(",depth="+converter.getMaxReifyDepth());
+                sig.append(",callees="+converter.getMaxCallees());
+                for (String path : classpath) {
+                    if (path.endsWith(".jar")) {
+                        File file = new File(path);
+                        sig.append(","+path+":"+file.length()+":"+file.lastModified());
                     }
                 }
+                cache = new AnalysisCache(incDir, sig.toString());
             }
-        }
+            Collection<DFSourceKlass> klasses =
+                converter.getSourceKlasses(expand, nthreads, cache);
 
-        Collection<DFSourceKlass> klasses = converter.getSourceKlasses(expand);
+            ByteArrayOutputStream temp = null;
+            if (reformat) {
+                temp = new ByteArrayOutputStream();
+            }
 
-        ByteArrayOutputStream temp = null;
-        if (reformat) {
-            temp = new ByteArrayOutputStream();
-        }
+            List<DFSourceKlass> analyzed = new ArrayList<DFSourceKlass>();
+            for (DFSourceKlass klass : klasses) {
+                if (klass.isAnalyze()) {
+                    analyzed.add(klass);
+                }
+            }
+            Exporter exporter;
+            if (binary) {
+                exporter = new BinaryExporter(output);
+            } else if (dbPath != null) {
+                try {
+                    exporter = new SqliteExporter(new File(dbPath));
+                    Logger.info("Exporting:", dbPath);
+                } catch (java.sql.SQLException e) {
+                    System.err.println("Cannot open database: "+dbPath);
+                    System.exit(1);
+                    return;
+                }
+            } else {
+                exporter = new XmlExporter((temp != null)? temp : output);
+            }
+            if (cache != null) {
+                converter.analyzeKlasses(
+                    (XmlExporter)exporter, analyzed, cache, strict, nthreads);
+                cache.save();
+            } else {
+                converter.analyzeKlasses(exporter, analyzed, strict, nthreads);
+            }
+            exporter.close();
 
-        XmlExporter exporter = new XmlExporter((temp != null)? temp : output);
-        for (DFSourceKlass klass : klasses) {
-            if (!klass.isAnalyze()) continue;
-            try {
-                converter.analyzeKlass(exporter, klass, strict);
-            } catch (EntityNotFound e) {
-                Logger.error("Stage5: EntityNotFound at", klass,
-                             "("+e.name+", method="+e.method+
-                             ", ast="+e.ast+")");
-                throw e;
+            if (temp != null) {
+                temp.close();
+                try {
+                    InputStream in = new ByteArrayInputStream(temp.toByteArray());
+                    Document document = Utils.readXml(in);
+                    in.close();
+                    document.setXmlStandalone(true);
+                    Utils.printXml(output, document);
+                } catch (Exception e) {
+                }
             }
-        }
-        exporter.close();
 
-        if (temp != null) {
-            temp.close();
-            try {
-                InputStream in = new ByteArrayInputStream(temp.toByteArray());
-                Document document = Utils.readXml(in);
-                in.close();
-                document.setXmlStandalone(true);
-                Utils.printXml(output, document);
-            } catch (Exception e) {
+            output.close();
+
+            if (metrics != null) {
+                metrics.save(new File(metricsPath));
             }
+        } finally {
+            converter.close();
+            DFTypeUniverse.exit(prev);
         }
-
-        output.close();
     }
 }
 
@@ -534,20 +1558,23 @@ class DFFileScope extends DFVarScope {
         String id = name.getIdentifier();
         int bestDist = -1;
         DFMethod bestMethod = null;
+        Map<DFMapKlass, DFKlass> typeMap = null;
         for (DFMethod method1 : _methods) {
             if (!id.equals(method1.getName())) continue;
-            Map<DFMapKlass, DFKlass> typeMap = new HashMap<DFMapKlass, DFKlass>();
-            try {
-                int dist = method1.canAccept(argTypes, returnType, typeMap);
-                if (bestDist < 0 || dist < bestDist) {
-                    DFMethod method = method1.getReifiedMethod(typeMap);
-                    if (method != null) {
-                        bestDist = dist;
-                        bestMethod = method;
-                    }
+            // The map is reused for every candidate.
+            if (typeMap == null) {
+                typeMap = new HashMap<DFMapKlass, DFKlass>();
+            } else {
+                typeMap.clear();
+            }
+            int dist = method1.getAcceptDistance(argTypes, returnType, typeMap);
+            if (dist == DFType.NOT_CONVERTIBLE) continue;
+            if (bestDist < 0 || dist < bestDist) {
+                DFMethod method = method1.getReifiedMethod(typeMap);
+                if (method != null) {
+                    bestDist = dist;
+                    bestMethod = method;
                 }
-            } catch (TypeIncompatible e) {
-                continue;
             }
         }
         if (bestMethod == null) throw new MethodNotFound(name, argTypes, returnType);
@@ -6,6 +6,8 @@ import org.eclipse.jdt.core.dom.*;
 
 
 //  EntityNotFound
+//  Thrown (and caught) often during the name resolution,
+//  so no stack trace is recorded.
 //
 public class EntityNotFound extends Exception {
 
@@ -16,6 +18,7 @@ public class EntityNotFound extends Exception {
     public DFMethod method = null;
 
     public EntityNotFound(String name) {
+        super(name, null, false, false);
         this.name = name;
     }
 
@@ -4,6 +4,7 @@ package net.tabesugi.fgyama;
 
 
 //  TypeIncompatible
+//  No stack trace is recorded. (See EntityNotFound)
 //
 public class TypeIncompatible extends Exception {
 
@@ -13,6 +14,7 @@ public class TypeIncompatible extends Exception {
     public DFType type2;
 
     public TypeIncompatible(DFType type1, DFType type2) {
+        super(null, null, false, false);
         this.type1 = type1;
         this.type2 = type2;
     }
@@ -11,18 +11,12 @@ import org.eclipse.jdt.core.dom.*;
 //
 public class DFArrayType extends DFKlass {
 
-    private static Map<String, DFArrayType> _types =
-        new HashMap<String, DFArrayType>();
-
+    // getArray: returns the array type of the current universe.
     public static DFArrayType getArray(DFType elemType, int ndims) {
+        DFTypeUniverse universe = DFTypeUniverse.getCurrent();
         DFArrayType array = null;
         for (int i = 0; i < ndims; i++) {
-            String key = elemType.getTypeName();
-            array = _types.get(key);
-            if (array == null) {
-                array = new DFArrayType(elemType);
-                _types.put(key, array);
-            }
+            array = universe.getArray(elemType);
             elemType = array;
         }
         return array;
@@ -31,8 +25,8 @@ public class DFArrayType extends DFKlass {
     private DFType _elemType;
     private FieldRef _lengthFld;
 
-    // DFArrayType
-    private DFArrayType(DFType elemType) {
+    // DFArrayType: created by DFTypeUniverse.
+    DFArrayType(DFType elemType) {
         super(elemType.getTypeName(), null, null, null);
         _elemType = elemType;
         _lengthFld = new FieldRef(DFBasicType.INT, "length", false);
@@ -89,12 +83,11 @@ public class DFArrayType extends DFKlass {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
         if (type instanceof DFNullType) return 0;
-        if (!(type instanceof DFArrayType)) throw new TypeIncompatible(this, type);
+        if (!(type instanceof DFArrayType)) return NOT_CONVERTIBLE;
         DFArrayType atype = (DFArrayType)type;
-        return _elemType.canConvertFrom(atype._elemType, typeMap);
+        return _elemType.getConvertDistance(atype._elemType, typeMap);
     }
 
     public DFType getElemType() {
@@ -76,14 +76,13 @@ public class DFBasicType implements DFType {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
         // Auto-unboxing.
         if (this == type) return 0;
         if (this.toKlass() == type) return 0;
-        if (!(type instanceof DFBasicType)) throw new TypeIncompatible(this, type);
+        if (!(type instanceof DFBasicType)) return NOT_CONVERTIBLE;
         int rank = ((DFBasicType)type)._rank;
-        if (this._rank == 0 || rank == 0) throw new TypeIncompatible(this, type);
+        if (this._rank == 0 || rank == 0) return NOT_CONVERTIBLE;
         return (this._rank - rank);
     }
 
@@ -69,34 +69,45 @@ public class DFFuncType implements DFType {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
-        if (!(type instanceof DFFuncType)) throw new TypeIncompatible(this, type);
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
+        if (!(type instanceof DFFuncType)) return NOT_CONVERTIBLE;
         DFFuncType mtype = (DFFuncType)type;
-        return this.canAccept(mtype._argTypes, mtype._returnType, typeMap);
+        return this.getAcceptDistance(mtype._argTypes, mtype._returnType, typeMap);
     }
 
     public int canAccept(
         DFType[] argTypes, DFType returnType, Map<DFMapKlass, DFKlass> typeMap)
         throws TypeIncompatible {
+        int dist = this.getAcceptDistance(argTypes, returnType, typeMap);
+        if (dist == NOT_CONVERTIBLE) throw new TypeIncompatible(this, null);
+        return dist;
+    }
+
+    // getAcceptDistance: returns NOT_CONVERTIBLE if not acceptable.
+    public int getAcceptDistance(
+        DFType[] argTypes, DFType returnType, Map<DFMapKlass, DFKlass> typeMap) {
         // Always accept if the signature is unknown.
         if (_argTypes == null || argTypes == null) return 0;
         if (_varargs) {
             // For varargs methods, the minimum number of arguments is required.
-            if (argTypes.length < _argTypes.length-1) throw new TypeIncompatible(this, null);
+            if (argTypes.length < _argTypes.length-1) return NOT_CONVERTIBLE;
         } else {
             // For fixed-args methods, the exact number of arguments is required.
-            if (argTypes.length != _argTypes.length) throw new TypeIncompatible(this, null);
+            if (argTypes.length != _argTypes.length) return NOT_CONVERTIBLE;
         }
         int dist = 0;
         if (_returnType != null && returnType != null) {
-            dist += _returnType.canConvertFrom(returnType, typeMap);
+            int d = _returnType.getConvertDistance(returnType, typeMap);
+            if (d == NOT_CONVERTIBLE) return NOT_CONVERTIBLE;
+            dist += d;
         }
         for (int i = 0; i < argTypes.length; i++) {
             DFType typePassed = argTypes[i];
             DFType typeRecv = this.getArgType(i);
             if (typeRecv == null || typePassed == null) continue;
-            dist += typeRecv.canConvertFrom(typePassed, typeMap);
+            int d = typeRecv.getConvertDistance(typePassed, typeMap);
+            if (d == NOT_CONVERTIBLE) return NOT_CONVERTIBLE;
+            dist += d;
         }
         return dist;
     }
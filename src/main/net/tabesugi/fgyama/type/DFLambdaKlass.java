@@ -3,6 +3,7 @@
 package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.xml.stream.*;
 import org.eclipse.jdt.core.*;
 import org.eclipse.jdt.core.dom.*;
@@ -152,8 +153,9 @@ class DFLambdaKlass extends DFSourceKlass {
 
     private class LambdaScope extends DFVarScope {
 
+        // Read without waiting for the turn, so it must be concurrent.
         private Map<String, CapturedRef> _id2captured =
-            new HashMap<String, CapturedRef>();
+            new ConcurrentHashMap<String, CapturedRef>();
 
         public LambdaScope(DFVarScope outer, String id) {
             super(outer, id);
@@ -164,9 +166,14 @@ class DFLambdaKlass extends DFSourceKlass {
             throws VariableNotFound {
             DFRef ref = _id2captured.get(id);
             if (ref != null) return ref;
+            // Captured refs must be added in the same order as a serial run.
+            TaskSequencer.awaitTurn();
+            ref = _id2captured.get(id);
+            if (ref != null) return ref;
             ref = super.lookupVar(id);
             if (ref != null) {
                 // replace ref with a captured variable.
+                DFKlass.addLazyChange();
                 CapturedRef captured = new CapturedRef(ref, id);
                 DFLambdaKlass.this.addCapturedRef(captured);
                 _id2captured.put(id, captured);
@@ -209,7 +216,7 @@ class DFLambdaKlass extends DFSourceKlass {
     private FunctionalMethod _funcMethod = null;
 
     private List<CapturedRef> _captured =
-        new ArrayList<CapturedRef>();
+        new CopyOnWriteArrayList<CapturedRef>();
 
     public DFLambdaKlass(
         LambdaExpression lambda,
@@ -227,6 +234,16 @@ class DFLambdaKlass extends DFSourceKlass {
         return _lambda;
     }
 
+    @Override
+    public boolean release() {
+        if (!super.release()) return false;
+        if (_funcMethod != null) {
+            _funcMethod.release();
+        }
+        _lambda = null;
+        return true;
+    }
+
     @Override
     public String toString() {
         return ("<DFLambdaKlass("+this.getTypeName()+")>");
@@ -288,8 +305,7 @@ class DFLambdaKlass extends DFSourceKlass {
         }
     }
 
-    public int canConvertTo(DFKlass klass)
-        throws TypeIncompatible {
+    public int getConvertDistanceTo(DFKlass klass) {
         DFMethod method = klass.getFuncMethod();
         if (method != null) {
             DFFuncType funcType = method.getFuncType();
@@ -299,11 +315,12 @@ class DFLambdaKlass extends DFSourceKlass {
                 if (nrecv == nsend) return 0;
             }
         }
-        throw new TypeIncompatible(klass, this);
+        return NOT_CONVERTIBLE;
     }
 
     public void setBaseKlass(DFKlass baseKlass) {
         this.load();
+        addBaseChange();
         assert _baseKlass == null;
         assert _funcMethod != null;
         assert _funcMethod.getFuncType() == null;
@@ -16,6 +16,7 @@ public class DFMapKlass extends DFKlass {
 
     private DFTypeFinder _finder = null;
     private DFKlass _baseKlass = null;
+    private LoadState _loadState = new LoadState();
 
     private DFMapKlass(
         String name, DFTypeSpace outerSpace, DFKlass outerKlass) {
@@ -77,6 +78,19 @@ public class DFMapKlass extends DFKlass {
         return _baseKlass.getMethods();
     }
 
+    @Override
+    protected List<DFMethod> getMethodsByName(String id) {
+        this.load();
+        return _baseKlass.getMethodsByName(id);
+    }
+
+    @Override
+    protected int getMethodVersion() {
+        // The methods are borrowed from the base klass.
+        this.load();
+        return super.getMethodVersion() + _baseKlass.getMethodVersion();
+    }
+
     @Override
     public DFMethod createFallbackMethod(
         DFMethod.CallStyle callStyle, String id,
@@ -93,13 +107,12 @@ public class DFMapKlass extends DFKlass {
     }
 
     @Override
-    public DFKlass getKlass(String id) {
+    protected DFKlass findKlass(String id, Stamp stamp) {
         return null;
     }
 
     @Override
-    public int canConvertFrom(DFKlass klass, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFKlass klass, Map<DFMapKlass, DFKlass> typeMap) {
         if (this == klass) return 0;
         this.load();
         if (typeMap == null) {
@@ -108,10 +121,8 @@ public class DFMapKlass extends DFKlass {
         DFKlass mappedKlass = typeMap.get(this);
         if (mappedKlass == null) {
             typeMap.put(this, klass);
-            int dist;
-            try {
-                dist = _baseKlass.canConvertFrom(klass, typeMap);
-            } catch (TypeIncompatible e) {
+            int dist = _baseKlass.getConvertDistance(klass, typeMap);
+            if (dist == NOT_CONVERTIBLE) {
                 // It is possible to ignore the type restriction.
                 // This will eventually cause ClassCastException, but
                 // not entirely illegal. It is considered unlikely here.
@@ -119,8 +130,8 @@ public class DFMapKlass extends DFKlass {
             }
             return dist;
         } else {
-            // Eventually, mappedKlass == klass or TypeIncompatible.
-            return mappedKlass.canConvertFrom(klass, typeMap);
+            // Eventually, mappedKlass == klass or NOT_CONVERTIBLE.
+            return mappedKlass.getConvertDistance(klass, typeMap);
         }
     }
 
@@ -130,6 +141,21 @@ public class DFMapKlass extends DFKlass {
         return null;
     }
 
+    // release: detaches the type bounds from the syntax tree
+    //   so that the tree can be freed.
+    protected void release() {
+        if (_loadState.isLoaded()) {
+            _types = null;
+        } else if (_types != null) {
+            AST ast = AST.newAST(AST.JLS_Latest, false);
+            List<Type> types = new ArrayList<Type>();
+            for (Type type : _types) {
+                types.add((Type)ASTNode.copySubtree(ast, type));
+            }
+            _types = types;
+        }
+    }
+
     protected void setFinder(DFTypeFinder finder) {
         assert _finder == null;
         _finder = finder;
@@ -137,7 +163,20 @@ public class DFMapKlass extends DFKlass {
 
     protected void load() {
         assert _sig == null || _types == null;
-        if (_baseKlass != null) return;
+        if (_loadState.isLoaded()) return;
+        // Klasses must be loaded in the same order as a serial run.
+        TaskSequencer.awaitTurn();
+        // A recursion within the same build returns here.
+        if (!_loadState.begin()) return;
+        try {
+            this.build();
+        } finally {
+            _loadState.end();
+        }
+        addBaseChange();
+    }
+
+    private void build() {
         _baseKlass = DFBuiltinTypes.getObjectKlass();
         if (_sig != null) {
             JNITypeParser parser = new JNITypeParser(_sig);
@@ -197,6 +197,16 @@ class DFMethodRefKlass extends DFSourceKlass {
         return _methodRef;
     }
 
+    @Override
+    public boolean release() {
+        if (!super.release()) return false;
+        if (_funcMethod != null) {
+            _funcMethod.release();
+        }
+        _methodRef = null;
+        return true;
+    }
+
     @Override
     public String toString() {
         return ("<DFMethodRefKlass("+this.getTypeName()+")>");
@@ -248,17 +258,17 @@ class DFMethodRefKlass extends DFSourceKlass {
         _funcMethod = new FunctionalMethod("#f", this.getKlassScope(), finder);
     }
 
-    public int canConvertTo(DFKlass klass)
-        throws TypeIncompatible {
+    public int getConvertDistanceTo(DFKlass klass) {
         DFMethod method = klass.getFuncMethod();
         if (method == null) {
-            throw new TypeIncompatible(klass, this);
+            return NOT_CONVERTIBLE;
         }
         return 0;
     }
 
     public void setBaseKlass(DFKlass baseKlass) {
         this.load();
+        addBaseChange();
         if (baseKlass instanceof DFMethodRefKlass) {
             // XXX Edge case when the outer function is a generic method
             // which is reified with this methodref itself.
@@ -33,10 +33,9 @@ public class DFNullType implements DFType {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
         if (type instanceof DFNullType) return 0;
-        throw new TypeIncompatible(this, type);
+        return NOT_CONVERTIBLE;
     }
 
     public static final DFType NULL =
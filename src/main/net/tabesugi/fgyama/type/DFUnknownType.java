@@ -32,9 +32,8 @@ public class DFUnknownType implements DFType {
     }
 
     @Override
-    public int canConvertFrom(DFType type, Map<DFMapKlass, DFKlass> typeMap)
-        throws TypeIncompatible {
-        throw new TypeIncompatible(this, type);
+    public int getConvertDistance(DFType type, Map<DFMapKlass, DFKlass> typeMap) {
+        return NOT_CONVERTIBLE;
     }
 
     public static final DFType UNKNOWN =
@@ -0,0 +1,297 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+
+
+//  AnalysisCache
+//  Keeps the result of the previous run for incremental analysis.
+//
+//  For each source file, the cache has the hash of its content,
+//  the files it depends on and the XML of its klasses.
+//  A file is dirty when it has changed or when it depends on
+//  a dirty file. The files that a dirty file depends on keep
+//  their output, as their hashes already cover their content.
+//  The XML of a klass is reused only if its file is not dirty.
+//
+//  Usage:
+//    1. new AnalysisCache(dir, signature)
+//    2. addFile(path, deps) for each source file
+//    3. findChanges()
+//    4. getKlassEntry(klass) / reuseKlass(klass, entry) (use as a Recorder)
+//    5. save()
+//
+public class AnalysisCache implements XmlExporter.Recorder {
+
+    private static final int MAGIC = 0x4a414331; // "JAC1"
+    private static final String FILENAME = "analysis.cache";
+
+    //  KlassEntry
+    //  The XML of a klass and the range of its graph ids.
+    public static class KlassEntry {
+
+        public String name;
+        public int graphId;
+        public int ngraphs;
+        public boolean unstable;  // true if it changed other klasses.
+        public byte[] xml;
+
+        public KlassEntry(
+            String name, int graphId, int ngraphs,
+            boolean unstable, byte[] xml) {
+            this.name = name;
+            this.graphId = graphId;
+            this.ngraphs = ngraphs;
+            this.unstable = unstable;
+            this.xml = xml;
+        }
+
+        public KlassEntry(DataInput in)
+            throws IOException {
+            this.name = in.readUTF();
+            this.graphId = in.readInt();
+            this.ngraphs = in.readInt();
+            this.unstable = in.readBoolean();
+            this.xml = new byte[in.readInt()];
+            in.readFully(this.xml);
+        }
+
+        public void write(DataOutput out)
+            throws IOException {
+            out.writeUTF(this.name);
+            out.writeInt(this.graphId);
+            out.writeInt(this.ngraphs);
+            out.writeBoolean(this.unstable);
+            out.writeInt(this.xml.length);
+            out.write(this.xml);
+        }
+    }
+
+    private static class FileEntry {
+
+        public String hash;
+        public List<String> deps = new ArrayList<String>();
+        public Map<String, KlassEntry> klasses =
+            new ConsistentHashMap<String, KlassEntry>();
+
+        public FileEntry(String hash, Collection<String> deps) {
+            this.hash = hash;
+            this.deps.addAll(deps);
+        }
+
+        public FileEntry(DataInput in)
+            throws IOException {
+            this.hash = in.readUTF();
+            int ndeps = in.readInt();
+            for (int i = 0; i < ndeps; i++) {
+                this.deps.add(in.readUTF());
+            }
+            int nklasses = in.readInt();
+            for (int i = 0; i < nklasses; i++) {
+                KlassEntry entry = new KlassEntry(in);
+                this.klasses.put(entry.name, entry);
+            }
+        }
+
+        public void write(DataOutput out)
+            throws IOException {
+            out.writeUTF(this.hash);
+            out.writeInt(this.deps.size());
+            for (String dep : this.deps) {
+                out.writeUTF(dep);
+            }
+            out.writeInt(this.klasses.size());
+            for (KlassEntry entry : this.klasses.values()) {
+                entry.write(out);
+            }
+        }
+    }
+
+    private File _dir;
+    private String _signature;
+    private Map<String, FileEntry> _oldFiles =
+        new HashMap<String, FileEntry>();
+    private ConsistentHashMap<String, FileEntry> _newFiles =
+        new ConsistentHashMap<String, FileEntry>();
+    private Set<String> _dirty = null;
+
+    // The klass being recorded.
+    private int _graphId;
+    private int _lazyChanges;
+
+    public AnalysisCache(File dir, String signature) {
+        _dir = dir;
+        _signature = signature;
+        File path = new File(_dir, FILENAME);
+        if (path.isFile()) {
+            try {
+                this.load(path);
+            } catch (IOException e) {
+                Logger.error("AnalysisCache: broken cache:", path);
+                _oldFiles.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("<AnalysisCache("+_dir+")>");
+    }
+
+    private void load(File path)
+        throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(path)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("invalid cache: "+path);
+            }
+            if (!in.readUTF().equals(_signature)) {
+                // Options have changed: nothing can be reused.
+                Logger.info("AnalysisCache: options changed:", path);
+                return;
+            }
+            int nfiles = in.readInt();
+            for (int i = 0; i < nfiles; i++) {
+                String key = in.readUTF();
+                _oldFiles.put(key, new FileEntry(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // addFile: records the current content of a source file and
+    //   the files it depends on.
+    public void addFile(String path, Collection<String> deps)
+        throws IOException {
+        assert _dirty == null;
+        String hash = Utils.getSHA1(new File(path));
+        _newFiles.put(path, new FileEntry(hash, deps));
+    }
+
+    // findChanges: determines the dirty files.
+    //   Returns the number of the dirty files.
+    public int findChanges() {
+        // Both the old and new dependencies are taken into account.
+        Map<String, Set<String>> users = new HashMap<String, Set<String>>();
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, FileEntry> e : _oldFiles.entrySet()) {
+            addUsers(users, e.getKey(), e.getValue().deps);
+            if (!_newFiles.containsKey(e.getKey())) {
+                changed.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, FileEntry> e : _newFiles.entrySet()) {
+            addUsers(users, e.getKey(), e.getValue().deps);
+            FileEntry old = _oldFiles.get(e.getKey());
+            if (old == null || !old.hash.equals(e.getValue().hash)) {
+                changed.add(e.getKey());
+            }
+        }
+        // Every file that depends on a changed file is affected.
+        Set<String> affected = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>(changed);
+        while (!queue.isEmpty()) {
+            String path = queue.removeFirst();
+            if (!affected.add(path)) continue;
+            Set<String> s = users.get(path);
+            if (s != null) {
+                queue.addAll(s);
+            }
+        }
+        // The files used by an affected file are not dirty:
+        // their hashes are unchanged, so their output is reused.
+        _dirty = affected;
+        Logger.info("AnalysisCache: files="+_newFiles.size()+
+                    ", changed="+changed.size()+", dirty="+_dirty.size());
+        return _dirty.size();
+    }
+
+    private static void addUsers(
+        Map<String, Set<String>> users, String path, List<String> deps) {
+        for (String dep : deps) {
+            Set<String> s = users.get(dep);
+            if (s == null) {
+                s = new HashSet<String>();
+                users.put(dep, s);
+            }
+            s.add(path);
+        }
+    }
+
+    // getKlassEntry: returns the previous output of a klass,
+    //   or null if it cannot be reused.
+    public KlassEntry getKlassEntry(DFSourceKlass klass) {
+        assert _dirty != null;
+        String path = klass.getFilePath();
+        if (_dirty.contains(path)) return null;
+        FileEntry old = _oldFiles.get(path);
+        if (old == null) return null;
+        KlassEntry entry = old.klasses.get(klass.getTypeName());
+        if (entry == null || entry.unstable) return null;
+        return entry;
+    }
+
+    // reuseKlass: keeps the previous output of a klass.
+    public void reuseKlass(DFSourceKlass klass, KlassEntry entry) {
+        this.putKlass(klass, entry);
+    }
+
+    @Override
+    public void startKlass(DFKlass klass, int graphId) {
+        _graphId = graphId;
+        _lazyChanges = DFKlass.getLazyChanges();
+    }
+
+    @Override
+    public void endKlass(DFKlass klass, int graphId, byte[] xml) {
+        if (!(klass instanceof DFSourceKlass)) return;
+        // A klass that changed the others cannot be skipped
+        // because the later klasses may depend on the change.
+        boolean unstable = (DFKlass.getLazyChanges() != _lazyChanges);
+        KlassEntry entry = new KlassEntry(
+            klass.getTypeName(), _graphId, graphId - _graphId,
+            unstable, xml);
+        this.putKlass((DFSourceKlass)klass, entry);
+    }
+
+    private void putKlass(DFSourceKlass klass, KlassEntry entry) {
+        FileEntry cur = _newFiles.get(klass.getFilePath());
+        if (cur == null) return;
+        if (cur.klasses.containsKey(entry.name)) {
+            // Klasses with the same name cannot be told apart.
+            cur.klasses.get(entry.name).unstable = true;
+            entry.unstable = true;
+        }
+        cur.klasses.put(entry.name, entry);
+    }
+
+    // save: writes the current result to the cache.
+    public void save()
+        throws IOException {
+        _dir.mkdirs();
+        File path = new File(_dir, FILENAME);
+        File tmp = File.createTempFile("analysis", ".tmp", _dir);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(_signature);
+            out.writeInt(_newFiles.size());
+            for (String key : _newFiles.keys()) {
+                out.writeUTF(key);
+                _newFiles.get(key).write(out);
+            }
+        } finally {
+            out.close();
+        }
+        // Replace the file at once so that a partial file is never read.
+        path.delete();
+        if (!tmp.renameTo(path)) {
+            tmp.delete();
+            throw new IOException("cannot create: "+path);
+        }
+    }
+}
@@ -0,0 +1,492 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+
+//  BinaryExporter
+//  Writes the graphs in a compact binary format. (-B option)
+//
+//  The content is exactly the same as the XML, but each klass
+//  is stored as a few tables of numbers and every string is
+//  stored only once. The graphs are written with the same
+//  writeXML() methods through GraphWriter, which adds a row
+//  for each element. Each column of a table is stored in the
+//  narrowest of 1, 2 or 4 bytes, so that a reader can decode
+//  a whole column at once.
+//
+//  Format:
+//    file    := MAGIC record* END
+//    record  := STRINGS count:varint column utf8*
+//             | KLASS nelems:varint nattrs:varint nnodes:varint nedges:varint
+//               column*
+//    column  := width:byte value*  (unsigned, little endian)
+//
+//  A STRINGS record has the byte length of each string followed
+//  by the strings. They are appended to the table of all the
+//  strings so far, which always come before the KLASS record
+//  that uses them. Below, a string (str) is an index in the table
+//  and an optional string (str?) is the index+1, or 0 for none.
+//
+//  A KLASS record has the columns of the following tables:
+//    elements: parent, name:str
+//      (parent is the index of the parent element+1, 0 for the class.)
+//    attrs:    element, name:str, value:str
+//    nodes:    scope, nid, prefix:str, kind:str?, data:str?, type:str?,
+//              ref:str?, ast_type, ast_start, ast_end
+//      ("M2_foo_N13" is stored as nid=13 and prefix="M2_foo", and
+//       an id without a number as nid=0. ast_type is 0 for no ast.
+//       ast_start and ast_end are zigzag encoded.)
+//    edges:    node, src, label:str?
+//      (node and src are indices of the nodes.)
+//  Each table is in the order of the XML. The nodes and their
+//  ast/accept elements are only in the nodes and edges tables.
+//  The nodes of a scope always come before its child elements.
+//
+//  See BinaryGraphReader for the reader.
+//
+public class BinaryExporter extends Exporter {
+
+    public static final byte[] MAGIC = { 'F', 'G', 'B', 2 };
+
+    public static final int END = 0;
+    public static final int STRINGS = 1;
+    public static final int KLASS = 2;
+
+    // The attributes of each element in the nodes and edges tables.
+    // They must be written in this order.
+    public static final String[] NODE_ATTRIBUTES = {
+        "id", "kind", "data", "type", "ref",
+    };
+    public static final String[] AST_ATTRIBUTES = {
+        "type", "start", "end",
+    };
+    public static final String[] ACCEPT_ATTRIBUTES = {
+        "src", "label",
+    };
+
+    private OutputStream _stream;
+    private DFKlass _klass = null;
+    private int _baseId = 1;
+
+    private Map<String, Integer> _strings =
+        new HashMap<String, Integer>();
+    private List<String> _newStrings =
+        new ArrayList<String>();
+    private GraphWriter _writer = null;
+
+    public BinaryExporter(OutputStream stream) {
+        _stream = stream;
+        try {
+            _stream.write(MAGIC);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        assert _klass == null;
+        try {
+            _stream.write(END);
+            _stream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void startKlass(DFKlass klass) {
+        assert _klass == null;
+        _klass = klass;
+        _writer = new GraphWriter();
+        try {
+            _writer.writeStartElement("class");
+            klass.writeXML(_writer);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void endKlass() {
+        assert _klass != null;
+        try {
+            _writer.writeEndElement();
+            _writer.resolveEdges();
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            if (!_newStrings.isEmpty()) {
+                b.write(STRINGS);
+                writeVarint(b, _newStrings.size());
+                Column lengths = new Column();
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                for (String s : _newStrings) {
+                    byte[] utf8 = s.getBytes("UTF-8");
+                    lengths.add(utf8.length);
+                    data.write(utf8);
+                }
+                lengths.writeTo(b);
+                data.writeTo(b);
+                _newStrings.clear();
+            }
+            b.write(KLASS);
+            _writer.writeTo(b);
+            b.writeTo(_stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+        _writer = null;
+        _klass = null;
+    }
+
+    @Override
+    public void writeMethod(DFMethod method)
+        throws InvalidSyntax, EntityNotFound {
+        this.writeMethod(new DFGraphTask(method, _baseId));
+    }
+
+    @Override
+    public int getNextGraphId() {
+        return _baseId;
+    }
+
+    @Override
+    public void writeMethod(DFGraphTask task)
+        throws InvalidSyntax, EntityNotFound {
+        assert _klass != null;
+        assert task.getGraphId() == _baseId;
+        _baseId++;
+        try {
+            _writer.writeStartElement("method");
+            try {
+                task.getMethod().writeXML(_writer, task);
+            } finally {
+                _writer.writeEndElement();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int getStringId(String s) {
+        Integer i = _strings.get(s);
+        if (i == null) {
+            i = _strings.size();
+            _strings.put(s, i);
+            _newStrings.add(s);
+        }
+        return i;
+    }
+
+    public static void writeVarint(OutputStream out, int v)
+        throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    //  Column
+    //  A growing column of unsigned ints.
+    //
+    private static class Column {
+
+        private int[] _values = new int[16];
+        private int _size = 0;
+
+        public int size() {
+            return _size;
+        }
+
+        public int add(int v) {
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size*2);
+            }
+            _values[_size] = v;
+            return _size++;
+        }
+
+        public int get(int i) {
+            return _values[i];
+        }
+
+        public void set(int i, int v) {
+            _values[i] = v;
+        }
+
+        public void writeTo(OutputStream out)
+            throws IOException {
+            int width = 1;
+            for (int i = 0; i < _size; i++) {
+                int v = _values[i];
+                if ((v & 0xffff0000) != 0) {
+                    width = 4;
+                    break;
+                } else if ((v & 0xff00) != 0) {
+                    width = 2;
+                }
+            }
+            out.write(width);
+            byte[] b = new byte[_size*width];
+            int j = 0;
+            for (int i = 0; i < _size; i++) {
+                int v = _values[i];
+                for (int k = 0; k < width; k++) {
+                    b[j++] = (byte)v;
+                    v >>>= 8;
+                }
+            }
+            out.write(b);
+        }
+    }
+
+    //  GraphWriter
+    //  Adds the rows of the elements of a klass.
+    //
+    private class GraphWriter implements ElementWriter {
+
+        // Stack of the elements being written:
+        //   the index of an element, or NODE, AST or ACCEPT.
+        private static final int NODE = -2;
+        private static final int AST = -3;
+        private static final int ACCEPT = -4;
+        private Deque<Integer> _stack = new ArrayDeque<Integer>();
+        private boolean _open = false;
+        private int _lastElement = -1;
+        // The last attribute written to a node, ast or accept.
+        private int _lastAttr = -1;
+
+        private Column _elemParent = new Column();
+        private Column _elemName = new Column();
+        private Column _attrElem = new Column();
+        private Column _attrName = new Column();
+        private Column _attrValue = new Column();
+        private Column _nodeScope = new Column();
+        private Column _nodeNid = new Column();
+        private Column _nodePrefix = new Column();
+        private Column _nodeKind = new Column();
+        private Column _nodeData = new Column();
+        private Column _nodeType = new Column();
+        private Column _nodeRef = new Column();
+        private Column _nodeAstType = new Column();
+        private Column _nodeAstStart = new Column();
+        private Column _nodeAstEnd = new Column();
+        private Column _edgeNode = new Column();
+        private Column _edgeSrc = new Column();
+        private Column _edgeLabel = new Column();
+
+        private Map<String, Integer> _nodeIds =
+            new HashMap<String, Integer>();
+        private List<String> _edgeSrcIds =
+            new ArrayList<String>();
+        // The current node and what it has got so far.
+        private int _node = -1;
+        private boolean _nodeId = false;
+        private boolean _nodeAst = false;
+        private boolean _nodeAccept = false;
+
+        @Override
+        public void writeStartElement(String name)
+            throws XMLStreamException {
+            int parent = (_stack.isEmpty())? -1 : _stack.peek();
+            if (parent == AST || parent == ACCEPT) {
+                throw new XMLStreamException("unsupported element: "+name);
+            } else if (parent == NODE) {
+                // An ast must come before the accepts.
+                if (name.equals("ast") && !_nodeAst && !_nodeAccept) {
+                    _nodeAst = true;
+                    _stack.push(AST);
+                } else if (name.equals("accept")) {
+                    _nodeAccept = true;
+                    _edgeNode.add(_node);
+                    _edgeSrc.add(0);
+                    _edgeLabel.add(0);
+                    _edgeSrcIds.add(null);
+                    _stack.push(ACCEPT);
+                } else {
+                    throw new XMLStreamException("unsupported element: "+name);
+                }
+            } else if (name.equals("node")) {
+                // The nodes must come before the child elements.
+                if (parent < 0 || _lastElement != parent) {
+                    throw new XMLStreamException("node after an element");
+                }
+                _node = _nodeScope.add(parent);
+                _nodeNid.add(0);
+                _nodePrefix.add(0);
+                _nodeKind.add(0);
+                _nodeData.add(0);
+                _nodeType.add(0);
+                _nodeRef.add(0);
+                _nodeAstType.add(0);
+                _nodeAstStart.add(0);
+                _nodeAstEnd.add(0);
+                _nodeId = false;
+                _nodeAst = false;
+                _nodeAccept = false;
+                _stack.push(NODE);
+            } else {
+                int elem = _elemParent.add(parent+1);
+                _elemName.add(getStringId(name));
+                _lastElement = elem;
+                _stack.push(elem);
+            }
+            _open = true;
+            _lastAttr = -1;
+        }
+
+        @Override
+        public void writeAttribute(String name, String value)
+            throws XMLStreamException {
+            if (!_open) {
+                throw new XMLStreamException("attribute outside an element: "+name);
+            }
+            int elem = _stack.peek();
+            if (0 <= elem) {
+                _attrElem.add(elem);
+                _attrName.add(getStringId(name));
+                _attrValue.add(getStringId(value));
+                return;
+            }
+            String[] names = ((elem == NODE)? NODE_ATTRIBUTES :
+                              (elem == AST)? AST_ATTRIBUTES :
+                              ACCEPT_ATTRIBUTES);
+            int i = indexOf(names, name);
+            if (i <= _lastAttr) {
+                throw new XMLStreamException("unsupported attribute: "+name);
+            }
+            _lastAttr = i;
+            try {
+                switch (elem) {
+                case NODE:
+                    this.setNodeAttr(name, value);
+                    break;
+                case AST:
+                    int v = Integer.parseInt(value);
+                    if (name.equals("type")) {
+                        if (v <= 0) {
+                            throw new XMLStreamException("invalid value: "+name+"="+value);
+                        }
+                        _nodeAstType.set(_node, v);
+                    } else if (name.equals("start")) {
+                        _nodeAstStart.set(_node, (v << 1) ^ (v >> 31));
+                    } else {
+                        _nodeAstEnd.set(_node, (v << 1) ^ (v >> 31));
+                    }
+                    break;
+                default:
+                    int edge = _edgeNode.size()-1;
+                    if (name.equals("src")) {
+                        _edgeSrcIds.set(edge, value);
+                    } else {
+                        _edgeLabel.set(edge, getStringId(value)+1);
+                    }
+                    break;
+                }
+            } catch (NumberFormatException e) {
+                throw new XMLStreamException("invalid value: "+name+"="+value);
+            }
+        }
+
+        private void setNodeAttr(String name, String value)
+            throws XMLStreamException {
+            if (name.equals("id")) {
+                if (_nodeIds.containsKey(value)) {
+                    throw new XMLStreamException("duplicate node: "+value);
+                }
+                _nodeIds.put(value, _node);
+                _nodeId = true;
+                // "M2_foo_N13" -> 13, "M2_foo"
+                int i = value.lastIndexOf("_N");
+                int nid = 0;
+                if (0 < i) {
+                    try {
+                        nid = Integer.parseInt(value.substring(i+2));
+                    } catch (NumberFormatException e) {
+                    }
+                }
+                if (0 < nid && value.equals(value.substring(0, i)+"_N"+nid)) {
+                    _nodeNid.set(_node, nid);
+                    _nodePrefix.set(_node, getStringId(value.substring(0, i)));
+                } else {
+                    _nodePrefix.set(_node, getStringId(value));
+                }
+            } else if (name.equals("kind")) {
+                _nodeKind.set(_node, getStringId(value)+1);
+            } else if (name.equals("data")) {
+                _nodeData.set(_node, getStringId(value)+1);
+            } else if (name.equals("type")) {
+                _nodeType.set(_node, getStringId(value)+1);
+            } else {
+                _nodeRef.set(_node, getStringId(value)+1);
+            }
+        }
+
+        @Override
+        public void writeEndElement()
+            throws XMLStreamException {
+            int elem = _stack.pop();
+            if (elem == NODE) {
+                if (!_nodeId) {
+                    throw new XMLStreamException("node without id");
+                }
+                _node = -1;
+            } else if (elem == AST) {
+                if (_lastAttr != AST_ATTRIBUTES.length-1) {
+                    throw new XMLStreamException("incomplete ast");
+                }
+            } else if (elem == ACCEPT) {
+                if (_edgeSrcIds.get(_edgeSrcIds.size()-1) == null) {
+                    throw new XMLStreamException("accept without src");
+                }
+            }
+            _open = false;
+            _lastAttr = -1;
+        }
+
+        // resolveEdges: finds the index of each src node.
+        //   A src node may come after the edge.
+        public void resolveEdges()
+            throws XMLStreamException {
+            for (int i = 0; i < _edgeSrcIds.size(); i++) {
+                String id = _edgeSrcIds.get(i);
+                Integer src = _nodeIds.get(id);
+                if (src == null) {
+                    throw new XMLStreamException("unknown node: "+id);
+                }
+                _edgeSrc.set(i, src);
+            }
+        }
+
+        public void writeTo(OutputStream out)
+            throws IOException {
+            writeVarint(out, _elemParent.size());
+            writeVarint(out, _attrElem.size());
+            writeVarint(out, _nodeScope.size());
+            writeVarint(out, _edgeNode.size());
+            Column[] columns = {
+                _elemParent, _elemName,
+                _attrElem, _attrName, _attrValue,
+                _nodeScope, _nodeNid, _nodePrefix, _nodeKind, _nodeData,
+                _nodeType, _nodeRef,
+                _nodeAstType, _nodeAstStart, _nodeAstEnd,
+                _edgeNode, _edgeSrc, _edgeLabel,
+            };
+            for (Column column : columns) {
+                column.writeTo(out);
+            }
+        }
+    }
+}
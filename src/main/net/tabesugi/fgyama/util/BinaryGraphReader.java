@@ -0,0 +1,298 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+
+//  BinaryGraphReader
+//  Reads the graphs written by BinaryExporter.
+//  Each klass is replayed to an ElementWriter as it was written,
+//  so the XML of the same run can be restored.
+//
+//  Usage:
+//    reader = new BinaryGraphReader(in)
+//    while (reader.readKlass(writer)) { ... }
+//
+public class BinaryGraphReader {
+
+    private DataInputStream _in;
+    private List<String> _strings = new ArrayList<String>();
+    private boolean _eof = false;
+
+    // The tables of the klass being decoded.
+    private int[] _elemParent, _elemName;
+    private int[] _attrElem, _attrName, _attrValue;
+    private int[] _nodeScope, _nodeNid, _nodePrefix, _nodeKind, _nodeData;
+    private int[] _nodeType, _nodeRef;
+    private int[] _nodeAstType, _nodeAstStart, _nodeAstEnd;
+    private int[] _edgeNode, _edgeSrc, _edgeLabel;
+    // The child elements of each element.
+    private int[] _firstChild, _nextSibling;
+    // The next row of each table.
+    private int _attr, _node, _edge;
+
+    public BinaryGraphReader(InputStream in)
+        throws IOException {
+        _in = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[BinaryExporter.MAGIC.length];
+        _in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryExporter.MAGIC)) {
+            throw new IOException("invalid format");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("<BinaryGraphReader("+_strings.size()+" strings)>");
+    }
+
+    // readKlass: writes the next klass to the writer.
+    //   Returns false at the end of the stream.
+    public boolean readKlass(ElementWriter writer)
+        throws IOException, XMLStreamException {
+        if (!this.nextKlass()) return false;
+        int nelems = _elemParent.length;
+        if (nelems == 0 || _elemParent[0] != 0) {
+            throw new IOException("broken klass");
+        }
+        _firstChild = new int[nelems];
+        _nextSibling = new int[nelems];
+        int[] lastChild = new int[nelems];
+        Arrays.fill(_firstChild, -1);
+        Arrays.fill(_nextSibling, -1);
+        for (int i = 1; i < nelems; i++) {
+            int parent = _elemParent[i]-1;
+            if (parent < 0 || i <= parent) {
+                throw new IOException("broken klass");
+            }
+            if (_firstChild[parent] < 0) {
+                _firstChild[parent] = i;
+            } else {
+                _nextSibling[lastChild[parent]] = i;
+            }
+            lastChild[parent] = i;
+        }
+        _attr = _node = _edge = 0;
+        this.writeElement(writer, 0);
+        if (_attr != _attrElem.length ||
+            _node != _nodeScope.length ||
+            _edge != _edgeNode.length) {
+            throw new IOException("broken klass");
+        }
+        this.clearTables();
+        return true;
+    }
+
+    // skipKlass: skips the next klass.
+    //   Returns false at the end of the stream.
+    public boolean skipKlass()
+        throws IOException {
+        if (!this.nextKlass()) return false;
+        this.clearTables();
+        return true;
+    }
+
+    private boolean nextKlass()
+        throws IOException {
+        while (!_eof) {
+            int type = _in.readUnsignedByte();
+            switch (type) {
+            case BinaryExporter.END:
+                _eof = true;
+                break;
+            case BinaryExporter.STRINGS:
+                int[] lengths = this.readColumn(readVarint(_in));
+                for (int length : lengths) {
+                    byte[] b = new byte[length];
+                    _in.readFully(b);
+                    _strings.add(new String(b, "UTF-8"));
+                }
+                break;
+            case BinaryExporter.KLASS:
+                int nelems = readVarint(_in);
+                int nattrs = readVarint(_in);
+                int nnodes = readVarint(_in);
+                int nedges = readVarint(_in);
+                _elemParent = this.readColumn(nelems);
+                _elemName = this.readColumn(nelems);
+                _attrElem = this.readColumn(nattrs);
+                _attrName = this.readColumn(nattrs);
+                _attrValue = this.readColumn(nattrs);
+                _nodeScope = this.readColumn(nnodes);
+                _nodeNid = this.readColumn(nnodes);
+                _nodePrefix = this.readColumn(nnodes);
+                _nodeKind = this.readColumn(nnodes);
+                _nodeData = this.readColumn(nnodes);
+                _nodeType = this.readColumn(nnodes);
+                _nodeRef = this.readColumn(nnodes);
+                _nodeAstType = this.readColumn(nnodes);
+                _nodeAstStart = this.readColumn(nnodes);
+                _nodeAstEnd = this.readColumn(nnodes);
+                _edgeNode = this.readColumn(nedges);
+                _edgeSrc = this.readColumn(nedges);
+                _edgeLabel = this.readColumn(nedges);
+                return true;
+            default:
+                throw new IOException("invalid record: "+type);
+            }
+        }
+        return false;
+    }
+
+    private void clearTables() {
+        _elemParent = _elemName = null;
+        _attrElem = _attrName = _attrValue = null;
+        _nodeScope = _nodeNid = _nodePrefix = _nodeKind = _nodeData = null;
+        _nodeType = _nodeRef = null;
+        _nodeAstType = _nodeAstStart = _nodeAstEnd = null;
+        _edgeNode = _edgeSrc = _edgeLabel = null;
+        _firstChild = _nextSibling = null;
+    }
+
+    private int[] readColumn(int n)
+        throws IOException {
+        int width = _in.readUnsignedByte();
+        if (width != 1 && width != 2 && width != 4) {
+            throw new IOException("invalid column: "+width);
+        }
+        byte[] b = new byte[n*width];
+        _in.readFully(b);
+        int[] column = new int[n];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            int v = 0;
+            for (int k = 0; k < width; k++) {
+                v |= (b[j++] & 0xff) << (k*8);
+            }
+            column[i] = v;
+        }
+        return column;
+    }
+
+    private void writeElement(ElementWriter writer, int elem)
+        throws IOException, XMLStreamException {
+        writer.writeStartElement(this.getString(_elemName[elem]));
+        while (_attr < _attrElem.length && _attrElem[_attr] == elem) {
+            writer.writeAttribute(
+                this.getString(_attrName[_attr]),
+                this.getString(_attrValue[_attr]));
+            _attr++;
+        }
+        while (_node < _nodeScope.length && _nodeScope[_node] == elem) {
+            this.writeNode(writer, _node);
+            _node++;
+        }
+        for (int c = _firstChild[elem]; 0 <= c; c = _nextSibling[c]) {
+            this.writeElement(writer, c);
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeNode(ElementWriter writer, int node)
+        throws IOException, XMLStreamException {
+        writer.writeStartElement("node");
+        writer.writeAttribute("id", this.getNodeId(node));
+        if (_nodeKind[node] != 0) {
+            writer.writeAttribute("kind", this.getString(_nodeKind[node]-1));
+        }
+        if (_nodeData[node] != 0) {
+            writer.writeAttribute("data", this.getString(_nodeData[node]-1));
+        }
+        if (_nodeType[node] != 0) {
+            writer.writeAttribute("type", this.getString(_nodeType[node]-1));
+        }
+        if (_nodeRef[node] != 0) {
+            writer.writeAttribute("ref", this.getString(_nodeRef[node]-1));
+        }
+        if (_nodeAstType[node] != 0) {
+            writer.writeStartElement("ast");
+            writer.writeAttribute("type", Integer.toString(_nodeAstType[node]));
+            writer.writeAttribute("start", Integer.toString(unzigzag(_nodeAstStart[node])));
+            writer.writeAttribute("end", Integer.toString(unzigzag(_nodeAstEnd[node])));
+            writer.writeEndElement();
+        }
+        while (_edge < _edgeNode.length && _edgeNode[_edge] == node) {
+            writer.writeStartElement("accept");
+            int src = _edgeSrc[_edge];
+            if (src < 0 || _nodeScope.length <= src) {
+                throw new IOException("invalid node: "+src);
+            }
+            writer.writeAttribute("src", this.getNodeId(src));
+            if (_edgeLabel[_edge] != 0) {
+                writer.writeAttribute("label", this.getString(_edgeLabel[_edge]-1));
+            }
+            writer.writeEndElement();
+            _edge++;
+        }
+        writer.writeEndElement();
+    }
+
+    private String getNodeId(int node)
+        throws IOException {
+        String prefix = this.getString(_nodePrefix[node]);
+        int nid = _nodeNid[node];
+        return (nid == 0)? prefix : prefix+"_N"+nid;
+    }
+
+    private String getString(int i)
+        throws IOException {
+        if (i < 0 || _strings.size() <= i) {
+            throw new IOException("invalid string: "+i);
+        }
+        return _strings.get(i);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int readVarint(DataInput in)
+        throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("invalid varint");
+    }
+
+    // writeXml: converts all the klasses into XML.
+    public static void writeXml(InputStream in, OutputStream out)
+        throws IOException, XMLStreamException {
+        BinaryGraphReader reader = new BinaryGraphReader(in);
+        XMLStreamWriter writer =
+            XMLOutputFactory.newFactory().createXMLStreamWriter(out, "utf-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("fgyama");
+        ElementWriter elemWriter = new XmlElementWriter(writer);
+        while (reader.readKlass(elemWriter)) {
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    // Converts a binary file into XML.
+    public static void main(String[] args)
+        throws IOException, XMLStreamException {
+        if (args.length < 1) {
+            System.err.println("usage: BinaryGraphReader input [output]");
+            System.exit(1);
+            return;
+        }
+        InputStream in = new FileInputStream(args[0]);
+        OutputStream out = System.out;
+        if (2 <= args.length) {
+            out = new BufferedOutputStream(new FileOutputStream(args[1]));
+        }
+        try {
+            writeXml(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
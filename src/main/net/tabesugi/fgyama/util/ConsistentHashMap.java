@@ -5,104 +5,162 @@ import java.util.*;
 
 
 //  ConsistentHashMap
+//  A map that keeps the insertion order. (see ConsistentHashTable)
+//  Putting a null value removes the key.
 //
-public class ConsistentHashMap<K,V> implements Map<K,V> {
+public class ConsistentHashMap<K,V>
+    extends ConsistentHashTable<K> implements Map<K,V> {
 
-    private Map<K,V> _map = new HashMap<K,V>();
-    private List<K> _keys = new ArrayList<K>();
+    public ConsistentHashMap() {
+        super(true);
+    }
 
     public K getKey(int i) {
-        return _keys.get(i);
+        return this.keyAt(i);
     }
 
     @Override
     public String toString() {
-        return _map.toString();
+        return this.tableToString(true);
     }
 
     @Override
     public void clear() {
-        _map.clear();
-        _keys.clear();
+        this.clearTable();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return _map.containsKey(key);
+        return (0 <= this.findIndex(key));
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return _map.containsValue(value);
+        for (V v : this.values()) {
+            if (v.equals(value)) return true;
+        }
+        return false;
     }
 
     @Override
     public Set<Map.Entry<K,V>> entrySet() {
-        return _map.entrySet();
+        return new AbstractSet<Map.Entry<K,V>>() {
+            public int size() { return tableSize(); }
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new IndexIterator<Map.Entry<K,V>>() {
+                    protected Map.Entry<K,V> get(int i) { return new Entry(i); }
+                };
+            }
+        };
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V get(Object key) {
-        return _map.get(key);
+        int i = this.findIndex(key);
+        return (i < 0)? null : (V)this.valueAt(i);
     }
 
     @Override
     public boolean isEmpty() {
-        return _map.isEmpty();
+        return (this.tableSize() == 0);
     }
 
     @Override
     public Set<K> keySet() {
-        return _map.keySet();
+        return new AbstractSet<K>() {
+            public int size() { return tableSize(); }
+            public boolean contains(Object o) { return containsKey(o); }
+            public Iterator<K> iterator() {
+                return new IndexIterator<K>() {
+                    protected K get(int i) { return entryKey(i); }
+                };
+            }
+        };
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V put(K key, V value) {
-        if (value != null && _map.get(key) == null) {
-            _keys.add(key);
-        } else if (value == null && _map.get(key) != null) {
-            _keys.remove(key);
+        if (value == null) {
+            return this.remove(key);
         }
-        return _map.put(key, value);
+        int i = this.addKey(key);
+        V old = (V)this.valueAt(i);
+        this.setValueAt(i, value);
+        return old;
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
         for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
-            K key = e.getKey();
-            V value = e.getValue();
-            if (value != null && _map.get(key) == null) {
-                _keys.add(key);
-            } else if (value == null && _map.get(key) != null) {
-                _keys.remove(key);
-            }
+            this.put(e.getKey(), e.getValue());
         }
-        _map.putAll(m);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V remove(Object key) {
-        if (_map.get(key) != null) {
-            _keys.remove(key);
-        }
-        return _map.remove(key);
+        int i = this.findIndex(key);
+        if (i < 0) return null;
+        V old = (V)this.valueAt(i);
+        this.removeKey(key);
+        return old;
     }
 
     @Override
     public int size() {
-        return _map.size();
+        return this.tableSize();
     }
 
     @Override
     public List<V> values() {
-        List<V> a = new ArrayList<V>();
-        for (K key : _keys) {
-            a.add(_map.get(key));
+        List<V> a = new ArrayList<V>(this.tableSize());
+        Iterator<V> it = new IndexIterator<V>() {
+            @SuppressWarnings("unchecked")
+            protected V get(int i) { return (V)valueAt(i); }
+        };
+        while (it.hasNext()) {
+            a.add(it.next());
         }
         return a;
     }
 
     public List<K> keys() {
-        return _keys;
+        return new AbstractList<K>() {
+            public int size() { return tableSize(); }
+            public K get(int i) { return keyAt(i); }
+        };
+    }
+
+    //  Entry
+    //
+    private class Entry implements Map.Entry<K,V> {
+
+        private int _index;
+
+        public Entry(int index) {
+            _index = index;
+        }
+
+        @Override
+        public K getKey() {
+            return entryKey(_index);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V)valueAt(_index);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            assert value != null;
+            V old = (V)valueAt(_index);
+            setValueAt(_index, value);
+            return old;
+        }
     }
 }
@@ -5,115 +5,123 @@ import java.util.*;
 
 
 //  ConsistentHashSet
+//  A set that keeps the insertion order. (see ConsistentHashTable)
 //
-public class ConsistentHashSet<E> implements Set<E>, Iterable<E> {
-
-    private Set<E> _set;
-    private List<E> _list;
+public class ConsistentHashSet<E>
+    extends ConsistentHashTable<E> implements Set<E>, Iterable<E> {
 
     public ConsistentHashSet() {
-        _set = new HashSet<E>();
-        _list = new ArrayList<E>();
+        super(false);
     }
 
     public ConsistentHashSet(ConsistentHashSet<E> c) {
-        _set = new HashSet<E>(c._set);
-        _list = new ArrayList<E>(c._list);
+        super(c);
     }
 
     public E get(int i) {
-        return _list.get(i);
+        return this.keyAt(i);
     }
 
     @Override
     public String toString() {
-        return _set.toString();
+        return this.tableToString(false);
     }
 
     @Override
     public boolean add(E e) {
-        if (!_set.contains(e)) {
-            _list.add(e);
-        }
-        return _set.add(e);
+        int n = this.tableSize();
+        this.addKey(e);
+        return (n != this.tableSize());
     }
 
     @Override
     public boolean addAll(Collection<? extends E> c) {
+        boolean changed = false;
         for (E e : c) {
-            if (!_set.contains(e)) {
-                _list.add(e);
-            }
+            changed |= this.add(e);
         }
-        return _set.addAll(c);
+        return changed;
     }
 
     @Override
     public void clear() {
-        _set.clear();
-        _list.clear();
+        this.clearTable();
     }
 
     @Override
     public boolean contains(Object o) {
-        return _set.contains(o);
+        return (0 <= this.findIndex(o));
     }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        return _set.containsAll(c);
+        for (Object o : c) {
+            if (!this.contains(o)) return false;
+        }
+        return true;
     }
 
     @Override
     public boolean isEmpty() {
-        return _set.isEmpty();
+        return (this.tableSize() == 0);
     }
 
     @Override
     public Iterator<E> iterator() {
-        return _list.iterator();
+        return new IndexIterator<E>() {
+            protected E get(int i) { return entryKey(i); }
+        };
     }
 
     @Override
     public boolean remove(Object o) {
-        if (_set.contains(o)) {
-            _list.remove(o);
-        }
-        return _set.remove(o);
+        return (0 <= this.removeKey(o));
     }
 
     @Override
     public boolean removeAll(Collection<?> c) {
-        for (E e : _set) {
-            if (c.contains(e)) {
-                _list.remove(e);
-            }
+        boolean changed = false;
+        for (Object o : c) {
+            changed |= this.remove(o);
         }
-        return _set.removeAll(c);
+        return changed;
     }
 
     @Override
     public boolean retainAll(Collection<?> c) {
-        for (E e : _set) {
-            if (!c.contains(e)) {
-                _list.remove(e);
+        boolean changed = false;
+        Iterator<E> it = this.iterator();
+        while (it.hasNext()) {
+            if (!c.contains(it.next())) {
+                it.remove();
+                changed = true;
             }
         }
-        return _set.retainAll(c);
+        return changed;
     }
 
     @Override
     public int size() {
-        return _list.size();
+        return this.tableSize();
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T[] toArray(T[] a) {
-        return _list.toArray(a);
+        Object[] b = this.keysToArray();
+        if (a.length < b.length) {
+            a = (T[])java.lang.reflect.Array.newInstance(
+                a.getClass().getComponentType(), b.length);
+        }
+        System.arraycopy(b, 0, a, 0, b.length);
+        if (b.length < a.length) {
+            a[b.length] = null;
+        }
+        return a;
     }
 
     @Override
     public Object[] toArray() {
-        return _list.toArray();
+        return this.keysToArray();
     }
 }
@@ -0,0 +1,299 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+
+
+//  ConsistentHashTable
+//  The common part of ConsistentHashSet and ConsistentHashMap.
+//
+//  The entries are stored in arrays in the insertion order,
+//  and an open addressing table (_slots) points to them.
+//  A removed entry is only marked as REMOVED, so add, remove
+//  and lookup are all constant time. The holes are closed
+//  only by a write: when the arrays are full or the holes
+//  outnumber the entries. A read never changes the table,
+//  so it can be shared by concurrent readers. Removing the
+//  last entry leaves no hole, so it can be used as a stack.
+//
+abstract class ConsistentHashTable<K> {
+
+    private static final int MIN_CAPACITY = 8;
+    private static final Object REMOVED = new Object();
+
+    // Slot values: 0 is empty, -1 is deleted, i+1 is the i-th entry.
+    private int[] _slots;
+    private int _deletedSlots = 0;
+
+    // Entries.
+    private Object[] _keys;
+    private Object[] _values;
+    private int[] _hashes;
+    private int _used = 0;
+    private int _size = 0;
+    private int _firstHole = 0;
+    private int _modCount = 0;
+
+    protected ConsistentHashTable(boolean hasValues) {
+        this.allocate(MIN_CAPACITY, hasValues);
+    }
+
+    protected ConsistentHashTable(ConsistentHashTable<K> c) {
+        _slots = c._slots.clone();
+        _deletedSlots = c._deletedSlots;
+        _keys = c._keys.clone();
+        _values = (c._values == null)? null : c._values.clone();
+        _hashes = c._hashes.clone();
+        _used = c._used;
+        _size = c._size;
+        _firstHole = c._firstHole;
+    }
+
+    private void allocate(int capacity, boolean hasValues) {
+        _slots = new int[capacity];
+        _deletedSlots = 0;
+        int n = capacity/4*3;
+        _keys = new Object[n];
+        _values = hasValues? new Object[n] : null;
+        _hashes = new int[n];
+    }
+
+    private static int hash(Object key) {
+        int h = (key == null)? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // findIndex: returns the index of the entry, or -1.
+    protected int findIndex(Object key) {
+        int h = hash(key);
+        int mask = _slots.length-1;
+        for (int i = h & mask; ; i = (i+1) & mask) {
+            int s = _slots[i];
+            if (s == 0) return -1;
+            if (0 < s && _hashes[s-1] == h && eq(_keys[s-1], key)) return s-1;
+        }
+    }
+
+    private int findSlot(Object key) {
+        int h = hash(key);
+        int mask = _slots.length-1;
+        for (int i = h & mask; ; i = (i+1) & mask) {
+            int s = _slots[i];
+            if (s == 0) return -1;
+            if (0 < s && _hashes[s-1] == h && eq(_keys[s-1], key)) return i;
+        }
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return (a == b || (a != null && a.equals(b)));
+    }
+
+    // addKey: adds the key at the end if not exists.
+    //   Returns the index of the entry.
+    protected int addKey(K key) {
+        int i = this.findIndex(key);
+        if (0 <= i) return i;
+        if (_used == _keys.length) {
+            // The entries are full: close the holes or grow.
+            this.rehash((_size < _keys.length/2)? _slots.length : _slots.length*2);
+        } else if (3*_slots.length <= 4*(_used + _deletedSlots + 1)) {
+            // Too many deleted slots.
+            this.rehash(_slots.length);
+        }
+        int h = hash(key);
+        i = _used++;
+        _keys[i] = key;
+        _hashes[i] = h;
+        this.putSlot(h, i);
+        if (_firstHole == i) {
+            _firstHole = _used;
+        }
+        _size++;
+        _modCount++;
+        return i;
+    }
+
+    // removeKey: removes the key.
+    //   Returns the former index of the entry, or -1.
+    protected int removeKey(Object key) {
+        int i = this.removeEntry(key);
+        if (0 <= i && _size < _used - _size) {
+            // Too many holes: close them.
+            this.rehash(_slots.length);
+        }
+        return i;
+    }
+
+    // removeEntry: removes the key without moving the other entries.
+    private int removeEntry(Object key) {
+        int j = this.findSlot(key);
+        if (j < 0) return -1;
+        int i = _slots[j]-1;
+        _slots[j] = -1;
+        _deletedSlots++;
+        _keys[i] = REMOVED;
+        if (_values != null) {
+            _values[i] = null;
+        }
+        _firstHole = Math.min(_firstHole, i);
+        // Trailing holes are dropped.
+        while (0 < _used && _keys[_used-1] == REMOVED) {
+            _used--;
+            _keys[_used] = null;
+        }
+        _firstHole = Math.min(_firstHole, _used);
+        _size--;
+        _modCount++;
+        return i;
+    }
+
+    protected void clearTable() {
+        this.allocate(MIN_CAPACITY, _values != null);
+        _used = 0;
+        _size = 0;
+        _firstHole = 0;
+        _modCount++;
+    }
+
+    private void putSlot(int h, int i) {
+        int mask = _slots.length-1;
+        int j = h & mask;
+        while (_slots[j] != 0) {
+            j = (j+1) & mask;
+        }
+        _slots[j] = i+1;
+    }
+
+    // rehash: closes the holes and rebuilds the table.
+    private void rehash(int capacity) {
+        Object[] keys = _keys;
+        Object[] values = _values;
+        int[] hashes = _hashes;
+        int used = _used;
+        this.allocate(Math.max(MIN_CAPACITY, capacity), values != null);
+        int n = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == REMOVED) continue;
+            _keys[n] = keys[i];
+            if (values != null) {
+                _values[n] = values[i];
+            }
+            _hashes[n] = hashes[i];
+            this.putSlot(hashes[i], n);
+            n++;
+        }
+        assert n == _size;
+        _used = n;
+        _firstHole = n;
+        _modCount++;
+    }
+
+    protected int tableSize() {
+        return _size;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected K keyAt(int i) {
+        if (i < 0 || _size <= i) {
+            throw new IndexOutOfBoundsException("Index: "+i+", Size: "+_size);
+        }
+        if (i < _firstHole) {
+            return (K)_keys[i];
+        }
+        // Skip the holes. There are no more holes than entries.
+        int n = _firstHole;
+        for (int j = _firstHole; j < _used; j++) {
+            if (_keys[j] == REMOVED) continue;
+            if (n == i) return (K)_keys[j];
+            n++;
+        }
+        throw new IllegalStateException();
+    }
+
+    // entryKey: returns the key of the entry. (no compaction)
+    @SuppressWarnings("unchecked")
+    protected K entryKey(int i) {
+        return (K)_keys[i];
+    }
+
+    protected Object valueAt(int i) {
+        return _values[i];
+    }
+
+    protected void setValueAt(int i, Object value) {
+        _values[i] = value;
+    }
+
+    protected Object[] keysToArray() {
+        Object[] a = new Object[_size];
+        int n = 0;
+        for (int i = 0; i < _used; i++) {
+            if (_keys[i] != REMOVED) {
+                a[n++] = _keys[i];
+            }
+        }
+        return a;
+    }
+
+    protected String tableToString(boolean withValues) {
+        StringBuilder b = new StringBuilder();
+        b.append(withValues? "{" : "[");
+        int n = 0;
+        for (int i = 0; i < _used; i++) {
+            if (_keys[i] == REMOVED) continue;
+            if (0 < n++) b.append(", ");
+            b.append(_keys[i]);
+            if (withValues) {
+                b.append("=");
+                b.append(_values[i]);
+            }
+        }
+        b.append(withValues? "}" : "]");
+        return b.toString();
+    }
+
+    //  IndexIterator
+    //  Iterates the indices of the entries in the insertion order.
+    //
+    protected abstract class IndexIterator<T> implements Iterator<T> {
+
+        private int _next = 0;
+        private int _last = -1;
+        private int _expectedModCount = _modCount;
+
+        protected abstract T get(int i);
+
+        @Override
+        public boolean hasNext() {
+            while (_next < _used && _keys[_next] == REMOVED) {
+                _next++;
+            }
+            return (_next < _used);
+        }
+
+        @Override
+        public T next() {
+            if (_modCount != _expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            _last = _next++;
+            return this.get(_last);
+        }
+
+        @Override
+        public void remove() {
+            if (_last < 0 || _keys[_last] == REMOVED) {
+                throw new IllegalStateException();
+            }
+            if (_modCount != _expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // Removing does not move the entries.
+            removeEntry(_keys[_last]);
+            _expectedModCount = _modCount;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import javax.xml.stream.*;
+
+
+//  ElementWriter
+//  Receives the elements and attributes of the graphs.
+//  The writeXML() methods only write through this, so that
+//  an exporter can take the graphs in its own format.
+//  (See XmlElementWriter for the XML.)
+//
+public interface ElementWriter {
+
+    public void writeStartElement(String name)
+        throws XMLStreamException;
+
+    // writeAttribute: adds an attribute to the current element.
+    //   This must be called before any child element.
+    public void writeAttribute(String name, String value)
+        throws XMLStreamException;
+
+    public void writeEndElement()
+        throws XMLStreamException;
+}
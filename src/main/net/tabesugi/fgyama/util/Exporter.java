@@ -7,10 +7,17 @@ import java.util.*;
 
 //  Exporter
 //
-abstract class Exporter {
+public abstract class Exporter {
+
+    public abstract void close();
 
     public abstract void startKlass(DFKlass klass);
     public abstract void endKlass();
     public abstract void writeMethod(DFMethod method)
         throws InvalidSyntax, EntityNotFound;
+
+    // For generating graphs in advance.
+    public abstract int getNextGraphId();
+    public abstract void writeMethod(DFGraphTask task)
+        throws InvalidSyntax, EntityNotFound;
 }
@@ -0,0 +1,47 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+
+
+//  IdentityTuple
+//  An immutable tuple of objects compared by their identities.
+//  The hash is computed once at the construction.
+//
+public class IdentityTuple {
+
+    private Object[] _items;
+    private int _hash;
+
+    public IdentityTuple(Object[] items) {
+        _items = items.clone();
+        int h = 1;
+        for (Object obj : _items) {
+            h = h*31 + System.identityHashCode(obj);
+        }
+        _hash = h;
+    }
+
+    @Override
+    public String toString() {
+        return ("<IdentityTuple("+Utils.join(_items)+")>");
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof IdentityTuple)) return false;
+        IdentityTuple tuple = (IdentityTuple)obj;
+        if (_hash != tuple._hash) return false;
+        if (_items.length != tuple._items.length) return false;
+        for (int i = 0; i < _items.length; i++) {
+            if (_items[i] != tuple._items[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,255 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import org.apache.bcel.classfile.*;
+
+
+//  JarClassInfo
+//  The type skeleton of a class file.
+//  This holds everything DFJarFileKlass needs, so that
+//  it can be stored without the original class file.
+//
+public class JarClassInfo {
+
+    //  Source
+    //  Provides the class info of a .jar entry.
+    public interface Source {
+        public JarClassInfo getClassInfo(String jarPath, String entPath)
+            throws IOException;
+    }
+
+    public static class FieldInfo {
+
+        public String name;
+        public boolean isPrivate;
+        public boolean isStatic;
+        public String signature;  // generic signature, or null.
+        public String descriptor;
+
+        public FieldInfo(Field fld) {
+            this.name = fld.getName();
+            this.isPrivate = fld.isPrivate();
+            this.isStatic = fld.isStatic();
+            this.signature = Utils.getJKlassSignature(fld.getAttributes());
+            this.descriptor = fld.getSignature();
+        }
+
+        public FieldInfo(DataInput in)
+            throws IOException {
+            this.name = in.readUTF();
+            int flags = in.readByte();
+            this.isPrivate = ((flags & 1) != 0);
+            this.isStatic = ((flags & 2) != 0);
+            this.signature = readString(in);
+            this.descriptor = in.readUTF();
+        }
+
+        public void write(DataOutput out)
+            throws IOException {
+            out.writeUTF(this.name);
+            out.writeByte((this.isPrivate? 1 : 0) |
+                          (this.isStatic? 2 : 0));
+            writeString(out, this.signature);
+            out.writeUTF(this.descriptor);
+        }
+
+        public org.apache.bcel.generic.Type getType() {
+            return org.apache.bcel.generic.Type.getType(this.descriptor);
+        }
+    }
+
+    public static class MethodInfo {
+
+        public String name;
+        public int nameIndex;
+        public boolean isPrivate;
+        public boolean isStatic;
+        public boolean isAbstract;
+        public boolean isVarArgs;
+        public String signature;  // generic signature, or null.
+        public String descriptor;
+        public String[] exceptions = null;
+
+        public MethodInfo(Method meth) {
+            this.name = meth.getName();
+            this.nameIndex = meth.getNameIndex();
+            this.isPrivate = meth.isPrivate();
+            this.isStatic = meth.isStatic();
+            this.isAbstract = meth.isAbstract();
+            this.isVarArgs = meth.isVarArgs();
+            this.signature = Utils.getJKlassSignature(meth.getAttributes());
+            this.descriptor = meth.getSignature();
+            ExceptionTable excTable = meth.getExceptionTable();
+            if (excTable != null) {
+                this.exceptions = excTable.getExceptionNames();
+            }
+        }
+
+        public MethodInfo(DataInput in)
+            throws IOException {
+            this.name = in.readUTF();
+            this.nameIndex = in.readInt();
+            int flags = in.readByte();
+            this.isPrivate = ((flags & 1) != 0);
+            this.isStatic = ((flags & 2) != 0);
+            this.isAbstract = ((flags & 4) != 0);
+            this.isVarArgs = ((flags & 8) != 0);
+            this.signature = readString(in);
+            this.descriptor = in.readUTF();
+            this.exceptions = readStrings(in);
+        }
+
+        public void write(DataOutput out)
+            throws IOException {
+            out.writeUTF(this.name);
+            out.writeInt(this.nameIndex);
+            out.writeByte((this.isPrivate? 1 : 0) |
+                          (this.isStatic? 2 : 0) |
+                          (this.isAbstract? 4 : 0) |
+                          (this.isVarArgs? 8 : 0));
+            writeString(out, this.signature);
+            out.writeUTF(this.descriptor);
+            writeStrings(out, this.exceptions);
+        }
+
+        public org.apache.bcel.generic.Type[] getArgumentTypes() {
+            return org.apache.bcel.generic.Type.getArgumentTypes(this.descriptor);
+        }
+
+        public org.apache.bcel.generic.Type getReturnType() {
+            return org.apache.bcel.generic.Type.getReturnType(this.descriptor);
+        }
+    }
+
+    private String _className;
+    private boolean _interface;
+    private String _signature;  // generic signature, or null.
+    private String _superclassName;
+    private String[] _interfaceNames;
+    private FieldInfo[] _fields;
+    private MethodInfo[] _methods;
+
+    public JarClassInfo(JavaClass jklass) {
+        _className = jklass.getClassName();
+        _interface = jklass.isInterface();
+        _signature = Utils.getJKlassSignature(jklass.getAttributes());
+        _superclassName = jklass.getSuperclassName();
+        _interfaceNames = jklass.getInterfaceNames();
+        Field[] fields = jklass.getFields();
+        _fields = new FieldInfo[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            _fields[i] = new FieldInfo(fields[i]);
+        }
+        Method[] methods = jklass.getMethods();
+        _methods = new MethodInfo[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            _methods[i] = new MethodInfo(methods[i]);
+        }
+    }
+
+    public JarClassInfo(DataInput in)
+        throws IOException {
+        _className = in.readUTF();
+        _interface = in.readBoolean();
+        _signature = readString(in);
+        _superclassName = readString(in);
+        _interfaceNames = readStrings(in);
+        _fields = new FieldInfo[in.readInt()];
+        for (int i = 0; i < _fields.length; i++) {
+            _fields[i] = new FieldInfo(in);
+        }
+        _methods = new MethodInfo[in.readInt()];
+        for (int i = 0; i < _methods.length; i++) {
+            _methods[i] = new MethodInfo(in);
+        }
+    }
+
+    public void write(DataOutput out)
+        throws IOException {
+        out.writeUTF(_className);
+        out.writeBoolean(_interface);
+        writeString(out, _signature);
+        writeString(out, _superclassName);
+        writeStrings(out, _interfaceNames);
+        out.writeInt(_fields.length);
+        for (FieldInfo fld : _fields) {
+            fld.write(out);
+        }
+        out.writeInt(_methods.length);
+        for (MethodInfo meth : _methods) {
+            meth.write(out);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("<JarClassInfo("+_className+")>");
+    }
+
+    public String getClassName() {
+        return _className;
+    }
+
+    public boolean isInterface() {
+        return _interface;
+    }
+
+    public String getSignature() {
+        return _signature;
+    }
+
+    public String getSuperclassName() {
+        return _superclassName;
+    }
+
+    public String[] getInterfaceNames() {
+        return _interfaceNames;
+    }
+
+    public FieldInfo[] getFields() {
+        return _fields;
+    }
+
+    public MethodInfo[] getMethods() {
+        return _methods;
+    }
+
+    private static String readString(DataInput in)
+        throws IOException {
+        if (!in.readBoolean()) return null;
+        return in.readUTF();
+    }
+
+    private static void writeString(DataOutput out, String s)
+        throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String[] readStrings(DataInput in)
+        throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        String[] a = new String[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = in.readUTF();
+        }
+        return a;
+    }
+
+    private static void writeStrings(DataOutput out, String[] a)
+        throws IOException {
+        if (a == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(a.length);
+            for (String s : a) {
+                out.writeUTF(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import java.util.jar.*;
+import org.apache.bcel.classfile.*;
+
+
+//  JarFileCache
+//  Keeps .jar files open so that each class can be read
+//  without parsing the archive again.
+//  The least recently used file is closed when there are
+//  more than maxOpen files.
+//
+//  Only the LRU bookkeeping is synchronized on the cache.
+//  Each file is read under its own lock, so different
+//  files can be read in parallel.
+//
+public class JarFileCache implements JarClassInfo.Source {
+
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    //  OpenJar: an entry of the cache.
+    //  All the fields are guarded by the entry itself.
+    private static class OpenJar {
+
+        public final String path;
+        private JarFile _jarFile = null;
+        private boolean _closed = false;
+
+        public OpenJar(String path) {
+            this.path = path;
+        }
+
+        // get: opens the file if needed.
+        //   Returns null if the entry has been evicted.
+        public JarFile get()
+            throws IOException {
+            if (_closed) return null;
+            if (_jarFile == null) {
+                _jarFile = new JarFile(this.path);
+            }
+            return _jarFile;
+        }
+
+        public synchronized void close() {
+            _closed = true;
+            if (_jarFile != null) {
+                closeQuietly(_jarFile);
+                _jarFile = null;
+            }
+        }
+    }
+
+    private int _maxOpen;
+    private LinkedHashMap<String, OpenJar> _jarFiles =
+        new LinkedHashMap<String, OpenJar>(16, 0.75f, true);
+
+    public JarFileCache() {
+        this(DEFAULT_MAX_OPEN);
+    }
+
+    public JarFileCache(int maxOpen) {
+        assert 0 < maxOpen;
+        _maxOpen = maxOpen;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return ("<JarFileCache("+_jarFiles.size()+"/"+_maxOpen+")>");
+    }
+
+    public synchronized int getMaxOpen() {
+        return _maxOpen;
+    }
+
+    public void setMaxOpen(int maxOpen) {
+        assert 0 < maxOpen;
+        List<OpenJar> evicted;
+        synchronized (this) {
+            _maxOpen = maxOpen;
+            evicted = this.evict();
+        }
+        closeAll(evicted);
+    }
+
+    // listEntries: returns the names of the entries in a .jar file.
+    public List<String> listEntries(String path)
+        throws IOException {
+        while (true) {
+            OpenJar jar = this.getOpenJar(path);
+            synchronized (jar) {
+                JarFile jarFile = jar.get();
+                if (jarFile == null) continue;
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<JarEntry> es = jarFile.entries(); es.hasMoreElements(); ) {
+                    names.add(es.nextElement().getName());
+                }
+                return names;
+            }
+        }
+    }
+
+    // parseClass: reads a class file from a .jar file.
+    public JavaClass parseClass(String path, String entPath)
+        throws IOException {
+        while (true) {
+            OpenJar jar = this.getOpenJar(path);
+            synchronized (jar) {
+                JarFile jarFile = jar.get();
+                // The file was evicted in the meantime; open it again.
+                if (jarFile == null) continue;
+                JarEntry je = jarFile.getJarEntry(entPath);
+                if (je == null) throw new FileNotFoundException(path+"/"+entPath);
+                InputStream strm = jarFile.getInputStream(je);
+                try {
+                    return new ClassParser(strm, entPath).parse();
+                } finally {
+                    strm.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public JarClassInfo getClassInfo(String path, String entPath)
+        throws IOException {
+        return new JarClassInfo(this.parseClass(path, entPath));
+    }
+
+    public void close() {
+        List<OpenJar> jars;
+        synchronized (this) {
+            jars = new ArrayList<OpenJar>(_jarFiles.values());
+            _jarFiles.clear();
+        }
+        closeAll(jars);
+    }
+
+    // getOpenJar: finds or adds the entry for a file.
+    //   The file itself is opened later under the entry's lock.
+    private OpenJar getOpenJar(String path) {
+        OpenJar jar;
+        List<OpenJar> evicted = null;
+        synchronized (this) {
+            jar = _jarFiles.get(path);
+            if (jar == null) {
+                jar = new OpenJar(path);
+                _jarFiles.put(path, jar);
+                evicted = this.evict();
+            }
+        }
+        if (evicted != null) {
+            closeAll(evicted);
+        }
+        return jar;
+    }
+
+    // evict: removes the least recently used entries.
+    //   They are closed by the caller outside the cache lock
+    //   because closing waits for the current reader.
+    private List<OpenJar> evict() {
+        List<OpenJar> evicted = new ArrayList<OpenJar>();
+        Iterator<OpenJar> it = _jarFiles.values().iterator();
+        while (_maxOpen < _jarFiles.size() && it.hasNext()) {
+            evicted.add(it.next());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private static void closeAll(List<OpenJar> jars) {
+        for (OpenJar jar : jars) {
+            jar.close();
+        }
+    }
+
+    private static void closeQuietly(JarFile jarFile) {
+        try {
+            jarFile.close();
+        } catch (IOException e) {
+            Logger.error("JarFileCache: IOException", jarFile.getName());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+
+
+//  JarInfoCache
+//  On-disk cache of the class skeletons of .jar files.
+//  Each .jar file is stored as a separate file named after
+//  the SHA-1 hash of its content. A cache file has the list of
+//  class entries (in the original order) followed by the
+//  serialized JarClassInfo of each entry.
+//  Like JarFileCache, the least recently used cache file is
+//  closed when there are more than maxOpen files.
+//  Only the LRU bookkeeping is synchronized on the cache, and
+//  each cache file is read under its own lock.
+//
+public class JarInfoCache {
+
+    private static final int MAGIC = 0x4a494331; // "JIC1"
+
+    //  OpenFile: an open cache file.
+    //  All the fields are guarded by the entry itself.
+    private static class OpenFile {
+
+        public final File path;
+        private RandomAccessFile _file = null;
+        private boolean _closed = false;
+
+        public OpenFile(File path) {
+            this.path = path;
+        }
+
+        // get: opens the file if needed.
+        //   Returns null if the entry has been evicted.
+        public RandomAccessFile get()
+            throws IOException {
+            if (_closed) return null;
+            if (_file == null) {
+                _file = new RandomAccessFile(this.path, "r");
+            }
+            return _file;
+        }
+
+        public synchronized void close() {
+            _closed = true;
+            if (_file != null) {
+                try {
+                    _file.close();
+                } catch (IOException e) {
+                    Logger.error("JarInfoCache: IOException", this.path);
+                }
+                _file = null;
+            }
+        }
+    }
+
+    private File _dir;
+    private JarFileCache _jarFiles;
+    private int _maxOpen = JarFileCache.DEFAULT_MAX_OPEN;
+    private LinkedHashMap<Index, OpenFile> _files =
+        new LinkedHashMap<Index, OpenFile>(16, 0.75f, true);
+
+    public JarInfoCache(File dir, JarFileCache jarFiles) {
+        _dir = dir;
+        _jarFiles = jarFiles;
+    }
+
+    @Override
+    public String toString() {
+        return ("<JarInfoCache("+_dir+")>");
+    }
+
+    public void setMaxOpen(int maxOpen) {
+        assert 0 < maxOpen;
+        List<OpenFile> evicted;
+        synchronized (this) {
+            _maxOpen = maxOpen;
+            evicted = this.evict();
+        }
+        closeAll(evicted);
+    }
+
+    // getIndex: returns the cached index of a .jar file.
+    //   The index is created if the file is not cached yet.
+    public Index getIndex(File file)
+        throws IOException {
+        File path = new File(_dir, this.getContentHash(file)+".jcache");
+        if (path.isFile()) {
+            try {
+                return new Index(this, path);
+            } catch (IOException e) {
+                Logger.error("JarInfoCache: broken cache:", path);
+            }
+        }
+        Logger.info("JarInfoCache: creating:", path, "for", file);
+        this.create(file, path);
+        return new Index(this, path);
+    }
+
+    public void close() {
+        List<OpenFile> files;
+        synchronized (this) {
+            files = new ArrayList<OpenFile>(_files.values());
+            _files.clear();
+        }
+        closeAll(files);
+    }
+
+    // read: reads a part of a cache file.
+    //   The file is kept open for the following reads.
+    private byte[] read(Index index, long pos, int length)
+        throws IOException {
+        while (true) {
+            OpenFile open = this.getOpenFile(index);
+            synchronized (open) {
+                RandomAccessFile file = open.get();
+                // The file was evicted in the meantime; open it again.
+                if (file == null) continue;
+                byte[] b = new byte[length];
+                file.seek(pos);
+                file.readFully(b);
+                return b;
+            }
+        }
+    }
+
+    // getOpenFile: finds or adds the entry for a cache file.
+    //   The file itself is opened later under the entry's lock.
+    private OpenFile getOpenFile(Index index) {
+        OpenFile open;
+        List<OpenFile> evicted = null;
+        synchronized (this) {
+            open = _files.get(index);
+            if (open == null) {
+                open = new OpenFile(index._path);
+                _files.put(index, open);
+                evicted = this.evict();
+            }
+        }
+        if (evicted != null) {
+            closeAll(evicted);
+        }
+        return open;
+    }
+
+    // evict: removes the least recently used entries.
+    //   They are closed by the caller outside the cache lock
+    //   because closing waits for the current reader.
+    private List<OpenFile> evict() {
+        List<OpenFile> evicted = new ArrayList<OpenFile>();
+        Iterator<OpenFile> it = _files.values().iterator();
+        while (_maxOpen < _files.size() && it.hasNext()) {
+            evicted.add(it.next());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private static void closeAll(List<OpenFile> files) {
+        for (OpenFile open : files) {
+            open.close();
+        }
+    }
+
+    private void create(File file, File path)
+        throws IOException {
+        List<String> entries = new ArrayList<String>();
+        List<byte[]> blobs = new ArrayList<byte[]>();
+        for (String entPath : _jarFiles.listEntries(file.getPath())) {
+            if (!entPath.endsWith(".class")) continue;
+            byte[] blob = null;
+            try {
+                JarClassInfo info = _jarFiles.getClassInfo(file.getPath(), entPath);
+                ByteArrayOutputStream b = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(b);
+                info.write(out);
+                out.close();
+                blob = b.toByteArray();
+            } catch (IOException e) {
+                // Keep the entry; the error will be reported when it is used.
+            } catch (RuntimeException e) {
+                // ClassFormatException, etc.
+            }
+            entries.add(entPath);
+            blobs.add(blob);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream hout = new DataOutputStream(header);
+        hout.writeInt(entries.size());
+        long offset = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] blob = blobs.get(i);
+            hout.writeUTF(entries.get(i));
+            hout.writeLong(offset);
+            hout.writeInt((blob == null)? -1 : blob.length);
+            if (blob != null) {
+                offset += blob.length;
+            }
+        }
+        hout.close();
+
+        _dir.mkdirs();
+        File tmp = File.createTempFile("jcache", ".tmp", _dir);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            for (byte[] blob : blobs) {
+                if (blob != null) {
+                    out.write(blob);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        // Replace the file at once so that a partial file is never read.
+        if (!tmp.renameTo(path)) {
+            tmp.delete();
+            throw new IOException("cannot create: "+path);
+        }
+    }
+
+    // getContentHash: returns the SHA-1 hash of the file content.
+    //   Hashing a large file takes time, so the hash is remembered
+    //   in a .stamp file along with the file size and timestamp.
+    private String getContentHash(File file)
+        throws IOException {
+        String fullPath = file.getCanonicalPath();
+        File stamp = new File(_dir, Utils.getSHA1(fullPath.getBytes("UTF-8"))+".stamp");
+        long size = file.length();
+        long mtime = file.lastModified();
+        if (stamp.isFile()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(stamp));
+            try {
+                if (in.readUTF().equals(fullPath) &&
+                    in.readLong() == size &&
+                    in.readLong() == mtime) {
+                    return in.readUTF();
+                }
+            } catch (IOException e) {
+                // Ignore a broken stamp.
+            } finally {
+                in.close();
+            }
+        }
+
+        String hash = Utils.getSHA1(file);
+
+        _dir.mkdirs();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(stamp));
+        try {
+            out.writeUTF(fullPath);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeUTF(hash);
+        } finally {
+            out.close();
+        }
+        return hash;
+    }
+
+    //  Index
+    //  Class entries of a cached .jar file.
+    //  The class info is read from the disk on demand.
+    public static class Index implements JarClassInfo.Source {
+
+        private JarInfoCache _cache;
+        private File _path;
+        private long _dataStart;
+        private List<String> _entries = new ArrayList<String>();
+        private Map<String, long[]> _entry2pos = new HashMap<String, long[]>();
+
+        public Index(JarInfoCache cache, File path)
+            throws IOException {
+            _cache = cache;
+            _path = path;
+            // EOFException, etc. is thrown for a broken file.
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path)));
+            byte[] header;
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("invalid cache: "+path);
+                }
+                header = new byte[in.readInt()];
+                in.readFully(header);
+            } finally {
+                in.close();
+            }
+            _dataStart = 8 + header.length;
+            in = new DataInputStream(new ByteArrayInputStream(header));
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String entPath = in.readUTF();
+                long offset = in.readLong();
+                int length = in.readInt();
+                _entries.add(entPath);
+                _entry2pos.put(entPath, new long[] { offset, length });
+            }
+        }
+
+        public List<String> getEntries() {
+            return _entries;
+        }
+
+        @Override
+        public JarClassInfo getClassInfo(String jarPath, String entPath)
+            throws IOException {
+            long[] pos = _entry2pos.get(entPath);
+            if (pos == null || pos[1] < 0) {
+                throw new IOException("not cached: "+jarPath+"/"+entPath);
+            }
+            byte[] blob = _cache.read(this, _dataStart + pos[0], (int)pos[1]);
+            return new JarClassInfo(
+                new DataInputStream(new ByteArrayInputStream(blob)));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import org.apache.bcel.classfile.*;
+
+
+//  JrtImage
+//  Runtime classes of JDK 9 or later, accessed via jrt:/ filesystem.
+//
+//  /packages/{package}/{module} lists the modules of each package,
+//  and /modules/{module}/{path}.class holds the actual class.
+//  Nothing is read from a module until its package is used.
+//
+public class JrtImage implements JarClassInfo.Source {
+
+    private FileSystem _fs;
+
+    public JrtImage()
+        throws IOException {
+        try {
+            _fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (ProviderNotFoundException e) {
+            throw new IOException("jrt:/ filesystem not available");
+        } catch (FileSystemNotFoundException e) {
+            throw new IOException("jrt:/ filesystem not available");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("<JrtImage>");
+    }
+
+    // getPackages: returns all the package names. (e.g. "java.lang")
+    public List<String> getPackages()
+        throws IOException {
+        List<String> names = new ArrayList<String>();
+        DirectoryStream<Path> ds = Files.newDirectoryStream(_fs.getPath("/packages"));
+        try {
+            for (Path path : ds) {
+                names.add(path.getFileName().toString());
+            }
+        } finally {
+            ds.close();
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // getModules: returns the module paths that have the given package.
+    //   (e.g. "/modules/java.base")
+    public List<String> getModules(String pkgName)
+        throws IOException {
+        List<String> modules = new ArrayList<String>();
+        Path dir = _fs.getPath("/packages", pkgName);
+        DirectoryStream<Path> ds = Files.newDirectoryStream(dir);
+        try {
+            for (Path path : ds) {
+                modules.add("/modules/"+path.getFileName().toString());
+            }
+        } finally {
+            ds.close();
+        }
+        Collections.sort(modules);
+        return modules;
+    }
+
+    // getEntries: returns the class files of the package in the module.
+    //   (e.g. "java/lang/String.class")
+    public List<String> getEntries(String modPath, String pkgName)
+        throws IOException {
+        List<String> entries = new ArrayList<String>();
+        String dirName = pkgName.replace('.', '/');
+        Path dir = _fs.getPath(modPath, dirName);
+        DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.class");
+        try {
+            for (Path path : ds) {
+                entries.add(dirName+"/"+path.getFileName().toString());
+            }
+        } finally {
+            ds.close();
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    @Override
+    public JarClassInfo getClassInfo(String modPath, String entPath)
+        throws IOException {
+        // Read the class directly from the image.
+        InputStream strm = Files.newInputStream(_fs.getPath(modPath, entPath));
+        try {
+            return new JarClassInfo(new ClassParser(strm, entPath).parse());
+        } finally {
+            strm.close();
+        }
+    }
+}
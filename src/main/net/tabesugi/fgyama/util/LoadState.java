@@ -0,0 +1,98 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+//  LoadState
+//  Makes something (such as a klass) loaded only once
+//  even when many threads touch it at the same time.
+//
+//  The first thread that calls begin() builds it and calls end().
+//  The other threads wait in begin() until it is loaded. When the
+//  builder itself comes back (a recursion within the build) or
+//  waiting would make a cycle between threads, begin() returns
+//  without waiting and the caller goes on with what is built so far,
+//  as a serial run does within a build.
+//  Everything written by the builder before end() is visible to
+//  the threads that see isLoaded() or return from begin().
+//
+//  Usage:
+//    if (state.isLoaded()) return;
+//    if (!state.begin()) return;
+//    try { ... } finally { state.end(); }
+//
+public class LoadState {
+
+    // The state that each thread is waiting for.
+    private static ConcurrentHashMap<Thread, LoadState> _waiting =
+        new ConcurrentHashMap<Thread, LoadState>();
+
+    private volatile boolean _loaded = false;
+    private volatile Thread _builder = null;
+
+    @Override
+    public String toString() {
+        return ("<LoadState("+(_loaded? "loaded" : _builder)+")>");
+    }
+
+    public boolean isLoaded() {
+        return _loaded;
+    }
+
+    // begin: returns true if the caller is to build it.
+    public synchronized boolean begin() {
+        Thread self = Thread.currentThread();
+        boolean interrupted = false;
+        try {
+            while (!_loaded) {
+                if (_builder == null) {
+                    _builder = self;
+                    return true;
+                }
+                if (_builder == self) return false;
+                // Register first so that one of the threads
+                // in a cycle always finds it.
+                _waiting.put(self, this);
+                if (this.isWaitedBy(self)) {
+                    _waiting.remove(self);
+                    return false;
+                }
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } finally {
+                    _waiting.remove(self);
+                }
+            }
+            return false;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // end: marks it loaded and wakes up the waiting threads.
+    public synchronized void end() {
+        assert _builder == Thread.currentThread();
+        _loaded = true;
+        _builder = null;
+        this.notifyAll();
+    }
+
+    // isWaitedBy: true if the builder is waiting for the thread.
+    private boolean isWaitedBy(Thread thread) {
+        Set<Thread> visited = new HashSet<Thread>();
+        Thread t = _builder;
+        while (t != null && visited.add(t)) {
+            if (t == thread) return true;
+            LoadState state = _waiting.get(t);
+            if (state == null) break;
+            t = state._builder;
+        }
+        return false;
+    }
+}
@@ -10,22 +10,30 @@ public class Logger {
 
     public static PrintStream out = System.err;
 
-    public static int LogLevel = 1;
+    // The level of a thread that has no universe.
+    public static final int DEFAULT_LEVEL = 1;
+
+    // getLevel: returns the level of the current universe.
+    //   (See DFTypeUniverse.setLogLevel)
+    public static int getLevel() {
+        DFTypeUniverse universe = DFTypeUniverse.findCurrent();
+        return (universe != null)? universe.getLogLevel() : DEFAULT_LEVEL;
+    }
 
     public static void debug(Object ... a) {
-        if (2 <= LogLevel) {
+        if (2 <= getLevel()) {
             println(a, Integer.MAX_VALUE);
         }
     }
 
     public static void info(Object ... a) {
-        if (1 <= LogLevel) {
+        if (1 <= getLevel()) {
             println(a, Integer.MAX_VALUE);
         }
     }
 
     public static void error(Object ... a) {
-        if (0 <= LogLevel) {
+        if (0 <= getLevel()) {
             println(a, Integer.MAX_VALUE);
         }
     }
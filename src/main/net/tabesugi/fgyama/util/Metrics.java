@@ -0,0 +1,335 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+
+//  Metrics
+//  Collects the time and memory used by each stage and
+//  each method graph, and writes them as JSON. (-M option)
+//
+//  Times are in milliseconds. The CPU time of a stage is
+//  the one of the whole process, so it includes the worker
+//  threads. The allocated bytes of a stage are the ones of
+//  the calling thread plus the graphs built by the workers.
+//
+//  Usage:
+//    1. s = startStage(name); ... s.addCount(key, n); ... endStage(s)
+//    2. task.measure(); ... addGraph(task.getRecord())
+//    3. save(file)
+//
+public class Metrics {
+
+    public static final int DEFAULT_TOP = 20;
+
+    private static ThreadMXBean _threadBean =
+        ManagementFactory.getThreadMXBean();
+    private static OperatingSystemMXBean _osBean =
+        ManagementFactory.getOperatingSystemMXBean();
+
+    //  Probe
+    //  Measures the current thread from its creation to stop().
+    public static class Probe {
+
+        private long _threadId;
+        private long _wallTime;
+        private long _cpuTime;
+        private long _allocated;
+        private boolean _stopped = false;
+
+        public Probe() {
+            _threadId = Thread.currentThread().getId();
+            _wallTime = System.nanoTime();
+            _cpuTime = getThreadCpuTime();
+            _allocated = getThreadAllocatedBytes();
+        }
+
+        public void stop() {
+            assert !_stopped;
+            assert _threadId == Thread.currentThread().getId();
+            _wallTime = System.nanoTime() - _wallTime;
+            _cpuTime = getThreadCpuTime() - _cpuTime;
+            _allocated = getThreadAllocatedBytes() - _allocated;
+            _stopped = true;
+        }
+
+        public long getThreadId() {
+            return _threadId;
+        }
+
+        // Returns the elapsed time in nanoseconds.
+        public long getWallTime() {
+            assert _stopped;
+            return _wallTime;
+        }
+
+        // Returns the CPU time in nanoseconds.
+        public long getCpuTime() {
+            assert _stopped;
+            return _cpuTime;
+        }
+
+        public long getAllocated() {
+            assert _stopped;
+            return _allocated;
+        }
+    }
+
+    //  Stage
+    //  A running stage.
+    public class Stage {
+
+        private String _name;
+        private Probe _probe;
+        private long _cpuTime;
+        private long _workerAllocated;
+        private Map<String, Long> _counts =
+            new LinkedHashMap<String, Long>();
+
+        private Stage(String name) {
+            _name = name;
+            _probe = new Probe();
+            _cpuTime = getProcessCpuTime();
+            _workerAllocated = getWorkerAllocated();
+        }
+
+        @Override
+        public String toString() {
+            return ("<Stage("+_name+")>");
+        }
+
+        public void addCount(String key, long n) {
+            Long v = _counts.get(key);
+            _counts.put(key, (v == null)? n : v+n);
+        }
+    }
+
+    //  StageRecord
+    //  The total of the stages with the same name.
+    private static class StageRecord {
+
+        public String name;
+        public int runs = 0;
+        public long wallTime = 0;
+        public long cpuTime = 0;
+        public long allocated = 0;
+        public long heapUsed = 0;
+        public Map<String, Long> counts =
+            new LinkedHashMap<String, Long>();
+
+        public StageRecord(String name) {
+            this.name = name;
+        }
+    }
+
+    //  GraphRecord
+    //  The statistics of a method graph.
+    public static class GraphRecord {
+
+        public int graphId;
+        public String method;
+        public Probe probe;
+        public int nodes = 0;
+        public int edges = 0;
+        public int frameDepth = 0;
+
+        public GraphRecord(DFMethod method, int graphId, Probe probe, DFGraph graph) {
+            this.graphId = graphId;
+            this.method = method.getSignature();
+            this.probe = probe;
+            if (graph != null) {
+                this.nodes = graph.getNodeCount();
+                this.edges = graph.getEdgeCount();
+                this.frameDepth = graph.getFrameDepth();
+            }
+        }
+    }
+
+    private int _top;
+    private long _threadId;
+    private long _startTime;
+    private long _workerAllocated = 0;
+    private Map<String, StageRecord> _stages =
+        new LinkedHashMap<String, StageRecord>();
+    private List<GraphRecord> _graphs =
+        new ArrayList<GraphRecord>();
+
+    public Metrics() {
+        this(DEFAULT_TOP);
+    }
+
+    public Metrics(int top) {
+        _top = top;
+        _threadId = Thread.currentThread().getId();
+        _startTime = System.nanoTime();
+        if (_threadBean.isThreadCpuTimeSupported()) {
+            _threadBean.setThreadCpuTimeEnabled(true);
+        }
+        if (_threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean)_threadBean;
+            if (bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("<Metrics("+_stages.size()+" stages, "+_graphs.size()+" graphs)>");
+    }
+
+    public synchronized Stage startStage(String name) {
+        return new Stage(name);
+    }
+
+    public synchronized void endStage(Stage stage) {
+        stage._probe.stop();
+        StageRecord rec = _stages.get(stage._name);
+        if (rec == null) {
+            rec = new StageRecord(stage._name);
+            _stages.put(stage._name, rec);
+        }
+        rec.runs++;
+        rec.wallTime += stage._probe.getWallTime();
+        rec.cpuTime += getProcessCpuTime() - stage._cpuTime;
+        rec.allocated += (stage._probe.getAllocated() +
+                          _workerAllocated - stage._workerAllocated);
+        Runtime rt = Runtime.getRuntime();
+        rec.heapUsed = rt.totalMemory() - rt.freeMemory();
+        for (Map.Entry<String, Long> e : stage._counts.entrySet()) {
+            Long v = rec.counts.get(e.getKey());
+            rec.counts.put(e.getKey(), (v == null)? e.getValue() : v+e.getValue());
+        }
+    }
+
+    // addWorker: adds the memory allocated by another thread.
+    public synchronized void addWorker(Probe probe) {
+        if (probe.getThreadId() != _threadId) {
+            _workerAllocated += probe.getAllocated();
+        }
+    }
+
+    public synchronized void addGraph(GraphRecord rec) {
+        if (rec == null) return;
+        this.addWorker(rec.probe);
+        _graphs.add(rec);
+    }
+
+    private synchronized long getWorkerAllocated() {
+        return _workerAllocated;
+    }
+
+    public void save(File file)
+        throws IOException {
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            this.write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public synchronized void write(Writer writer)
+        throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.println("  \"java\": "+quote(System.getProperty("java.version"))+",");
+        out.println("  \"wallTime\": "+ms(System.nanoTime() - _startTime)+",");
+        out.println("  \"cpuTime\": "+ms(getProcessCpuTime())+",");
+        out.println("  \"stages\": [");
+        int i = 0;
+        for (StageRecord rec : _stages.values()) {
+            out.print("    {\"name\": "+quote(rec.name)+
+                      ", \"runs\": "+rec.runs+
+                      ", \"wallTime\": "+ms(rec.wallTime)+
+                      ", \"cpuTime\": "+ms(rec.cpuTime)+
+                      ", \"allocatedBytes\": "+rec.allocated+
+                      ", \"heapUsedBytes\": "+rec.heapUsed+
+                      ", \"counts\": {");
+            int j = 0;
+            for (Map.Entry<String, Long> e : rec.counts.entrySet()) {
+                if (0 < j++) out.print(", ");
+                out.print(quote(e.getKey())+": "+e.getValue());
+            }
+            out.println("}}"+((++i < _stages.size())? "," : ""));
+        }
+        out.println("  ],");
+        // The slowest methods first.
+        List<GraphRecord> slowest = new ArrayList<GraphRecord>(_graphs);
+        Collections.sort(slowest, new Comparator<GraphRecord>() {
+            public int compare(GraphRecord rec0, GraphRecord rec1) {
+                return Long.compare(rec1.probe.getWallTime(), rec0.probe.getWallTime());
+            }
+        });
+        if (_top < slowest.size()) {
+            slowest = slowest.subList(0, _top);
+        }
+        out.println("  \"slowest\": [");
+        this.writeGraphs(out, slowest);
+        out.println("  ],");
+        out.println("  \"graphs\": [");
+        this.writeGraphs(out, _graphs);
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private void writeGraphs(PrintWriter out, List<GraphRecord> graphs) {
+        int i = 0;
+        for (GraphRecord rec : graphs) {
+            out.println("    {\"id\": "+rec.graphId+
+                        ", \"method\": "+quote(rec.method)+
+                        ", \"wallTime\": "+ms(rec.probe.getWallTime())+
+                        ", \"cpuTime\": "+ms(rec.probe.getCpuTime())+
+                        ", \"allocatedBytes\": "+rec.probe.getAllocated()+
+                        ", \"nodes\": "+rec.nodes+
+                        ", \"edges\": "+rec.edges+
+                        ", \"frameDepth\": "+rec.frameDepth+"}"+
+                        ((++i < graphs.size())? "," : ""));
+        }
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.3f", nanos/1e6);
+    }
+
+    private static String quote(String s) {
+        StringBuilder b = new StringBuilder();
+        b.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\');
+                b.append(c);
+            } else if (c < 32 || 127 <= c) {
+                b.append(String.format("\\u%04x", (int)c));
+            } else {
+                b.append(c);
+            }
+        }
+        b.append('"');
+        return b.toString();
+    }
+
+    private static long getThreadCpuTime() {
+        if (!_threadBean.isCurrentThreadCpuTimeSupported()) return 0;
+        return _threadBean.getCurrentThreadCpuTime();
+    }
+
+    private static long getThreadAllocatedBytes() {
+        if (!(_threadBean instanceof com.sun.management.ThreadMXBean)) return 0;
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)_threadBean;
+        if (!bean.isThreadAllocatedMemoryEnabled()) return 0;
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getProcessCpuTime() {
+        if (!(_osBean instanceof com.sun.management.OperatingSystemMXBean)) return 0;
+        return ((com.sun.management.OperatingSystemMXBean)_osBean).getProcessCpuTime();
+    }
+}
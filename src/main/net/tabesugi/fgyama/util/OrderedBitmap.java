@@ -0,0 +1,84 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+
+
+//  OrderedBitmap
+//  A SparseBitmap that also remembers the order
+//  in which the elements were first added.
+//
+//  The set operations are done on the bitmap, and the order
+//  is only consulted for the elements that are actually added.
+//
+public class OrderedBitmap {
+
+    private SparseBitmap _bits = new SparseBitmap();
+    private int[] _order = new int[4];
+    private int _size = 0;
+
+    @Override
+    public String toString() {
+        return ("<OrderedBitmap "+Arrays.toString(this.toArray())+">");
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public SparseBitmap getBits() {
+        return _bits;
+    }
+
+    public boolean contains(int v) {
+        return _bits.contains(v);
+    }
+
+    public boolean add(int v) {
+        if (_bits.contains(v)) return false;
+        _bits.add(v);
+        this.append(v);
+        return true;
+    }
+
+    // or: adds the elements of b that are not here yet,
+    //   in the order they were added to b.
+    public void or(OrderedBitmap b) {
+        SparseBitmap diff = b._bits.andNot(_bits);
+        if (diff.isEmpty()) return;
+        for (int i = 0; i < b._size; i++) {
+            int v = b._order[i];
+            if (diff.contains(v)) {
+                this.append(v);
+            }
+        }
+        _bits.or(diff);
+    }
+
+    // andNot: returns the elements that are not in b,
+    //   in the order they were added.
+    public int[] andNot(SparseBitmap b) {
+        SparseBitmap diff = _bits.andNot(b);
+        int[] a = new int[diff.cardinality()];
+        int n = 0;
+        for (int i = 0; i < _size && n < a.length; i++) {
+            int v = _order[i];
+            if (diff.contains(v)) {
+                a[n++] = v;
+            }
+        }
+        return a;
+    }
+
+    // toArray: returns the elements in the order they were added.
+    public int[] toArray() {
+        return Arrays.copyOf(_order, _size);
+    }
+
+    private void append(int v) {
+        if (_size == _order.length) {
+            _order = Arrays.copyOf(_order, _size*2);
+        }
+        _order[_size++] = v;
+    }
+}
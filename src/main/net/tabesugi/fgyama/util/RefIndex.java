@@ -0,0 +1,57 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+
+
+//  RefIndex
+//  Gives a dense id to each DFRef in the order they are seen,
+//  so that a set of DFRefs can be a SparseBitmap.
+//  The ids never change once given, so a bitmap stays valid
+//  as long as the index is kept.
+//
+public class RefIndex {
+
+    private Map<DFRef, Integer> _ref2id = new HashMap<DFRef, Integer>();
+    private List<DFRef> _refs = new ArrayList<DFRef>();
+
+    @Override
+    public String toString() {
+        return ("<RefIndex("+_refs.size()+" refs)>");
+    }
+
+    public int size() {
+        return _refs.size();
+    }
+
+    public int getId(DFRef ref) {
+        Integer id = _ref2id.get(ref);
+        if (id == null) {
+            id = _refs.size();
+            _refs.add(ref);
+            _ref2id.put(ref, id);
+        }
+        return id;
+    }
+
+    public DFRef getRef(int id) {
+        return _refs.get(id);
+    }
+
+    public SparseBitmap toBitmap(Collection<DFRef> refs) {
+        SparseBitmap bits = new SparseBitmap();
+        for (DFRef ref : refs) {
+            bits.add(this.getId(ref));
+        }
+        return bits;
+    }
+
+    // toRefs: decodes the ids in the given order.
+    public List<DFRef> toRefs(int[] ids) {
+        List<DFRef> refs = new ArrayList<DFRef>(ids.length);
+        for (int id : ids) {
+            refs.add(_refs.get(id));
+        }
+        return refs;
+    }
+}
@@ -1,143 +1,233 @@
-//  SCCFinder.java
-//
-package net.tabesugi.fgyama;
-import java.io.*;
-import java.util.*;
-import java.util.function.*;
-
-public class SCCFinder<T> {
-
-    public class SCC {
-
-        public int cid;
-        public List<T> items;
-        public List<SCC> to = new ArrayList<SCC>();
-        public List<SCC> from = new ArrayList<SCC>();
-        private boolean _fixated = false;
-
-        public SCC(int cid, List<T> items) {
-            this.cid = cid;
-            this.items = items;
-        }
-
-        @Override
-        public String toString() {
-            return "<C"+this.cid+":"+this.items+">";
-        }
-
-        private void fixate() {
-            if (_fixated) return;
-            _fixated = true;
-            for (T v0 : items) {
-                for (T v1 : _mapper.get(v0)) {
-                    SCC scc = _item2scc.get(v1);
-                    if (scc != this) {
-                        this.to.add(scc);
-                        scc.from.add(this);
-                    }
-                }
-            }
-        }
-    }
-
-    interface Mapper<T> {
-        Collection<T> get(T n);
-    }
-    private Mapper<T> _mapper;
-
-    private ConsistentHashSet<T> _stack = new ConsistentHashSet<T>();
-    private Map<T, Integer> _nodenum = new HashMap<T, Integer>();
-    private Map<T, Integer> _lowlink = new HashMap<T, Integer>();
-    private List<SCC> _sccs = new ArrayList<SCC>();
-    private Map<T, SCC> _item2scc = new HashMap<T, SCC>();
-
-    public SCCFinder(Mapper<T> mapper) {
-        _mapper = mapper;
-    }
-
-    public void add(T[] items) {
-        for (T v : items) {
-            this.add(v);
-        }
-    }
-
-    public void add(Iterable<T> items) {
-        for (T v : items) {
-            this.add(v);
-        }
-    }
-
-    public void add(T v0) {
-        if (_nodenum.containsKey(v0)) return;
-        int index = _nodenum.size()+1;
-        _stack.add(v0);
-        _nodenum.put(v0, index);
-        _lowlink.put(v0, index);
-        for (T v1 : _mapper.get(v0)) {
-            if (!_nodenum.containsKey(v1)) {
-                this.add(v1);   // recursive DFS.
-                _lowlink.put(v0, Math.min(_lowlink.get(v0), _lowlink.get(v1)));
-            } else if (_stack.contains(v1)) {
-                _lowlink.put(v0, Math.min(_lowlink.get(v0), _nodenum.get(v1)));
-            }
-        }
-        if (_nodenum.get(v0) == _lowlink.get(v0)) {
-            List<T> items = new ArrayList<T>();
-            while (true) {
-                T v = _stack.get(_stack.size()-1);
-                _stack.remove(v);
-                items.add(v);
-                if (v == v0) break;
-            }
-            int cid = _sccs.size()+1;
-            SCC scc = new SCC(cid, items);
-            _sccs.add(scc);
-            for (T v : items) {
-                _item2scc.put(v, scc);
-            }
-        }
-    }
-
-    public List<SCC> getSCCs() {
-        for (SCC scc : _sccs) {
-            scc.fixate();
-        }
-        return _sccs;
-    }
-
-    public static void main(String[] args) {
-        class V {
-            String name;
-            List<V> to = new ArrayList<V>();
-            V(String name) { this.name = name; }
-            void linkTo(V v) { this.to.add(v); }
-            @Override
-            public String toString() {
-                return "<"+this.name+">";
-            }
-        };
-        SCCFinder<V> f = new SCCFinder<V>(v -> v.to);
-        V[] v = new V[] {
-            new V("v0"), new V("v1"), new V("v2"), new V("v3"),
-            new V("v4"), new V("v5"), new V("v6"), new V("v7"),
-        };
-        v[0].linkTo(v[1]);
-        v[1].linkTo(v[2]);
-        v[2].linkTo(v[0]);
-        v[3].linkTo(v[1]);
-        v[3].linkTo(v[2]);
-        v[3].linkTo(v[4]);
-        v[4].linkTo(v[3]);
-        v[4].linkTo(v[5]);
-        v[5].linkTo(v[2]);
-        v[5].linkTo(v[6]);
-        v[6].linkTo(v[5]);
-        v[7].linkTo(v[4]);
-        v[7].linkTo(v[6]);
-        v[7].linkTo(v[7]);
-        f.add(v);
-        for (SCCFinder<V>.SCC scc : f.getSCCs()) {
-            System.out.println(scc);
-        }
-    }
-}
+//  SCCFinder.java
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+
+//  SCCFinder
+//  Finds the strongly connected components with Tarjan's algorithm.
+//
+//  The DFS uses an explicit stack, so a long chain of items
+//  does not overflow the Java stack. Each item is given a dense id
+//  and the states are kept in int arrays.
+//  The SCCs are listed in the reverse topological order:
+//  an SCC comes after all the SCCs reachable from it.
+//
+public class SCCFinder<T> {
+
+    public class SCC {
+
+        public int cid;
+        public List<T> items;
+        public List<SCC> to = new ArrayList<SCC>();
+        public List<SCC> from = new ArrayList<SCC>();
+        private int[] _ids;
+        private boolean _fixated = false;
+
+        public SCC(int cid, List<T> items, int[] ids) {
+            this.cid = cid;
+            this.items = items;
+            _ids = ids;
+        }
+
+        @Override
+        public String toString() {
+            return "<C"+this.cid+":"+this.items+">";
+        }
+
+        private void fixate(int[] start, int[] adj) {
+            if (_fixated) return;
+            _fixated = true;
+            for (int id0 : _ids) {
+                for (int e = start[id0]; e < start[id0+1]; e++) {
+                    SCC scc = _sccs.get(_sccIndex[adj[e]]);
+                    if (scc != this) {
+                        this.to.add(scc);
+                        scc.from.add(this);
+                    }
+                }
+            }
+        }
+    }
+
+    public interface Mapper<T> {
+        Collection<T> get(T n);
+    }
+    private Mapper<T> _mapper;
+
+    // Items and their states. (indexed by id)
+    private Map<T, Integer> _item2id = new HashMap<T, Integer>();
+    private List<T> _items = new ArrayList<T>();
+    private int[] _lowlink = new int[16];
+    private int[] _sccIndex = new int[16]; // -1 while on the stack.
+
+    // Tarjan's stack.
+    private int[] _stack = new int[16];
+    private int _stackSize = 0;
+
+    // DFS stack.
+    private int[] _frames = new int[16];
+    private List<Iterator<T>> _iters = new ArrayList<Iterator<T>>();
+
+    // Edges in the order found.
+    private int[] _edgeSrc = new int[16];
+    private int[] _edgeDst = new int[16];
+    private int _nedges = 0;
+
+    private List<SCC> _sccs = new ArrayList<SCC>();
+
+    public SCCFinder(Mapper<T> mapper) {
+        _mapper = mapper;
+    }
+
+    public void add(T[] items) {
+        for (T v : items) {
+            this.add(v);
+        }
+    }
+
+    public void add(Iterable<T> items) {
+        for (T v : items) {
+            this.add(v);
+        }
+    }
+
+    public void add(T v0) {
+        if (_item2id.containsKey(v0)) return;
+        this.visit(v0);
+        while (!_iters.isEmpty()) {
+            int depth = _iters.size()-1;
+            int id0 = _frames[depth];
+            Iterator<T> it = _iters.get(depth);
+            if (it.hasNext()) {
+                T v1 = it.next();
+                Integer id1 = _item2id.get(v1);
+                if (id1 == null) {
+                    // Go deeper.
+                    this.addEdge(id0, this.visit(v1));
+                } else {
+                    this.addEdge(id0, id1);
+                    if (_sccIndex[id1] < 0) {
+                        _lowlink[id0] = Math.min(_lowlink[id0], id1);
+                    }
+                }
+                continue;
+            }
+            // Return from id0.
+            _iters.remove(depth);
+            if (_lowlink[id0] == id0) {
+                this.popSCC(id0);
+            }
+            if (0 < depth) {
+                int parent = _frames[depth-1];
+                _lowlink[parent] = Math.min(_lowlink[parent], _lowlink[id0]);
+            }
+        }
+    }
+
+    private int visit(T v) {
+        int id = _items.size();
+        _items.add(v);
+        _item2id.put(v, id);
+        _lowlink = grow(_lowlink, id+1);
+        _sccIndex = grow(_sccIndex, id+1);
+        _lowlink[id] = id;
+        _sccIndex[id] = -1;
+        _stack = grow(_stack, _stackSize+1);
+        _stack[_stackSize++] = id;
+        _frames = grow(_frames, _iters.size()+1);
+        _frames[_iters.size()] = id;
+        _iters.add(_mapper.get(v).iterator());
+        return id;
+    }
+
+    private void addEdge(int src, int dst) {
+        _edgeSrc = grow(_edgeSrc, _nedges+1);
+        _edgeDst = grow(_edgeDst, _nedges+1);
+        _edgeSrc[_nedges] = src;
+        _edgeDst[_nedges] = dst;
+        _nedges++;
+    }
+
+    private void popSCC(int id0) {
+        int index = _sccs.size();
+        int i = _stackSize;
+        while (_stack[--i] != id0) {
+        }
+        int[] ids = new int[_stackSize-i];
+        List<T> items = new ArrayList<T>(ids.length);
+        for (int j = 0; j < ids.length; j++) {
+            // The top of the stack first.
+            int id = _stack[_stackSize-1-j];
+            ids[j] = id;
+            items.add(_items.get(id));
+            _sccIndex[id] = index;
+        }
+        _stackSize = i;
+        _sccs.add(new SCC(index+1, items, ids));
+    }
+
+    private static int[] grow(int[] a, int n) {
+        if (n <= a.length) return a;
+        return Arrays.copyOf(a, Math.max(n, a.length*2));
+    }
+
+    public List<SCC> getSCCs() {
+        // Group the edges by their sources, keeping the order.
+        int n = _items.size();
+        int[] start = new int[n+1];
+        for (int e = 0; e < _nedges; e++) {
+            start[_edgeSrc[e]+1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            start[i+1] += start[i];
+        }
+        int[] pos = Arrays.copyOf(start, n);
+        int[] adj = new int[_nedges];
+        for (int e = 0; e < _nedges; e++) {
+            adj[pos[_edgeSrc[e]]++] = _edgeDst[e];
+        }
+        for (SCC scc : _sccs) {
+            scc.fixate(start, adj);
+        }
+        return _sccs;
+    }
+
+    public static void main(String[] args) {
+        class V {
+            String name;
+            List<V> to = new ArrayList<V>();
+            V(String name) { this.name = name; }
+            void linkTo(V v) { this.to.add(v); }
+            @Override
+            public String toString() {
+                return "<"+this.name+">";
+            }
+        };
+        SCCFinder<V> f = new SCCFinder<V>(v -> v.to);
+        V[] v = new V[] {
+            new V("v0"), new V("v1"), new V("v2"), new V("v3"),
+            new V("v4"), new V("v5"), new V("v6"), new V("v7"),
+        };
+        v[0].linkTo(v[1]);
+        v[1].linkTo(v[2]);
+        v[2].linkTo(v[0]);
+        v[3].linkTo(v[1]);
+        v[3].linkTo(v[2]);
+        v[3].linkTo(v[4]);
+        v[4].linkTo(v[3]);
+        v[4].linkTo(v[5]);
+        v[5].linkTo(v[2]);
+        v[5].linkTo(v[6]);
+        v[6].linkTo(v[5]);
+        v[7].linkTo(v[4]);
+        v[7].linkTo(v[6]);
+        v[7].linkTo(v[7]);
+        f.add(v);
+        for (SCCFinder<V>.SCC scc : f.getSCCs()) {
+            System.out.println(scc);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+
+
+//  SparseBitmap
+//  A set of non-negative ints stored as 64-bit words.
+//
+//  Only the non-zero words are kept, sorted by their positions,
+//  so a set of a few large ids stays small. Union and difference
+//  merge the words of two bitmaps a word at a time.
+//
+public class SparseBitmap {
+
+    private int[] _keys;     // word positions (ascending)
+    private long[] _words;   // non-zero words
+    private int _nwords = 0;
+
+    public SparseBitmap() {
+        _keys = new int[4];
+        _words = new long[4];
+    }
+
+    private SparseBitmap(int[] keys, long[] words, int nwords) {
+        _keys = keys;
+        _words = words;
+        _nwords = nwords;
+    }
+
+    @Override
+    public String toString() {
+        return ("<SparseBitmap "+Arrays.toString(this.toArray())+">");
+    }
+
+    public boolean isEmpty() {
+        return (_nwords == 0);
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < _nwords; i++) {
+            n += Long.bitCount(_words[i]);
+        }
+        return n;
+    }
+
+    public boolean contains(int v) {
+        int i = Arrays.binarySearch(_keys, 0, _nwords, v >>> 6);
+        return (0 <= i && (_words[i] & (1L << v)) != 0);
+    }
+
+    public void add(int v) {
+        assert 0 <= v;
+        int k = v >>> 6;
+        int i;
+        if (0 < _nwords && _keys[_nwords-1] < k) {
+            // Appending is the common case.
+            i = -_nwords-1;
+        } else {
+            i = Arrays.binarySearch(_keys, 0, _nwords, k);
+        }
+        if (i < 0) {
+            i = -i-1;
+            if (_nwords == _keys.length) {
+                _keys = Arrays.copyOf(_keys, _nwords*2);
+                _words = Arrays.copyOf(_words, _nwords*2);
+            }
+            System.arraycopy(_keys, i, _keys, i+1, _nwords-i);
+            System.arraycopy(_words, i, _words, i+1, _nwords-i);
+            _keys[i] = k;
+            _words[i] = 0;
+            _nwords++;
+        }
+        _words[i] |= (1L << v);
+    }
+
+    // or: adds all the elements of b.
+    public void or(SparseBitmap b) {
+        if (b._nwords == 0) return;
+        int n = _nwords + b._nwords;
+        int[] keys = new int[n];
+        long[] words = new long[n];
+        int i = 0, j = 0, m = 0;
+        while (i < _nwords && j < b._nwords) {
+            int k0 = _keys[i], k1 = b._keys[j];
+            if (k0 < k1) {
+                keys[m] = k0;
+                words[m++] = _words[i++];
+            } else if (k1 < k0) {
+                keys[m] = k1;
+                words[m++] = b._words[j++];
+            } else {
+                keys[m] = k0;
+                words[m++] = _words[i++] | b._words[j++];
+            }
+        }
+        for (; i < _nwords; i++, m++) {
+            keys[m] = _keys[i];
+            words[m] = _words[i];
+        }
+        for (; j < b._nwords; j++, m++) {
+            keys[m] = b._keys[j];
+            words[m] = b._words[j];
+        }
+        _keys = keys;
+        _words = words;
+        _nwords = m;
+    }
+
+    // andNot: returns the elements that are not in b.
+    public SparseBitmap andNot(SparseBitmap b) {
+        int[] keys = new int[Math.max(1, _nwords)];
+        long[] words = new long[Math.max(1, _nwords)];
+        int j = 0, m = 0;
+        for (int i = 0; i < _nwords; i++) {
+            int k = _keys[i];
+            long w = _words[i];
+            while (j < b._nwords && b._keys[j] < k) j++;
+            if (j < b._nwords && b._keys[j] == k) {
+                w &= ~b._words[j];
+            }
+            if (w != 0) {
+                keys[m] = k;
+                words[m++] = w;
+            }
+        }
+        return new SparseBitmap(keys, words, m);
+    }
+
+    // toArray: returns the elements in ascending order.
+    public int[] toArray() {
+        int[] a = new int[this.cardinality()];
+        int n = 0;
+        for (int i = 0; i < _nwords; i++) {
+            int base = _keys[i] << 6;
+            long w = _words[i];
+            while (w != 0) {
+                a[n++] = base + Long.numberOfTrailingZeros(w);
+                w &= w-1;
+            }
+        }
+        return a;
+    }
+}
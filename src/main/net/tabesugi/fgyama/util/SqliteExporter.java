@@ -0,0 +1,468 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+
+//  SqliteExporter
+//  Writes the graphs into an SQLite database. (-Q option)
+//
+//  The tables are the same as the ones of tools/graph2index.py,
+//  and so are the rows and their ids, so the database can be
+//  used by the tools without converting the XML.
+//  The graphs are written with the same writeXML() methods
+//  through GraphWriter, which collects each method and
+//  adds its rows to the batches of the prepared statements.
+//  The batches are executed in one transaction per klass,
+//  and the indices are created at the end.
+//
+public class SqliteExporter extends Exporter {
+
+    private static final String[] TABLES = {
+        "CREATE TABLE IF NOT EXISTS ASTNode (" +
+        " Aid INTEGER PRIMARY KEY, Type INTEGER, Start INTEGER, End INTEGER)",
+        "CREATE TABLE IF NOT EXISTS DFKlass (" +
+        " Kid INTEGER PRIMARY KEY, Name TEXT, Path TEXT, Interface INTEGER," +
+        " Extends TEXT, Implements TEXT, Generic INTEGER)",
+        "CREATE TABLE IF NOT EXISTS DFMethod (" +
+        " Mid INTEGER PRIMARY KEY, Kid INTEGER, Name TEXT, Style TEXT)",
+        "CREATE TABLE IF NOT EXISTS DFFuncCall (" +
+        " Name TEXT, Nid INTEGER)",
+        "CREATE TABLE IF NOT EXISTS DFScope (" +
+        " Sid INTEGER PRIMARY KEY, Mid INTEGER, Parent INTEGER, Name TEXT)",
+        "CREATE TABLE IF NOT EXISTS DFNode (" +
+        " Nid INTEGER PRIMARY KEY, Mid INTEGER, Sid INTEGER, Aid INTEGER," +
+        " Kind TEXT, Rid INTEGER, Data TEXT, Type TEXT)",
+        "CREATE TABLE IF NOT EXISTS DFRef (" +
+        " Rid INTEGER PRIMARY KEY, Name TEXT)",
+        "CREATE TABLE IF NOT EXISTS DFLink (" +
+        " Lid INTEGER PRIMARY KEY, Nid0 INTEGER, Nid1 INTEGER, Label TEXT)",
+    };
+
+    private static final String[] INDICES = {
+        "CREATE INDEX IF NOT EXISTS DFKlassNameIndex ON DFKlass(Name)",
+        "CREATE INDEX IF NOT EXISTS DFMethodKidIndex ON DFMethod(Kid)",
+        "CREATE INDEX IF NOT EXISTS DFMethodNameIndex ON DFMethod(Name)",
+        "CREATE INDEX IF NOT EXISTS DFScopeMidIndex ON DFScope(Mid)",
+        "CREATE INDEX IF NOT EXISTS DFNodeMidIndex ON DFNode(Mid)",
+        "CREATE INDEX IF NOT EXISTS DFRefNameIndex ON DFRef(Name)",
+        "CREATE INDEX IF NOT EXISTS DFLinkNid0Index ON DFLink(Nid0)",
+    };
+
+    private Connection _conn;
+    private PreparedStatement _insertAST;
+    private PreparedStatement _insertKlass;
+    private PreparedStatement _insertMethod;
+    private PreparedStatement _insertFuncCall;
+    private PreparedStatement _insertScope;
+    private PreparedStatement _insertNode;
+    private PreparedStatement _insertRef;
+    private PreparedStatement _insertLink;
+
+    private DFKlass _klass = null;
+    private int _baseId = 1;
+    private GraphWriter _writer = null;
+
+    // The last ids of the rows.
+    private int _lastAid = 0;
+    private int _lastKid = 0;
+    private int _lastMid = 0;
+    private int _lastSid = 0;
+    private int _lastNid = 0;
+    private int _lastLid = 0;
+    private Map<String, Integer> _rids =
+        new HashMap<String, Integer>();
+
+    // The database is always created anew.
+    public SqliteExporter(File file)
+        throws SQLException {
+        if (file.exists()) {
+            file.delete();
+        }
+        _conn = DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+        Statement stmt = _conn.createStatement();
+        try {
+            for (String sql : TABLES) {
+                stmt.executeUpdate(sql);
+            }
+        } finally {
+            stmt.close();
+        }
+        _conn.setAutoCommit(false);
+        _insertAST = _conn.prepareStatement(
+            "INSERT INTO ASTNode VALUES (?,?,?,?)");
+        _insertKlass = _conn.prepareStatement(
+            "INSERT INTO DFKlass VALUES (?,?,?,?,?,?,?)");
+        _insertMethod = _conn.prepareStatement(
+            "INSERT INTO DFMethod VALUES (?,?,?,?)");
+        _insertFuncCall = _conn.prepareStatement(
+            "INSERT INTO DFFuncCall VALUES (?,?)");
+        _insertScope = _conn.prepareStatement(
+            "INSERT INTO DFScope VALUES (?,?,?,?)");
+        _insertNode = _conn.prepareStatement(
+            "INSERT INTO DFNode VALUES (?,?,?,?,?,?,?,?)");
+        _insertRef = _conn.prepareStatement(
+            "INSERT INTO DFRef VALUES (?,?)");
+        _insertLink = _conn.prepareStatement(
+            "INSERT INTO DFLink VALUES (?,?,?,?)");
+    }
+
+    @Override
+    public void close() {
+        assert _klass == null;
+        try {
+            Statement stmt = _conn.createStatement();
+            try {
+                for (String sql : INDICES) {
+                    stmt.executeUpdate(sql);
+                }
+            } finally {
+                stmt.close();
+            }
+            _conn.commit();
+            _conn.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void startKlass(DFKlass klass) {
+        assert _klass == null;
+        _klass = klass;
+        _writer = new GraphWriter();
+        try {
+            _writer.writeStartElement("class");
+            klass.writeXML(_writer);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void endKlass() {
+        assert _klass != null;
+        try {
+            _writer.writeEndElement();
+            _insertAST.executeBatch();
+            _insertKlass.executeBatch();
+            _insertMethod.executeBatch();
+            _insertFuncCall.executeBatch();
+            _insertScope.executeBatch();
+            _insertNode.executeBatch();
+            _insertRef.executeBatch();
+            _insertLink.executeBatch();
+            _conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+        _writer = null;
+        _klass = null;
+    }
+
+    @Override
+    public void writeMethod(DFMethod method)
+        throws InvalidSyntax, EntityNotFound {
+        this.writeMethod(new DFGraphTask(method, _baseId));
+    }
+
+    @Override
+    public int getNextGraphId() {
+        return _baseId;
+    }
+
+    @Override
+    public void writeMethod(DFGraphTask task)
+        throws InvalidSyntax, EntityNotFound {
+        assert _klass != null;
+        assert task.getGraphId() == _baseId;
+        _baseId++;
+        try {
+            _writer.writeStartElement("method");
+            try {
+                task.getMethod().writeXML(_writer, task);
+            } finally {
+                _writer.writeEndElement();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // addKlass: adds a klass row. (as graph2index.py does,
+    //   only a klass with methods is added.)
+    private int addKlass(Map<String, String> attrs)
+        throws SQLException {
+        int kid = ++_lastKid;
+        String impls = attrs.get("implements");
+        _insertKlass.setInt(1, kid);
+        _insertKlass.setString(2, attrs.get("name"));
+        _insertKlass.setString(3, attrs.get("path"));
+        _insertKlass.setInt(4, "true".equals(attrs.get("interface"))? 1 : 0);
+        _insertKlass.setString(5, attrs.get("extends"));
+        _insertKlass.setString(6, (impls == null)? "" : String.join(" ", splitWords(impls)));
+        _insertKlass.setString(7, attrs.get("generic"));
+        _insertKlass.addBatch();
+        return kid;
+    }
+
+    // addMethod: adds the rows of a method.
+    private void addMethod(int kid, MethodRows method)
+        throws SQLException, XMLStreamException {
+        int mid = ++_lastMid;
+        _insertMethod.setInt(1, mid);
+        _insertMethod.setInt(2, kid);
+        _insertMethod.setString(3, method.name);
+        _insertMethod.setString(4, method.style);
+        _insertMethod.addBatch();
+        if (method.root == null) return;
+        this.addScope(mid, method.root, 0);
+        for (NodeRow node : method.nodes.values()) {
+            for (Map.Entry<String, String> e : node.inputs.entrySet()) {
+                NodeRow src = method.nodes.get(e.getValue());
+                if (src == null) {
+                    throw new XMLStreamException("unknown node: "+e.getValue());
+                }
+                _insertLink.setInt(1, ++_lastLid);
+                _insertLink.setInt(2, node.nid);
+                _insertLink.setInt(3, src.nid);
+                _insertLink.setString(4, e.getKey());
+                _insertLink.addBatch();
+            }
+        }
+    }
+
+    // addScope: adds a scope, its nodes and then its children.
+    private void addScope(int mid, ScopeRows scope, int parent)
+        throws SQLException {
+        int sid = ++_lastSid;
+        _insertScope.setInt(1, sid);
+        _insertScope.setInt(2, mid);
+        _insertScope.setInt(3, parent);
+        _insertScope.setString(4, scope.name);
+        _insertScope.addBatch();
+        for (NodeRow node : scope.nodes) {
+            this.addNode(mid, sid, node);
+        }
+        for (ScopeRows child : scope.children) {
+            this.addScope(mid, child, sid);
+        }
+    }
+
+    private void addNode(int mid, int sid, NodeRow node)
+        throws SQLException {
+        int aid = 0;
+        if (node.ast != null) {
+            aid = ++_lastAid;
+            _insertAST.setInt(1, aid);
+            _insertAST.setInt(2, node.ast[0]);
+            _insertAST.setInt(3, node.ast[1]);
+            _insertAST.setInt(4, node.ast[2]);
+            _insertAST.addBatch();
+        }
+        int rid = 0;
+        if (node.ref != null) {
+            Integer i = _rids.get(node.ref);
+            if (i == null) {
+                i = _rids.size()+1;
+                _rids.put(node.ref, i);
+                _insertRef.setInt(1, i);
+                _insertRef.setString(2, node.ref);
+                _insertRef.addBatch();
+            }
+            rid = i;
+        }
+        node.nid = ++_lastNid;
+        _insertNode.setInt(1, node.nid);
+        _insertNode.setInt(2, mid);
+        _insertNode.setInt(3, sid);
+        _insertNode.setInt(4, aid);
+        _insertNode.setString(5, node.kind);
+        _insertNode.setInt(6, rid);
+        _insertNode.setString(7, node.data);
+        _insertNode.setString(8, node.type);
+        _insertNode.addBatch();
+        if (node.data != null &&
+            ("call".equals(node.kind) || "new".equals(node.kind))) {
+            for (String name : splitWords(node.data)) {
+                _insertFuncCall.setString(1, name);
+                _insertFuncCall.setInt(2, node.nid);
+                _insertFuncCall.addBatch();
+            }
+        }
+    }
+
+    private static List<String> splitWords(String s) {
+        List<String> words = new ArrayList<String>();
+        for (String w : s.split("\\s+")) {
+            if (!w.isEmpty()) {
+                words.add(w);
+            }
+        }
+        return words;
+    }
+
+    //  MethodRows
+    //  A method being collected.
+    //
+    private static class MethodRows {
+
+        public String name;
+        public String style;
+        public ScopeRows root = null;
+        public Map<String, NodeRow> nodes =
+            new LinkedHashMap<String, NodeRow>();
+
+        public MethodRows(String name, String style) {
+            this.name = name;
+            this.style = style;
+        }
+    }
+
+    //  ScopeRows
+    //
+    private static class ScopeRows {
+
+        public String name;
+        public ScopeRows parent;
+        public List<NodeRow> nodes =
+            new ArrayList<NodeRow>();
+        public List<ScopeRows> children =
+            new ArrayList<ScopeRows>();
+
+        public ScopeRows(String name, ScopeRows parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+
+    //  NodeRow
+    //
+    private static class NodeRow {
+
+        public int nid = 0;
+        public String kind;
+        public String ref;
+        public String data;
+        public String type;
+        public int[] ast = null;
+        // Later labels replace the former ones, as graph2index.py.
+        public Map<String, String> inputs =
+            new LinkedHashMap<String, String>();
+
+        public NodeRow(String kind, String ref, String data, String type) {
+            this.kind = kind;
+            this.ref = ref;
+            this.data = data;
+            this.type = type;
+        }
+    }
+
+    //  GraphWriter
+    //  Collects the elements of a klass.
+    //  Attributes are buffered until the first child or the end.
+    //  Each method is added when it ends.
+    //
+    private class GraphWriter implements ElementWriter {
+
+        private Deque<String> _elements = new ArrayDeque<String>();
+        private Map<String, String> _attrs = new HashMap<String, String>();
+        private boolean _open = false;
+
+        private Map<String, String> _klassAttrs = null;
+        private int _kid = 0;
+        private MethodRows _method = null;
+        private ScopeRows _scope = null;
+        private NodeRow _node = null;
+
+        private void flushStart()
+            throws XMLStreamException {
+            if (!_open) return;
+            _open = false;
+            Map<String, String> attrs = _attrs;
+            _attrs = new HashMap<String, String>();
+            String element = _elements.peek();
+            if (element.equals("class")) {
+                _klassAttrs = attrs;
+            } else if (element.equals("method")) {
+                _method = new MethodRows(attrs.get("id"), attrs.get("style"));
+            } else if (_method == null) {
+                // Other elements of a klass.
+            } else if (element.equals("scope")) {
+                ScopeRows scope = new ScopeRows(attrs.get("name"), _scope);
+                if (_scope == null) {
+                    _method.root = scope;
+                } else {
+                    _scope.children.add(scope);
+                }
+                _scope = scope;
+            } else if (element.equals("node")) {
+                assert _scope != null;
+                _node = new NodeRow(
+                    attrs.get("kind"), attrs.get("ref"),
+                    attrs.get("data"), attrs.get("type"));
+                _scope.nodes.add(_node);
+                _method.nodes.put(attrs.get("id"), _node);
+            } else if (element.equals("ast")) {
+                // Only the ast of a node is stored.
+                if (_node != null) {
+                    _node.ast = new int[] {
+                        Integer.parseInt(attrs.get("type")),
+                        Integer.parseInt(attrs.get("start")),
+                        Integer.parseInt(attrs.get("end")),
+                    };
+                }
+            } else if (element.equals("accept")) {
+                assert _node != null;
+                String label = attrs.get("label");
+                _node.inputs.put((label == null)? "" : label, attrs.get("src"));
+            }
+        }
+
+        @Override
+        public void writeStartElement(String name)
+            throws XMLStreamException {
+            this.flushStart();
+            _elements.push(name);
+            _open = true;
+        }
+
+        @Override
+        public void writeAttribute(String name, String value)
+            throws XMLStreamException {
+            if (!_open) {
+                throw new XMLStreamException("attribute outside an element: "+name);
+            }
+            _attrs.put(name, value);
+        }
+
+        @Override
+        public void writeEndElement()
+            throws XMLStreamException {
+            this.flushStart();
+            String element = _elements.pop();
+            if (element.equals("method")) {
+                try {
+                    if (_kid == 0) {
+                        _kid = addKlass(_klassAttrs);
+                    }
+                    addMethod(_kid, _method);
+                } catch (SQLException e) {
+                    throw new XMLStreamException(e);
+                }
+                _method = null;
+            } else if (_method == null) {
+                // Other elements of a klass.
+            } else if (element.equals("scope")) {
+                _scope = _scope.parent;
+            } else if (element.equals("node")) {
+                _node = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+//  TaskSequencer
+//  Runs numbered tasks on a worker pool while keeping
+//  every change to the shared state in the serial order.
+//
+//  A task can freely read the shared state, but it must call
+//  awaitTurn() before changing it. A task i gets its turn only when
+//  all the tasks before i have finished and i is below the gate.
+//  The gate is moved forward by the caller.
+//
+public class TaskSequencer {
+
+    // Cancelled: thrown at awaitTurn() once the sequencer is cancelled.
+    public static class Cancelled extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public Cancelled() {
+            super("cancelled");
+        }
+    }
+
+    // The task that is currently running on this thread.
+    private static ThreadLocal<TaskSequencer.Slot> _current =
+        new ThreadLocal<TaskSequencer.Slot>();
+
+    // awaitTurn: blocks until the current task can change the shared state.
+    //   This does nothing when called outside a task.
+    public static void awaitTurn() {
+        Slot slot = _current.get();
+        if (slot == null) return;
+        slot.seq.awaitTurn(slot.index);
+    }
+
+    private class Slot implements Runnable {
+
+        public TaskSequencer seq = TaskSequencer.this;
+        public int index;
+        public Runnable task;
+
+        public Slot(int index, Runnable task) {
+            this.index = index;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            _current.set(this);
+            try {
+                if (!_cancelled) {
+                    this.task.run();
+                }
+            } catch (Cancelled e) {
+            } finally {
+                _current.remove();
+                finish(this.index);
+            }
+        }
+    }
+
+    private ExecutorService _pool;
+    private List<Boolean> _done = new ArrayList<Boolean>();
+    private int _finished = 0;      // All tasks below this have finished.
+    private int _gate = 0;          // Tasks at or above this cannot change anything.
+    private boolean _cancelled = false;
+
+    public TaskSequencer(ExecutorService pool) {
+        _pool = pool;
+    }
+
+    // submit: queues a task and returns its index.
+    public synchronized int submit(Runnable task) {
+        int index = _done.size();
+        _done.add(false);
+        _pool.execute(new Slot(index, task));
+        return index;
+    }
+
+    public synchronized int size() {
+        return _done.size();
+    }
+
+    // waitAll: blocks until all the submitted tasks have finished.
+    public synchronized void waitAll() {
+        while (_finished < _done.size()) {
+            this.waitFinished(_finished);
+        }
+    }
+
+    // setGate: allows the tasks below the gate to take their turn.
+    public synchronized void setGate(int gate) {
+        assert _gate <= gate;
+        _gate = gate;
+        this.notifyAll();
+    }
+
+    // waitFinished: blocks until the given task has finished.
+    public synchronized void waitFinished(int index) {
+        boolean interrupted = false;
+        while (!_done.get(index)) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // cancel: makes all the tasks that are waiting for their turn give up.
+    //   The tasks that have not started yet are skipped.
+    public synchronized void cancel() {
+        _cancelled = true;
+        this.notifyAll();
+    }
+
+    private synchronized void awaitTurn(int index) {
+        boolean interrupted = false;
+        while (!_cancelled && !(_finished == index && index < _gate)) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (_cancelled) throw new Cancelled();
+    }
+
+    private synchronized void finish(int index) {
+        _done.set(index, true);
+        while (_finished < _done.size() && _done.get(_finished)) {
+            _finished++;
+        }
+        this.notifyAll();
+    }
+}
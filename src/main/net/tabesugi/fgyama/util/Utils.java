@@ -4,6 +4,7 @@ package net.tabesugi.fgyama;
 import java.io.*;
 import java.util.*;
 import java.lang.management.*;
+import java.security.*;
 import javax.xml.stream.*;
 import javax.xml.parsers.*;
 import javax.xml.transform.*;
@@ -89,6 +90,95 @@ public class Utils {
         return b.toString();
     }
 
+    // unquote: decodes a string or character literal in the source.
+    //   StringLiteral.getLiteralValue() and CharacterLiteral.charValue()
+    //   use the scanner shared by the AST, which is not thread-safe.
+    public static String unquote(String literal) {
+        // Strip the quotes.
+        int n = literal.length();
+        if (n < 2) return "";
+        String s = decodeUnicode(literal.substring(1, n-1));
+        StringBuilder b = new StringBuilder();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i++);
+            if (c != '\\' || s.length() <= i) {
+                b.append(c);
+                continue;
+            }
+            c = s.charAt(i++);
+            switch (c) {
+            case 'b':
+                b.append('\b');
+                break;
+            case 't':
+                b.append('\t');
+                break;
+            case 'n':
+                b.append('\n');
+                break;
+            case 'f':
+                b.append('\f');
+                break;
+            case 'r':
+                b.append('\r');
+                break;
+            case 's':
+                b.append(' ');
+                break;
+            default:
+                if ('0' <= c && c <= '7') {
+                    // Octal escape: up to \377.
+                    int v = c - '0';
+                    int m = (c <= '3')? 2 : 1;
+                    while (0 < m-- && i < s.length() &&
+                           '0' <= s.charAt(i) && s.charAt(i) <= '7') {
+                        v = v*8 + (s.charAt(i++) - '0');
+                    }
+                    b.append((char)v);
+                } else {
+                    // \', \", \\ and others.
+                    b.append(c);
+                }
+                break;
+            }
+        }
+        return b.toString();
+    }
+
+    // decodeUnicode: translates the unicode escapes (\\uXXXX).
+    private static String decodeUnicode(String s) {
+        if (s.indexOf("\\u") < 0) return s;
+        StringBuilder b = new StringBuilder();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i++);
+            if (c == '\\' && i < s.length()) {
+                if (s.charAt(i) == 'u') {
+                    int j = i;
+                    while (j < s.length() && s.charAt(j) == 'u') j++;
+                    int v = 0;
+                    int k = j;
+                    while (k < j+4 && k < s.length() &&
+                           0 <= Character.digit(s.charAt(k), 16)) {
+                        v = v*16 + Character.digit(s.charAt(k++), 16);
+                    }
+                    if (k == j+4) {
+                        b.append((char)v);
+                        i = k;
+                        continue;
+                    }
+                } else {
+                    // An escaped backslash cannot start a unicode escape.
+                    b.append(c);
+                    c = s.charAt(i++);
+                }
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+
     public static String stackTrace(int n) {
         StackTraceElement[] stes = new Throwable().getStackTrace();
         if (n == 0) {
@@ -107,6 +197,44 @@ public class Utils {
         return Integer.toHexString(s.hashCode());
     }
 
+    // getSHA1: returns the SHA-1 hash of the data in hex.
+    public static String getSHA1(byte[] data) {
+        MessageDigest md = getSHA1Digest();
+        md.update(data);
+        return toHex(md.digest());
+    }
+
+    // getSHA1: returns the SHA-1 hash of the file content in hex.
+    public static String getSHA1(File file)
+        throws IOException {
+        MessageDigest md = getSHA1Digest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[65536];
+            while (true) {
+                int n = in.read(buf);
+                if (n < 0) break;
+                md.update(buf, 0, n);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest getSHA1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder b = new StringBuilder();
+        for (byte x : data) {
+            b.append(String.format("%02x", x & 0xff));
+        }
+        return b.toString();
+    }
+
     public static String readFile(String path)
         throws IOException {
         return readFile(new File(path));
@@ -220,7 +348,7 @@ public class Utils {
         }
     }
 
-    public static void writeXML(XMLStreamWriter writer, ASTNode ast)
+    public static void writeXML(ElementWriter writer, ASTNode ast)
         throws XMLStreamException {
         int type = ast.getNodeType();
         int start = ast.getStartPosition();
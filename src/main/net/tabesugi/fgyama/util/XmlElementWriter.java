@@ -0,0 +1,40 @@
+//  Java2DF
+//
+package net.tabesugi.fgyama;
+import javax.xml.stream.*;
+
+
+//  XmlElementWriter
+//  Passes the elements to an XMLStreamWriter.
+//
+public class XmlElementWriter implements ElementWriter {
+
+    private XMLStreamWriter _writer;
+
+    public XmlElementWriter(XMLStreamWriter writer) {
+        _writer = writer;
+    }
+
+    @Override
+    public String toString() {
+        return ("<XmlElementWriter("+_writer+")>");
+    }
+
+    @Override
+    public void writeStartElement(String name)
+        throws XMLStreamException {
+        _writer.writeStartElement(name);
+    }
+
+    @Override
+    public void writeAttribute(String name, String value)
+        throws XMLStreamException {
+        _writer.writeAttribute(name, value);
+    }
+
+    @Override
+    public void writeEndElement()
+        throws XMLStreamException {
+        _writer.writeEndElement();
+    }
+}
@@ -12,10 +12,21 @@ import org.eclipse.jdt.core.dom.*;
 //
 public class XmlExporter extends Exporter {
 
+    //  Recorder
+    //  Receives the XML of each klass written.
+    public interface Recorder {
+        public void startKlass(DFKlass klass, int graphId);
+        public void endKlass(DFKlass klass, int graphId, byte[] xml);
+    }
+
     private XMLStreamWriter _writer;
     private DFKlass _klass = null;
     private int _baseId = 1;
 
+    private Recorder _recorder = null;
+    private XMLStreamWriter _docWriter = null;
+    private ByteArrayOutputStream _klassBuf = null;
+
     public XmlExporter(OutputStream stream) {
         try {
             XMLOutputFactory factory = XMLOutputFactory.newFactory();
@@ -27,6 +38,7 @@ public class XmlExporter extends Exporter {
         }
     }
 
+    @Override
     public void close() {
         try {
             _writer.writeEndElement();
@@ -37,13 +49,27 @@ public class XmlExporter extends Exporter {
         }
     }
 
+    // setRecorder: passes the XML of each klass to the recorder.
+    public void setRecorder(Recorder recorder) {
+        assert _klass == null;
+        _recorder = recorder;
+    }
+
     @Override
     public void startKlass(DFKlass klass) {
         assert _klass == null;
         _klass = klass;
         try {
+            if (_recorder != null) {
+                // Write the klass into a separate buffer.
+                _recorder.startKlass(klass, _baseId);
+                _docWriter = _writer;
+                _klassBuf = new ByteArrayOutputStream();
+                XMLOutputFactory factory = XMLOutputFactory.newFactory();
+                _writer = factory.createXMLStreamWriter(_klassBuf, "utf-8");
+            }
             _writer.writeStartElement("class");
-            klass.writeXML(_writer);
+            klass.writeXML(new XmlElementWriter(_writer));
         } catch (XMLStreamException e) {
             throw new RuntimeException(e);
         }
@@ -54,20 +80,102 @@ public class XmlExporter extends Exporter {
         assert _klass != null;
         try {
             _writer.writeEndElement();
+            if (_docWriter != null) {
+                _writer.close();
+                _writer = _docWriter;
+                _docWriter = null;
+                byte[] xml = _klassBuf.toByteArray();
+                _klassBuf = null;
+                this.copyXML(xml, 0);
+                _recorder.endKlass(_klass, _baseId, xml);
+            }
         } catch (XMLStreamException e) {
             throw new RuntimeException();
         }
         _klass = null;
     }
 
+    // writeKlassXML: writes the XML of a klass recorded previously.
+    //   graphId is the first graph id used in the XML and
+    //   ngraphs is the number of the graphs.
+    public void writeKlassXML(byte[] xml, int graphId, int ngraphs) {
+        assert _klass == null;
+        try {
+            this.copyXML(xml, _baseId - graphId);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+        _baseId += ngraphs;
+    }
+
+    private void copyXML(byte[] xml, int shift)
+        throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        XMLStreamReader reader = factory.createXMLStreamReader(
+            new ByteArrayInputStream(xml), "utf-8");
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    _writer.writeStartElement(reader.getLocalName());
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String name = reader.getAttributeLocalName(i);
+                        String value = reader.getAttributeValue(i);
+                        if (shift != 0 &&
+                            (name.equals("id") || name.equals("src"))) {
+                            value = shiftGraphId(value, shift);
+                        }
+                        _writer.writeAttribute(name, value);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    _writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    _writer.writeCharacters(reader.getText());
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // shiftGraphId: renumbers a node id. (e.g. "M12_foo_N3")
+    private static String shiftGraphId(String id, int shift) {
+        if (id.length() < 3) return id;
+        char c = id.charAt(0);
+        if (c != 'M' && c != 'K') return id;
+        int i = 1;
+        while (i < id.length() && Character.isDigit(id.charAt(i))) {
+            i++;
+        }
+        if (i == 1 || i == id.length() || id.charAt(i) != '_') return id;
+        int graphId = Integer.parseInt(id.substring(1, i));
+        return c+Integer.toString(graphId+shift)+id.substring(i);
+    }
+
     @Override
     public void writeMethod(DFMethod method)
+        throws InvalidSyntax, EntityNotFound {
+        this.writeMethod(new DFGraphTask(method, _baseId));
+    }
+
+    @Override
+    public int getNextGraphId() {
+        return _baseId;
+    }
+
+    @Override
+    public void writeMethod(DFGraphTask task)
         throws InvalidSyntax, EntityNotFound {
         assert _klass != null;
+        assert task.getGraphId() == _baseId;
+        _baseId++;
         try {
             _writer.writeStartElement("method");
             try {
-                method.writeXML(_writer, _baseId++);
+                task.getMethod().writeXML(new XmlElementWriter(_writer), task);
             } finally {
                 _writer.writeEndElement();
             }
@@ -0,0 +1,212 @@
+//  UnitTestBitmap
+//
+import java.util.*;
+import junit.framework.TestCase;
+import org.junit.Test;
+import net.tabesugi.fgyama.*;
+
+public class UnitTestBitmap extends TestCase {
+
+    public UnitTestBitmap(String name) {
+        super(name);
+    }
+
+    private static SparseBitmap makeBitmap(int... values) {
+        SparseBitmap bits = new SparseBitmap();
+        for (int v : values) {
+            bits.add(v);
+        }
+        return bits;
+    }
+
+    private static void assertBits(int[] expected, SparseBitmap bits) {
+        assertTrue(Arrays.toString(bits.toArray()),
+                   Arrays.equals(expected, bits.toArray()));
+        assertEquals(expected.length, bits.cardinality());
+        assertEquals(expected.length == 0, bits.isEmpty());
+        for (int v : expected) {
+            assertTrue(bits.contains(v));
+        }
+    }
+
+    @Test
+    public void test_01_words() throws Exception {
+        // The bits around the boundaries of the words.
+        int[] values = { 0, 1, 62, 63, 64, 65, 127, 128, 191, 192, 4095, 4096 };
+        SparseBitmap bits = makeBitmap(values);
+        assertBits(values, bits);
+        assertFalse(bits.contains(2));
+        assertFalse(bits.contains(126));
+        assertFalse(bits.contains(129));
+        assertFalse(bits.contains(4097));
+        assertFalse(bits.contains(1 << 20));
+        // Adding in the reverse order and twice.
+        SparseBitmap rev = new SparseBitmap();
+        for (int i = values.length-1; 0 <= i; i--) {
+            rev.add(values[i]);
+            rev.add(values[i]);
+        }
+        assertBits(values, rev);
+        assertBits(new int[0], new SparseBitmap());
+    }
+
+    @Test
+    public void test_02_sparse() throws Exception {
+        // Large ids far apart, inserted between the others.
+        int[] values = { 5, 1000, 1 << 20, 64*1000+63, Integer.MAX_VALUE, 70000 };
+        SparseBitmap bits = makeBitmap(values);
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        assertBits(sorted, bits);
+        assertFalse(bits.contains(Integer.MAX_VALUE-1));
+        assertFalse(bits.contains(64*1000+62));
+    }
+
+    @Test
+    public void test_03_union() throws Exception {
+        SparseBitmap a = makeBitmap(0, 63, 64, 200, 1000);
+        SparseBitmap b = makeBitmap(1, 63, 127, 128, 5000);
+        a.or(b);
+        assertBits(new int[] { 0, 1, 63, 64, 127, 128, 200, 1000, 5000 }, a);
+        assertBits(new int[] { 1, 63, 127, 128, 5000 }, b);
+        a.or(new SparseBitmap());
+        assertEquals(9, a.cardinality());
+        SparseBitmap c = new SparseBitmap();
+        c.or(b);
+        assertBits(new int[] { 1, 63, 127, 128, 5000 }, c);
+        // The union does not share the words.
+        c.add(2);
+        assertFalse(b.contains(2));
+    }
+
+    @Test
+    public void test_04_andNot() throws Exception {
+        SparseBitmap a = makeBitmap(0, 1, 63, 64, 127, 128, 200, 5000);
+        SparseBitmap b = makeBitmap(1, 63, 64, 127, 128, 4000);
+        assertBits(new int[] { 0, 200, 5000 }, a.andNot(b));
+        assertBits(new int[] { 4000 }, b.andNot(a));
+        assertBits(new int[0], a.andNot(a));
+        assertBits(new int[0], new SparseBitmap().andNot(a));
+        assertBits(a.toArray(), a.andNot(new SparseBitmap()));
+        // The result can be added to.
+        SparseBitmap d = a.andNot(a);
+        d.add(65);
+        assertBits(new int[] { 65 }, d);
+    }
+
+    @Test
+    public void test_05_random() throws Exception {
+        // Compare with BitSet.
+        Random rnd = new Random(1);
+        for (int t = 0; t < 50; t++) {
+            int range = 1 << (6 + rnd.nextInt(12));
+            BitSet ra = new BitSet();
+            BitSet rb = new BitSet();
+            SparseBitmap a = new SparseBitmap();
+            SparseBitmap b = new SparseBitmap();
+            for (int i = rnd.nextInt(200); 0 < i; i--) {
+                int v = rnd.nextInt(range);
+                ra.set(v);
+                a.add(v);
+            }
+            for (int i = rnd.nextInt(200); 0 < i; i--) {
+                int v = rnd.nextInt(range);
+                rb.set(v);
+                b.add(v);
+            }
+            assertBits(ra.stream().toArray(), a);
+            BitSet rd = (BitSet)ra.clone();
+            rd.andNot(rb);
+            assertBits(rd.stream().toArray(), a.andNot(b));
+            ra.or(rb);
+            a.or(b);
+            assertBits(ra.stream().toArray(), a);
+        }
+    }
+
+    //  TestRef
+    //
+    private static class TestRef extends DFRef {
+
+        private String _name;
+
+        public TestRef(String name) {
+            super(null);
+            _name = name;
+        }
+
+        @Override
+        public DFVarScope getScope() {
+            return null;
+        }
+
+        @Override
+        public String getFullName() {
+            return _name;
+        }
+    }
+
+    @Test
+    public void test_06_refindex() throws Exception {
+        RefIndex index = new RefIndex();
+        List<DFRef> refs = new ArrayList<DFRef>();
+        for (int i = 0; i < 200; i++) {
+            refs.add(new TestRef("r"+i));
+        }
+        // The ids are given in the order the refs are seen.
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.getId(refs.get(i)));
+        }
+        SparseBitmap bits = index.toBitmap(
+            Arrays.asList(refs.get(150), refs.get(3), refs.get(70), refs.get(120)));
+        assertEquals(102, index.size());
+        assertEquals(100, index.getId(refs.get(150)));
+        assertEquals(101, index.getId(refs.get(120)));
+        for (int i = 100; i < 200; i++) {
+            index.getId(refs.get(i));
+        }
+        // The ids do not change after more refs are added.
+        assertEquals(200, index.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.getId(refs.get(i)));
+            assertSame(refs.get(i), index.getRef(i));
+        }
+        assertEquals(100, index.getId(refs.get(150)));
+        assertEquals(101, index.getId(refs.get(120)));
+        // The ids are decoded in the given order.
+        assertEquals(
+            Arrays.asList(refs.get(150), refs.get(3), refs.get(120)),
+            index.toRefs(new int[] { 100, 3, 101 }));
+        // The same refs always make the same bitmap.
+        SparseBitmap bits2 = index.toBitmap(
+            Arrays.asList(refs.get(120), refs.get(70), refs.get(150), refs.get(3)));
+        assertTrue(Arrays.equals(bits.toArray(), bits2.toArray()));
+    }
+
+    @Test
+    public void test_07_ordered() throws Exception {
+        OrderedBitmap a = new OrderedBitmap();
+        for (int v : new int[] { 500, 3, 70, 3, 1 << 20, 64 }) {
+            a.add(v);
+        }
+        assertTrue(Arrays.equals(
+            new int[] { 500, 3, 70, 1 << 20, 64 }, a.toArray()));
+        assertBits(new int[] { 3, 64, 70, 500, 1 << 20 }, a.getBits());
+        // A union appends the new elements in the order of the other.
+        OrderedBitmap b = new OrderedBitmap();
+        for (int v : new int[] { 9, 70, 1000, 2 }) {
+            b.add(v);
+        }
+        a.or(b);
+        assertTrue(Arrays.equals(
+            new int[] { 500, 3, 70, 1 << 20, 64, 9, 1000, 2 }, a.toArray()));
+        b.or(a);
+        assertTrue(Arrays.equals(
+            new int[] { 9, 70, 1000, 2, 500, 3, 1 << 20, 64 }, b.toArray()));
+        // The difference keeps the order too.
+        assertTrue(Arrays.equals(
+            new int[] { 500, 64, 1000, 2 },
+            a.andNot(makeBitmap(3, 70, 1 << 20, 9))));
+        assertEquals(0, a.andNot(b.getBits()).length);
+    }
+}
@@ -0,0 +1,223 @@
+//  UnitTestConsistentHash
+//
+import java.util.*;
+import junit.framework.TestCase;
+import org.junit.Test;
+import net.tabesugi.fgyama.*;
+
+public class UnitTestConsistentHash extends TestCase {
+
+    public UnitTestConsistentHash(String name) {
+        super(name);
+    }
+
+    private static <E> void assertOrder(List<E> expected, ConsistentHashSet<E> set) {
+        assertEquals(expected.size(), set.size());
+        // Iteration does not compact the table.
+        assertEquals(expected, new ArrayList<E>(set));
+        assertEquals(expected, Arrays.asList(set.toArray()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), set.get(i));
+        }
+    }
+
+    @Test
+    public void test_01_insert_remove() throws Exception {
+        ConsistentHashSet<String> set = new ConsistentHashSet<String>();
+        assertTrue(set.add("a"));
+        assertTrue(set.add("b"));
+        assertTrue(set.add("c"));
+        assertTrue(set.add("d"));
+        assertTrue(set.add("e"));
+        assertFalse(set.add("c"));
+        assertOrder(Arrays.asList("a", "b", "c", "d", "e"), set);
+        assertTrue(set.remove("b"));
+        assertTrue(set.remove("d"));
+        assertFalse(set.remove("d"));
+        assertFalse(set.contains("b"));
+        assertOrder(Arrays.asList("a", "c", "e"), set);
+        // A re-inserted key goes to the end.
+        assertTrue(set.add("b"));
+        assertOrder(Arrays.asList("a", "c", "e", "b"), set);
+        assertTrue(set.add("d"));
+        assertTrue(set.remove("a"));
+        assertOrder(Arrays.asList("c", "e", "b", "d"), set);
+        // Removing the last entry works as a stack.
+        assertTrue(set.remove("d"));
+        assertEquals("b", set.get(set.size()-1));
+        assertTrue(set.add("d"));
+        assertOrder(Arrays.asList("c", "e", "b", "d"), set);
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add("e"));
+        assertOrder(Arrays.asList("e"), set);
+    }
+
+    @Test
+    public void test_02_growth() throws Exception {
+        ConsistentHashSet<Integer> set = new ConsistentHashSet<Integer>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.add(i));
+            expected.add(i);
+            assertEquals(i+1, set.size());
+        }
+        assertOrder(expected, set);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.contains(i));
+        }
+        assertFalse(set.contains(1000));
+        // Remove the even numbers and add them again.
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(set.remove(i));
+        }
+        expected.clear();
+        for (int i = 1; i < 1000; i += 2) {
+            expected.add(i);
+        }
+        assertOrder(expected, set);
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(set.add(i));
+            expected.add(i);
+        }
+        assertOrder(expected, set);
+        // Keep removing the first and adding a new one.
+        for (int i = 1000; i < 5000; i++) {
+            assertTrue(set.remove(expected.remove(0)));
+            assertTrue(set.add(i));
+            expected.add(i);
+        }
+        assertOrder(expected, set);
+    }
+
+    @Test
+    public void test_03_keyAt_after_removals() throws Exception {
+        ConsistentHashSet<Integer> set = new ConsistentHashSet<Integer>();
+        for (int i = 0; i < 20; i++) {
+            set.add(i);
+        }
+        set.remove(5);
+        set.remove(6);
+        set.remove(15);
+        // Before the first hole.
+        assertEquals((Integer)4, set.get(4));
+        // After the holes.
+        assertEquals((Integer)7, set.get(5));
+        assertEquals((Integer)16, set.get(13));
+        assertEquals((Integer)19, set.get(16));
+        try {
+            set.get(17);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        // A hole made after the compaction.
+        set.remove(0);
+        assertEquals((Integer)1, set.get(0));
+        assertEquals((Integer)7, set.get(4));
+        assertEquals((Integer)19, set.get(15));
+    }
+
+    @Test
+    public void test_04_random() throws Exception {
+        // Compare with LinkedHashSet.
+        Random rnd = new Random(1);
+        ConsistentHashSet<Integer> set = new ConsistentHashSet<Integer>();
+        Set<Integer> ref = new LinkedHashSet<Integer>();
+        for (int n = 0; n < 20000; n++) {
+            int k = rnd.nextInt(200);
+            switch (rnd.nextInt(3)) {
+            case 0:
+                assertEquals(ref.add(k), set.add(k));
+                break;
+            case 1:
+                assertEquals(ref.remove(k), set.remove(k));
+                break;
+            default:
+                if (0 < ref.size()) {
+                    int i = rnd.nextInt(ref.size());
+                    assertEquals(new ArrayList<Integer>(ref).get(i), set.get(i));
+                }
+                break;
+            }
+            assertEquals(ref.size(), set.size());
+        }
+        assertOrder(new ArrayList<Integer>(ref), set);
+    }
+
+    @Test
+    public void test_05_iterator() throws Exception {
+        ConsistentHashSet<Integer> set = new ConsistentHashSet<Integer>();
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        Iterator<Integer> it = set.iterator();
+        while (it.hasNext()) {
+            if (it.next() % 3 == 0) {
+                it.remove();
+            }
+        }
+        assertOrder(Arrays.asList(1, 2, 4, 5, 7, 8), set);
+        it = set.iterator();
+        it.next();
+        set.add(10);
+        try {
+            it.next();
+            fail();
+        } catch (ConcurrentModificationException e) {
+        }
+        // A copy is independent.
+        ConsistentHashSet<Integer> copy = new ConsistentHashSet<Integer>(set);
+        copy.remove(1);
+        copy.add(1);
+        assertOrder(Arrays.asList(1, 2, 4, 5, 7, 8, 10), set);
+        assertOrder(Arrays.asList(2, 4, 5, 7, 8, 10, 1), copy);
+    }
+
+    @Test
+    public void test_06_map() throws Exception {
+        ConsistentHashMap<String,Integer> map = new ConsistentHashMap<String,Integer>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        // Updating a value keeps the order.
+        assertEquals((Integer)1, map.put("a", 10));
+        assertEquals(Arrays.asList("a", "b", "c"), map.keys());
+        assertEquals(Arrays.asList(10, 2, 3), map.values());
+        assertEquals((Integer)2, map.remove("b"));
+        assertNull(map.get("b"));
+        assertFalse(map.containsKey("b"));
+        // Putting null removes the key.
+        assertEquals((Integer)10, map.put("a", null));
+        assertEquals(1, map.size());
+        map.put("b", 20);
+        map.put("a", 30);
+        assertEquals(Arrays.asList("c", "b", "a"), map.keys());
+        assertEquals(Arrays.asList(3, 20, 30), map.values());
+        assertEquals("a", map.getKey(2));
+        assertEquals("{c=3, b=20, a=30}", map.toString());
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String,Integer> e : map.entrySet()) {
+            keys.add(e.getKey());
+            e.setValue(e.getValue()+1);
+        }
+        assertEquals(Arrays.asList("c", "b", "a"), keys);
+        assertEquals(Arrays.asList(4, 21, 31), map.values());
+    }
+
+    @Test
+    public void test_07_get_while_iterating() throws Exception {
+        ConsistentHashSet<Integer> set = new ConsistentHashSet<Integer>();
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        set.remove(2);
+        set.remove(5);
+        // Reading by index does not change the table.
+        List<Integer> got = new ArrayList<Integer>();
+        int n = 0;
+        for (Integer x : set) {
+            got.add(set.get(n++));
+        }
+        assertEquals(new ArrayList<Integer>(set), got);
+    }
+}
@@ -1,6 +1,7 @@
 //  UnitTestDF
 //
 import java.io.*;
+import java.sql.*;
 import java.util.*;
 import org.w3c.dom.*;
 import org.eclipse.jdt.core.*;
@@ -156,6 +157,92 @@ public class UnitTestDF extends XMLTestCase {
         compareXml(TESTDATA+"/basic_lambda.java", TESTDATA+"/basic_lambda.graph");
     }
 
+    // analyzeFiles: returns the output of the files with n threads.
+    public byte[] analyzeFiles(String[] javaPaths, String[] jarPaths, int nthreads)
+        throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzeFiles(javaPaths, jarPaths, nthreads, new XmlExporter(out));
+        return out.toByteArray();
+    }
+
+    // analyzeFiles: writes the output of the files to the exporter.
+    public void analyzeFiles(String[] javaPaths, String[] jarPaths, int nthreads,
+                             Exporter exporter)
+        throws Exception {
+        Java2DF converter = new Java2DF();
+        try {
+            converter.setLogLevel(-1);
+            converter.loadDefaults();
+            for (String jarPath : jarPaths) {
+                converter.loadJarFile(new File(jarPath));
+            }
+            for (String javaPath : javaPaths) {
+                converter.addSourceFile(javaPath, true);
+            }
+            List<DFSourceKlass> klasses = new ArrayList<DFSourceKlass>();
+            for (DFSourceKlass klass : converter.getSourceKlasses(true, nthreads)) {
+                if (klass.isAnalyze()) {
+                    klasses.add(klass);
+                }
+            }
+            converter.analyzeKlasses(exporter, klasses, false, nthreads);
+            exporter.close();
+        } finally {
+            converter.close();
+        }
+    }
+
+    // listTestFiles: returns all the .java files of the tests.
+    public static String[] listTestFiles() {
+        List<String> paths = new ArrayList<String>();
+        for (File file : Utils.enumerateFiles(TESTDATA)) {
+            String path = file.getPath();
+            if (path.endsWith(".java")) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        String[] javaPaths = new String[paths.size()];
+        paths.toArray(javaPaths);
+        return javaPaths;
+    }
+
+    // dumpDatabase: returns the schema and all the rows of a database.
+    public static String dumpDatabase(File file)
+        throws SQLException {
+        StringBuilder b = new StringBuilder();
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+        try {
+            java.sql.Statement stmt = conn.createStatement();
+            List<String> tables = new ArrayList<String>();
+            ResultSet rs = stmt.executeQuery(
+                "SELECT type, name, sql FROM sqlite_master ORDER BY type, name;");
+            while (rs.next()) {
+                // The whitespace in the sql may differ.
+                String sql = rs.getString(3)
+                    .replaceAll("\\s*([(),])\\s*", "$1").replaceAll("\\s+", " ");
+                b.append(rs.getString(1)+" "+rs.getString(2)+": "+sql+"\n");
+                if (rs.getString(1).equals("table")) {
+                    tables.add(rs.getString(2));
+                }
+            }
+            for (String table : tables) {
+                rs = stmt.executeQuery("SELECT * FROM "+table+" ORDER BY rowid;");
+                int ncols = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    b.append(table);
+                    for (int i = 1; i <= ncols; i++) {
+                        b.append("\t"+rs.getString(i));
+                    }
+                    b.append("\n");
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return b.toString();
+    }
+
     @Test
     public void test_22_sample_hello() throws Exception {
         compareXml(TESTDATA+"/Hello.java", TESTDATA+"/Hello.graph");
@@ -164,4 +251,316 @@ public class UnitTestDF extends XMLTestCase {
     public void test_23_sample_app1() throws Exception {
         compareXml(TESTDATA+"/App1.java", TESTDATA+"/App1.graph");
     }
+
+    @Test
+    public void test_24_parallel() throws Exception {
+        // Literals of the same file are decoded by many threads at once.
+        List<String> paths = new ArrayList<String>();
+        for (File file : Utils.enumerateFiles("src/main")) {
+            String path = file.getPath();
+            if (path.endsWith(".java")) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        String[] javaPaths = new String[paths.size()];
+        paths.toArray(javaPaths);
+        String[] jarPaths = new String[] {
+            "lib/org.eclipse.jdt.core-3.25.0.jar",
+            "lib/bcel-6.2.jar",
+        };
+        byte[] expected = analyzeFiles(javaPaths, jarPaths, 1);
+        for (int i = 0; i < 10; i++) {
+            byte[] output = analyzeFiles(javaPaths, jarPaths, 8);
+            assertTrue("parallel run "+i, Arrays.equals(expected, output));
+        }
+    }
+
+    @Test
+    public void test_25_release() throws Exception {
+        // Each file is released after the last klass that uses it.
+        Java2DF converter = new Java2DF();
+        converter.setLogLevel(-1);
+        converter.loadDefaults();
+        converter.setStreaming(true);
+        for (String name : new String[] { "a", "b", "c" }) {
+            converter.addSourceFile(TESTDATA+"/release/release_"+name+".java", true);
+        }
+        final Map<String, DFSourceKlass> name2klass =
+            new HashMap<String, DFSourceKlass>();
+        for (DFSourceKlass klass : converter.getSourceKlasses(true)) {
+            name2klass.put(klass.getName(), klass);
+        }
+        List<DFSourceKlass> klasses = new ArrayList<DFSourceKlass>();
+        klasses.add(name2klass.get("release_a"));
+        klasses.add(name2klass.get("release_b"));
+        klasses.add(name2klass.get("release_c"));
+        final List<String> released = new ArrayList<String>();
+        XmlExporter exporter = new XmlExporter(new ByteArrayOutputStream()) {
+            @Override
+            public void startKlass(DFKlass klass) {
+                released.add(klass.getName()+":"+
+                             name2klass.get("release_a").isReleased()+","+
+                             name2klass.get("release_b").isReleased());
+                super.startKlass(klass);
+            }
+        };
+        converter.analyzeKlasses(exporter, klasses, false, 1);
+        exporter.close();
+        assertEquals(
+            Arrays.asList(
+                "release_a:false,false",
+                "release_b:false,false",
+                "release_c:true,false"),
+            released);
+        assertTrue(name2klass.get("release_c").isReleased());
+    }
+
+    @Test
+    public void test_26_sqlite() throws Exception {
+        // The database is the same as the one made by graph2index.py.
+        String dumpPath = TESTDATA+"/all.dbdump";
+        File dbFile = File.createTempFile("fgyama", ".db");
+        try {
+            analyzeFiles(listTestFiles(), new String[0], 1,
+                         new SqliteExporter(dbFile));
+            String dump = dumpDatabase(dbFile);
+            String expected = new String(
+                java.nio.file.Files.readAllBytes(new File(dumpPath).toPath()), "UTF-8");
+            if (!expected.equals(dump)) {
+                Writer errout = new OutputStreamWriter(
+                    new FileOutputStream(new File(dumpPath+".err")), "UTF-8");
+                errout.write(dump);
+                errout.close();
+                fail("database differs: "+dumpPath+".err");
+            }
+        } finally {
+            dbFile.delete();
+        }
+    }
+
+    @Test
+    public void test_27_binary() throws Exception {
+        // The binary output is converted back to the same XML.
+        String[] javaPaths = listTestFiles();
+        byte[] expected = analyzeFiles(javaPaths, new String[0], 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzeFiles(javaPaths, new String[0], 1, new BinaryExporter(out));
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        BinaryGraphReader.writeXml(new ByteArrayInputStream(out.toByteArray()), xml);
+        assertTrue(out.size() < expected.length);
+        assertTrue(Arrays.equals(expected, xml.toByteArray()));
+    }
+
+    // countGraph: returns the number of the nodes and edges of a method.
+    private static int[] countGraph(Document doc, String methodId) {
+        NodeList methods = doc.getElementsByTagName("method");
+        for (int i = 0; i < methods.getLength(); i++) {
+            Element method = (Element)methods.item(i);
+            if (!method.getAttribute("id").equals(methodId)) continue;
+            return new int[] {
+                method.getElementsByTagName("node").getLength(),
+                method.getElementsByTagName("accept").getLength(),
+            };
+        }
+        fail("method not found: "+methodId);
+        return null;
+    }
+
+    // analyzeSource: returns the output of a source file.
+    private static Document analyzeSource(
+        List<String> lines, int maxCallees, boolean expand)
+        throws Exception {
+        File dir = java.nio.file.Files.createTempDirectory("fgyama").toFile();
+        File src = new File(dir, "Mega.java");
+        try {
+            PrintWriter w = new PrintWriter(src, "UTF-8");
+            for (String line : lines) {
+                w.println(line);
+            }
+            w.close();
+            Java2DF converter = new Java2DF();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                converter.setLogLevel(-1);
+                converter.loadDefaults();
+                converter.setMaxCallees(maxCallees);
+                converter.addSourceFile(src.getPath(), true);
+                List<DFSourceKlass> klasses = new ArrayList<DFSourceKlass>();
+                for (DFSourceKlass klass : converter.getSourceKlasses(expand)) {
+                    if (klass.isAnalyze()) {
+                        klasses.add(klass);
+                    }
+                }
+                XmlExporter exporter = new XmlExporter(out);
+                converter.analyzeKlasses(exporter, klasses, false, 1);
+                exporter.close();
+            } finally {
+                converter.close();
+            }
+            return Utils.readXml(new ByteArrayInputStream(out.toByteArray()));
+        } finally {
+            src.delete();
+            dir.delete();
+        }
+    }
+
+    // analyzeMegamorphic: returns the node/edge counts of the calls
+    //   to a method with n overriders.
+    private static int[][] analyzeMegamorphic(int n, int maxCallees)
+        throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("interface I { int f(); }");
+        for (int k = 0; k < n; k++) {
+            lines.add("class C"+k+" implements I { int x"+k+"; "+
+                      "public int f() { return x"+k+"++; } }");
+        }
+        lines.add("class Caller {");
+        lines.add("  int g1(I a) { return a.f(); }");
+        lines.add("  int g3(I a, I b, I c) { return a.f() + b.f() + c.f(); }");
+        lines.add("}");
+        Document doc = analyzeSource(lines, maxCallees, true);
+        return new int[][] {
+            countGraph(doc, "LCaller;.g1(LI;)I"),
+            countGraph(doc, "LCaller;.g3(LI;LI;LI;)I"),
+        };
+    }
+
+    // listAccepts: returns the kinds of the nodes that the nodes
+    //   of a given kind accept with a label.
+    private static List<String> listAccepts(
+        Document doc, String methodId, String kind, String label) {
+        List<String> kinds = new ArrayList<String>();
+        NodeList methods = doc.getElementsByTagName("method");
+        for (int i = 0; i < methods.getLength(); i++) {
+            Element method = (Element)methods.item(i);
+            if (!method.getAttribute("id").equals(methodId)) continue;
+            Map<String, String> id2kind = new HashMap<String, String>();
+            NodeList nodes = method.getElementsByTagName("node");
+            for (int j = 0; j < nodes.getLength(); j++) {
+                Element node = (Element)nodes.item(j);
+                id2kind.put(node.getAttribute("id"), node.getAttribute("kind"));
+            }
+            for (int j = 0; j < nodes.getLength(); j++) {
+                Element node = (Element)nodes.item(j);
+                if (!node.getAttribute("kind").equals(kind)) continue;
+                NodeList accepts = node.getElementsByTagName("accept");
+                for (int k = 0; k < accepts.getLength(); k++) {
+                    Element accept = (Element)accepts.item(k);
+                    if (accept.getAttribute("label").equals(label)) {
+                        kinds.add(id2kind.get(accept.getAttribute("src")));
+                    }
+                }
+            }
+        }
+        return kinds;
+    }
+
+    @Test
+    public void test_28_megamorphic() throws Exception {
+        // With -P, two more call sites add the same number of
+        // nodes and edges however many overriders there are.
+        int[][] p20 = analyzeMegamorphic(20, 5);
+        int[][] p40 = analyzeMegamorphic(40, 5);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(p20[1][i]-p20[0][i], p40[1][i]-p40[0][i]);
+        }
+        assertEquals(9, p20[1][0]-p20[0][0]);
+        assertEquals(10, p20[1][1]-p20[0][1]);
+        // Without -P, they grow with the overriders.
+        int[][] f20 = analyzeMegamorphic(20, 0);
+        int[][] f40 = analyzeMegamorphic(40, 0);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(f20[1][i]-f20[0][i] < f40[1][i]-f40[0][i]);
+            assertTrue(p40[1][i] < f40[1][i]);
+        }
+    }
+
+    @Test
+    public void test_29_universes() throws Exception {
+        // Two analyses run side by side give the same outputs as
+        // each of them alone.
+        String[] javaPaths = listTestFiles();
+        final String[][] inputs = new String[][] {
+            Arrays.copyOfRange(javaPaths, 0, javaPaths.length/2),
+            Arrays.copyOfRange(javaPaths, javaPaths.length/2, javaPaths.length),
+        };
+        final String[] jarPaths = new String[0];
+        byte[][] expected = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            expected[i] = analyzeFiles(inputs[i], jarPaths, 1);
+        }
+        for (int t = 0; t < 3; t++) {
+            final byte[][] outputs = new byte[inputs.length][];
+            final Exception[] errors = new Exception[inputs.length];
+            Thread[] threads = new Thread[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                final int j = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        outputs[j] = analyzeFiles(inputs[j], jarPaths, 4);
+                    } catch (Exception e) {
+                        errors[j] = e;
+                    }
+                });
+                threads[i].start();
+            }
+            for (int i = 0; i < inputs.length; i++) {
+                threads[i].join();
+                if (errors[i] != null) throw errors[i];
+                assertTrue("run "+t+", input "+i,
+                           Arrays.equals(expected[i], outputs[i]));
+            }
+        }
+        // Each universe has its own log level.
+        DFTypeUniverse quiet = new DFTypeUniverse();
+        quiet.setLogLevel(-1);
+        DFTypeUniverse verbose = new DFTypeUniverse();
+        verbose.setLogLevel(2);
+        DFTypeUniverse prev = quiet.enter();
+        try {
+            assertEquals(-1, Logger.getLevel());
+            verbose.enter();
+            assertEquals(2, Logger.getLevel());
+            DFTypeUniverse.exit(quiet);
+            assertEquals(-1, Logger.getLevel());
+        } finally {
+            DFTypeUniverse.exit(prev);
+        }
+    }
+
+    @Test
+    public void test_30_megamorphic_fields() throws Exception {
+        // A field written before a megamorphic call.
+        List<String> lines = new ArrayList<String>();
+        lines.add("interface I { int f(); }");
+        lines.add("class S { static int v; }");
+        for (int k = 0; k < 8; k++) {
+            lines.add("class C"+k+" implements I { "+
+                      "public int f() { return S.v + "+k+"; } }");
+        }
+        lines.add("class Caller { int g(I a) { S.v = 7; return a.f(); } }");
+        String methodId = "LCaller;.g(LI;)I";
+        // Without -P, the call takes the value written before it.
+        Document full = analyzeSource(lines, 0, true);
+        assertEquals(Arrays.asList("assign_field"),
+                     listAccepts(full, methodId, "call", ".LS;/.v"));
+        // With -P, the summary only takes the values at the start of
+        // the graph, so the write is not seen: the field comes
+        // from the pass-in refs of the caller.
+        Document summary = analyzeSource(lines, 5, true);
+        assertEquals(Arrays.asList("passin"),
+                     listAccepts(summary, methodId, "summary", ".LS;/.v"));
+        assertEquals(Collections.<String>emptyList(),
+                     listAccepts(summary, methodId, "call", ".LS;/.v"));
+        assertEquals(Arrays.asList("summary"),
+                     listAccepts(summary, methodId, "call", "#summary"));
+        // Without the ref expansion, the field is neither an input
+        // nor a pass-in ref of the caller, and it is dropped.
+        Document unexpanded = analyzeSource(lines, 5, false);
+        assertEquals(Collections.<String>emptyList(),
+                     listAccepts(unexpanded, methodId, "summary", ".LS;/.v"));
+        assertEquals(Collections.<String>emptyList(),
+                     listAccepts(unexpanded, methodId, "call", ".LS;/.v"));
+    }
 }
@@ -0,0 +1,150 @@
+//  UnitTestSCC
+//
+import java.util.*;
+import junit.framework.TestCase;
+import org.junit.Test;
+import net.tabesugi.fgyama.*;
+
+public class UnitTestSCC extends TestCase {
+
+    public UnitTestSCC(String name) {
+        super(name);
+    }
+
+    private static List<List<Integer>> makeGraph(int n) {
+        List<List<Integer>> graph = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            graph.add(new ArrayList<Integer>());
+        }
+        return graph;
+    }
+
+    private static List<SCCFinder<Integer>.SCC> findSCCs(List<List<Integer>> graph) {
+        SCCFinder<Integer> f = new SCCFinder<Integer>(v -> graph.get(v));
+        for (int i = 0; i < graph.size(); i++) {
+            f.add(i);
+        }
+        return f.getSCCs();
+    }
+
+    // checkSCCs: compares the SCCs with the ones found by
+    //   the reachability of each pair, and checks the order.
+    private static void checkSCCs(List<List<Integer>> graph,
+                                  List<SCCFinder<Integer>.SCC> sccs) {
+        int n = graph.size();
+        BitSet[] reach = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            reach[i] = new BitSet(n);
+            Deque<Integer> queue = new ArrayDeque<Integer>();
+            queue.add(i);
+            reach[i].set(i);
+            while (!queue.isEmpty()) {
+                for (int j : graph.get(queue.remove())) {
+                    if (!reach[i].get(j)) {
+                        reach[i].set(j);
+                        queue.add(j);
+                    }
+                }
+            }
+        }
+        int[] index = new int[n];
+        Arrays.fill(index, -1);
+        for (int k = 0; k < sccs.size(); k++) {
+            SCCFinder<Integer>.SCC scc = sccs.get(k);
+            assertEquals(k+1, scc.cid);
+            for (int i : scc.items) {
+                assertEquals(-1, index[i]);
+                index[i] = k;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            assertTrue(0 <= index[i]);
+            for (int j = 0; j < n; j++) {
+                boolean same = (reach[i].get(j) && reach[j].get(i));
+                assertEquals(same, index[i] == index[j]);
+            }
+        }
+        // An SCC comes after all the SCCs reachable from it,
+        // and the links between the SCCs follow the edges.
+        for (int i = 0; i < n; i++) {
+            SCCFinder<Integer>.SCC scc0 = sccs.get(index[i]);
+            for (int j : graph.get(i)) {
+                SCCFinder<Integer>.SCC scc1 = sccs.get(index[j]);
+                if (scc0 == scc1) continue;
+                assertTrue(index[j] < index[i]);
+                assertTrue(scc0.to.contains(scc1));
+                assertTrue(scc1.from.contains(scc0));
+            }
+        }
+    }
+
+    @Test
+    public void test_01_chain() throws Exception {
+        // 200 pairs: 2i <-> 2i+1 -> 2i+2.
+        int npairs = 200;
+        List<List<Integer>> graph = makeGraph(npairs*2);
+        for (int i = 0; i < npairs; i++) {
+            graph.get(2*i).add(2*i+1);
+            graph.get(2*i+1).add(2*i);
+            if (i+1 < npairs) {
+                graph.get(2*i+1).add(2*i+2);
+            }
+        }
+        List<SCCFinder<Integer>.SCC> sccs = findSCCs(graph);
+        checkSCCs(graph, sccs);
+        // The last pair first.
+        assertEquals(npairs, sccs.size());
+        for (int k = 0; k < npairs; k++) {
+            int i = npairs-1-k;
+            assertEquals(Arrays.asList(2*i+1, 2*i), sccs.get(k).items);
+        }
+    }
+
+    @Test
+    public void test_02_cycle() throws Exception {
+        // A large cycle with a tail into it.
+        int n = 300;
+        List<List<Integer>> graph = makeGraph(n+10);
+        for (int i = 0; i < n; i++) {
+            graph.get(i).add((i+1) % n);
+        }
+        for (int i = n; i < n+10; i++) {
+            graph.get(i).add((i+1 < n+10)? i+1 : 150);
+        }
+        List<SCCFinder<Integer>.SCC> sccs = findSCCs(graph);
+        checkSCCs(graph, sccs);
+        assertEquals(11, sccs.size());
+        assertEquals(n, sccs.get(0).items.size());
+        for (int k = 1; k <= 10; k++) {
+            assertEquals(Arrays.asList(n+10-k), sccs.get(k).items);
+        }
+    }
+
+    @Test
+    public void test_03_random() throws Exception {
+        Random rnd = new Random(1);
+        for (int t = 0; t < 10; t++) {
+            int n = 130 + rnd.nextInt(300);
+            List<List<Integer>> graph = makeGraph(n);
+            for (int e = 0; e < n*3/2; e++) {
+                graph.get(rnd.nextInt(n)).add(rnd.nextInt(n));
+            }
+            checkSCCs(graph, findSCCs(graph));
+        }
+    }
+
+    @Test
+    public void test_04_deep() throws Exception {
+        // A long chain does not overflow the stack.
+        int n = 100000;
+        List<List<Integer>> graph = makeGraph(n);
+        for (int i = 0; i+1 < n; i++) {
+            graph.get(i).add(i+1);
+        }
+        graph.get(n-1).add(n/2);
+        List<SCCFinder<Integer>.SCC> sccs = findSCCs(graph);
+        assertEquals(n/2+1, sccs.size());
+        assertEquals(n-n/2, sccs.get(0).items.size());
+        assertEquals(Arrays.asList(0), sccs.get(n/2).items);
+    }
+}
@@ -0,0 +1,4 @@
+package net.tabesugi.fgyama.jmh_generated;
+public class Java2DFBench_Analyzed_jmhType extends Java2DFBench_Analyzed_jmhType_B3 {
+}
+
@@ -0,0 +1,8 @@
+public class release_a {
+
+    int x;
+
+    public int get() {
+        return x;
+    }
+}
@@ -0,0 +1,8 @@
+public class release_b {
+
+    release_a a;
+
+    public int get() {
+        return a.get();
+    }
+}
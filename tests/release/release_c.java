@@ -0,0 +1,8 @@
+public class release_c {
+
+    release_b b;
+
+    public int get() {
+        return b.get();
+    }
+}
@@ -5,6 +5,7 @@ import os.path
 import xml.sax
 import xml.sax.handler
 import logging
+from array import array
 from subprocess import Popen, PIPE
 from xml.etree.ElementTree import Element
 
@@ -440,6 +441,14 @@ class FGYamaParser(xml.sax.handler.ContentHandler):
         self._cur = self._stack.pop()
         return
 
+    def emptyElement(self, name, attrs):
+        # startElement() and endElement() at once.
+        if self._cur is not None:
+            handler = self._cur(name, attrs)
+            if handler is not None:
+                handler(None, None)
+        return
+
     def handleRoot(self, name, attrs):
         if name is None:
             return
@@ -588,6 +597,129 @@ class FGYamaParser(xml.sax.handler.ContentHandler):
             raise ValueError(f'Invalid tag: {name}')
 
 
+##  FGYamaBinaryParser
+##  Reads the binary format written by Java2DF -B.
+##  (See BinaryExporter.java for the format.)
+##
+BINARY_MAGIC = b'FGB\x02'
+BINARY_TYPECODES = {}
+for c in 'BHIL':
+    BINARY_TYPECODES.setdefault(array(c).itemsize, c)
+class FGYamaBinaryParser:
+
+    def __init__(self, mid=0):
+        self.handler = FGYamaParser(mid)
+        # strings[k+1] is the k-th string, strings[0] is None.
+        self.strings = [None]
+        return
+
+    def parse(self, fp):
+        if fp.read(len(BINARY_MAGIC)) != BINARY_MAGIC:
+            raise ValueError('Invalid format')
+        handler = self.handler
+        handler.startElement('fgyama', {})
+        while True:
+            rtype = fp.read(1)[0]
+            if rtype == 0:
+                break
+            elif rtype == 1:
+                lengths = readcolumn(fp, readvarint(fp))
+                data = fp.read(sum(lengths))
+                i = 0
+                for n in lengths:
+                    self.strings.append(data[i:i+n].decode('utf-8'))
+                    i += n
+            elif rtype == 2:
+                self.parse_klass(fp)
+                for data in handler.flush():
+                    yield data
+            else:
+                raise ValueError(f'Invalid record: {rtype}')
+        handler.endElement('fgyama')
+        for data in handler.flush():
+            yield data
+        return
+
+    def parse_klass(self, fp):
+        (nelems, nattrs, nnodes, nedges) = [ readvarint(fp) for _ in range(4) ]
+        (eparent, ename) = [ readcolumn(fp, nelems) for _ in range(2) ]
+        (aelem, aname, avalue) = [ readcolumn(fp, nattrs) for _ in range(3) ]
+        (nscope, nnid, nprefix, nkind, ndata, ntype, nref,
+         nasttype, naststart, nastend) = [ readcolumn(fp, nnodes) for _ in range(10) ]
+        (enode, esrc, elabel) = [ readcolumn(fp, nedges) for _ in range(3) ]
+        strings = self.strings
+        names = [ strings[k+1] for k in ename ]
+        nids = [ (f'{strings[p+1]}_N{n}' if n else strings[p+1])
+                 for (n,p) in zip(nnid, nprefix) ]
+        inputs = [ {} for _ in range(nnodes) ]
+        for (n,src,label) in zip(enode, esrc, elabel):
+            inputs[n][strings[label] or ''] = nids[src]
+        # Every table is sorted by the element in the document order.
+        handler = self.handler
+        stack = []
+        (a, i) = (0, 0)
+        for e in range(nelems):
+            parent = eparent[e]-1
+            while stack and stack[-1] != parent:
+                handler.endElement(names[stack.pop()])
+            attrs = {}
+            while a < nattrs and aelem[a] == e:
+                attrs[strings[aname[a]+1]] = strings[avalue[a]+1]
+                a += 1
+            if ((i == nnodes or nscope[i] != e) and
+                (e+1 == nelems or eparent[e+1] != e+1)):
+                handler.emptyElement(names[e], attrs)
+                continue
+            handler.startElement(names[e], attrs)
+            stack.append(e)
+            method = handler.method
+            scope = handler.scope
+            while i < nnodes and nscope[i] == e:
+                if scope is None:
+                    raise ValueError(f'Invalid node: {nids[i]}')
+                node = DFNode(
+                    method, nids[i], scope,
+                    strings[nkind[i]], strings[nref[i]],
+                    strings[ndata[i]], strings[ntype[i]])
+                if nasttype[i]:
+                    node.ast = (nasttype[i],
+                                unzigzag(naststart[i]),
+                                unzigzag(nastend[i]))
+                node.inputs = inputs[i]
+                method.nodes[node.nid] = node
+                scope.nodes.append(node)
+                i += 1
+        while stack:
+            handler.endElement(names[stack.pop()])
+        if a != nattrs or i != nnodes:
+            raise ValueError('Broken klass')
+        return
+
+def readcolumn(fp, n):
+    width = fp.read(1)[0]
+    if width not in (1, 2, 4):
+        raise ValueError(f'Invalid column: {width}')
+    a = array(BINARY_TYPECODES[width])
+    a.frombytes(fp.read(n*width))
+    if len(a) != n:
+        raise ValueError('Truncated column')
+    if sys.byteorder == 'big':
+        a.byteswap()
+    return a
+
+def unzigzag(v):
+    return (v >> 1) ^ -(v & 1)
+
+def readvarint(fp):
+    v = 0
+    shift = 0
+    while True:
+        b = fp.read(1)[0]
+        v |= (b & 0x7f) << shift
+        if b < 0x80: return v
+        shift += 7
+
+
 ##  get_graphs
 ##
 def get_graphs(arg, mid=0):
@@ -612,8 +744,13 @@ def get_graphs(arg, mid=0):
             if mids is None or method.mid in mids:
                 yield method
     else:
-        with open(path) as fp:
-            methods = FGYamaParser(mid).parse(fp)
+        with open(path, 'rb') as fp:
+            if fp.read(len(BINARY_MAGIC)) == BINARY_MAGIC:
+                fp.seek(0)
+                methods = FGYamaBinaryParser(mid).parse(fp)
+            else:
+                fp.seek(0)
+                methods = FGYamaParser(mid).parse(fp)
             for method in methods:
                 if mids is None or method.mid in mids:
                     yield method